@@ -0,0 +1,305 @@
+package cmdline;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Schema and field binding plan derived from &#64;Option and &#64;Rule
+ * annotations of a config class and its superclasses. It is built once per
+ * class and cached.
+ *
+ * The cache doesn't keep config classes from unloading, e.g. of a plugin
+ * class loader: the config class, field types and field setters are held
+ * by weak references, a setter collected is resolved again by its field.
+ *
+ * Values of fields other than strings, flags and enums are validated by
+ * their field types when parsed, e.g. an int field accepts integers only.
+ *
+ * @author Wayne Zhang
+ */
+final class CmdLineAnnotationSchema {
+    private static final ClassValue<CmdLineAnnotationSchema> CACHE =
+        new ClassValue<CmdLineAnnotationSchema>(){
+            @Override
+            protected CmdLineAnnotationSchema computeValue(Class<?> type){
+                return new CmdLineAnnotationSchema(type);
+            }
+        };
+
+    // generic setter type, (Object target, Object value)void
+    private static final MethodType SETTER_TYPE = MethodType.methodType(
+            void.class, Object.class, Object.class);
+
+    private final WeakReference<Class<?>> type;
+    // frozen schema, which parsers extend
+    private final CmdLineSchema schema;
+    // field setters, indexed by argument ordinal
+    private final FieldBinding[] bindings;
+
+    /**
+     * Get the annotation schema of a config class
+     *
+     * @param type config class
+     * @return annotation schema, built the first time
+     */
+    static CmdLineAnnotationSchema of(Class<?> type){
+        return CACHE.get(type);
+    }
+
+    private CmdLineAnnotationSchema(Class<?> type){
+        this.type = new WeakReference<Class<?>>(type);
+        this.schema = new CmdLineSchema();
+
+        List<FieldBinding> list = new ArrayList<>();
+        for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                Option option = field.getAnnotation(Option.class);
+                if(option != null){
+                    list.add(defineArgument(field, option));
+                }
+            }
+        }
+
+        for(FieldBinding binding : list){
+            if(TypeValidator.isChecked(binding.getType())){
+                schema.addValidators(new TypeValidator(
+                        schema.getArguments()[binding.ordinal].getLongName(), binding.getType()));
+            }
+        }
+
+        // rules of superclasses, which may read inherited fields
+        for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()){
+            for(Rule rule : c.getDeclaredAnnotationsByType(Rule.class)){
+                schema.addRuleExpressions(rule.value());
+            }
+        }
+
+        schema.freeze();
+
+        bindings = new FieldBinding[schema.size()];
+        for(FieldBinding binding : list){
+            bindings[binding.ordinal] = binding;
+        }
+    }
+
+    private FieldBinding defineArgument(Field field, Option option){
+        Class<?> fieldType = field.getType();
+        if(Modifier.isStatic(field.getModifiers()) ||
+           Modifier.isFinal(field.getModifiers()) ||
+           !ReflectionHelper.isConvertible(fieldType))
+        {
+            throw new IllegalArgumentException("Option field not supported: " + field);
+        }
+
+        String longName = option.longName().isEmpty() ?
+                "--" + field.getName() : option.longName();
+        boolean isFlag = fieldType == boolean.class || fieldType == Boolean.class;
+
+        CmdLineArgument.CmdLineArgumentBuilder builder = CmdLineArgument.builder()
+                .shortName(option.shortName())
+                .longName(longName)
+                .hasValue(!isFlag)
+                .isMandatory(option.mandatory());
+        if(!option.group().isEmpty()){
+            builder.group(option.group());
+        }
+        if(option.values().length > 0){
+            builder.enumValues(option.values());
+        }else if(fieldType.isEnum()){
+            builder.enumType(fieldType).ignoreCase(option.ignoreCase());
+        }
+
+        CmdLineArgument arg = builder.build();
+        schema.defineArgument(arg);
+
+        try{
+            return new FieldBinding(arg.getOrdinal(), field, findSetter(field));
+        }catch(IllegalAccessException | RuntimeException e){
+            throw new IllegalArgumentException("Option field not accessible: " + field, e);
+        }
+    }
+
+    private static MethodHandle findSetter(Field field) throws IllegalAccessException{
+        field.setAccessible(true);
+
+        return MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+    }
+
+    /**
+     * Is an object an instance of the config class?
+     */
+    boolean isInstance(Object target){
+        Class<?> c = type.get();
+
+        return c != null && c.isInstance(target);
+    }
+
+    CmdLineSchema getSchema(){
+        return schema;
+    }
+
+    /**
+     * Set supplied argument values to the fields of a config object
+     *
+     * @param target config object
+     * @param values argument values indexed by ordinal
+     */
+    void bind(Object target, String[] values){
+        int size = Math.min(bindings.length, values.length);
+        for(int i = 0; i < size; i++){
+            FieldBinding binding = bindings[i];
+            if(binding != null && values[i] != null){
+                binding.apply(target, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Clear the fields of arguments not supplied any more, flags are set to
+     * false, other fields to null or zero of primitive types
+     *
+     * @param target config object
+     * @param unset is argument unset, indexed by ordinal
+     */
+    void unbind(Object target, boolean[] unset){
+        int size = Math.min(bindings.length, unset.length);
+        for(int i = 0; i < size; i++){
+            FieldBinding binding = bindings[i];
+            if(binding != null && unset[i]){
+                binding.apply(target, null);
+            }
+        }
+    }
+
+    /**
+     * Check supplied argument values can be converted to their field types,
+     * so that a bind doesn't fail halfway
+     *
+     * @param values argument values indexed by ordinal
+     * @throws IllegalArgumentException if a value can't be converted
+     */
+    void check(String[] values){
+        int size = Math.min(bindings.length, values.length);
+        for(int i = 0; i < size; i++){
+            FieldBinding binding = bindings[i];
+            if(binding != null && values[i] != null){
+                ReflectionHelper.convert(values[i], binding.getType());
+            }
+        }
+    }
+
+    /**
+     * Validator of values converted to their field type, e.g. int
+     */
+    private static final class TypeValidator implements CmdLineArgumentValidator {
+        private final String argument;
+        private final Class<?> type;
+
+        TypeValidator(String argument, Class<?> type){
+            this.argument = argument;
+            this.type = type;
+        }
+
+        /**
+         * Are values of a field type checked? strings take any value, flags
+         * and enums are checked by their arguments
+         */
+        static boolean isChecked(Class<?> type){
+            return type != String.class && type != Object.class && !type.isEnum() &&
+                   type != boolean.class && type != Boolean.class;
+        }
+
+        @Override
+        public String[] getArguments(){
+            return new String[]{argument};
+        }
+
+        @Override
+        public Cost getCost(){
+            return Cost.CHEAP;
+        }
+
+        @Override
+        public void validate(CmdLineValues values){
+            String value = values.getArgumentValue(argument);
+            if(value == null){
+                return;
+            }
+
+            try{
+                ReflectionHelper.convert(value, type);
+            }catch(IllegalArgumentException e){
+                throw new IllegalArgumentException("Argument " + argument + " " + this +
+                        " but " + CmdLineParseLimits.of(values).abbreviate(value));
+            }
+        }
+
+        @Override
+        public String getFingerprint(){
+            return argument + " " + this;
+        }
+
+        @Override
+        public String toString(){
+            return "is " + type.getSimpleName();
+        }
+    }
+
+    private static final class FieldBinding {
+        private final int ordinal;
+        private final String name;
+        private final WeakReference<Class<?>> owner;
+        private final WeakReference<Class<?>> type;
+        private volatile WeakReference<MethodHandle> setter;
+
+        FieldBinding(int ordinal, Field field, MethodHandle setter){
+            this.ordinal = ordinal;
+            this.name = field.getName();
+            this.owner = new WeakReference<Class<?>>(field.getDeclaringClass());
+            this.type = new WeakReference<Class<?>>(field.getType());
+            this.setter = new WeakReference<>(setter);
+        }
+
+        Class<?> getType(){
+            return type.get();
+        }
+
+        /**
+         * Get the setter, resolved again by the field if it is collected
+         */
+        private MethodHandle getSetter(){
+            MethodHandle handle = setter.get();
+            if(handle == null){
+                // the owner is alive while an instance of it is bound
+                try{
+                    handle = findSetter(owner.get().getDeclaredField(name));
+                }catch(ReflectiveOperationException e){
+                    throw new RuntimeException("Set argument by apply " + name + " failed", e);
+                }
+                setter = new WeakReference<>(handle);
+            }
+
+            return handle;
+        }
+
+        /**
+         * @param value argument value, or null to set the zero value
+         */
+        void apply(Object target, String value){
+            MethodHandle handle = getSetter();
+            try{
+                handle.invokeExact(target, ReflectionHelper.convert(value, getType()));
+            }catch(RuntimeException | Error e){
+                throw e;
+            }catch(Throwable e){
+                throw new RuntimeException("Set argument by apply " + name + " failed", e);
+            }
+        }
+    }
+}
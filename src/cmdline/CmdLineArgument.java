@@ -1,8 +1,7 @@
 package cmdline;
         
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -43,10 +42,21 @@ class CmdLineArgument implements java.io.Serializable {
     private final String longName;
     private final boolean hasValue;  // if the argument has value?
     private final Set<String> enumValues;
-    private String value;    
     private boolean isMandatory;     // Ehancmement - mandatory argument
-    // Argument rules, such as p1 dependsOn p2 or p3 conflictsWith p4
-    private List<CmdLineArgumentRule> rules = new ArrayList<>();
+    // index of the argument in its schema, -1 if not defined yet
+    private int ordinal = -1;
+    // can't be changed once its schema is frozen
+    private boolean frozen;
+    // help group, null if not grouped
+    private String group;
+    // help fragment, cached until the argument is changed
+    private transient String helpInfo;
+    // fuzzy index of enumeration values, built on the first wrong value
+    private transient volatile CmdLineFuzzyIndex valueIndex;
+    // enum class of values, null if values are not backed by an enum
+    private Class<?> enumType;
+    // are enum values matched case-insensitively?
+    private boolean isIgnoreCase;
     
     public CmdLineArgument(String shortName, String longName, boolean hasValue,
             Set<String> enumValues, boolean isMandatory){
@@ -102,13 +112,6 @@ class CmdLineArgument implements java.io.Serializable {
         }
     }
     
-    public void addRule(CmdLineArgumentRule rule){
-        // set the first argument
-        rule.setArg1(this);
-        
-        rules.add(rule);
-    }
-    
     public String getShortName(){
         return shortName;        
     }
@@ -129,6 +132,54 @@ class CmdLineArgument implements java.io.Serializable {
         return enumValues;
     }
     
+    /**
+     * Get the enum class which values are constants of
+     * 
+     * @return enum class or null if values are not backed by an enum
+     */
+    public Class<?> getEnumType(){
+        return enumType;
+    }
+    
+    public boolean isIgnoreCase(){
+        return isIgnoreCase;
+    }
+    
+    /**
+     * Get the canonical form of a value, the name of the enum constant it
+     * matches, so that values parsed keep no copy of command line strings
+     * 
+     * @param value argument value
+     * @return constant name, or the value itself if it matches no constant
+     *         or values are not backed by an enum
+     */
+    String canonicalize(String value){
+        if(enumType == null || value == null){
+            return value;
+        }
+        
+        Enum<?> constant = CmdLineEnumIndex.of(enumType).lookup(value, isIgnoreCase);
+        
+        return constant == null ? value : constant.name();
+    }
+    
+    /**
+     * Suggest enumeration values for a wrong value
+     * 
+     * @param value wrong value
+     * @return e.g. ", did you mean ADD?", or "" if no suggestion
+     */
+    String didYouMean(String value){
+        CmdLineFuzzyIndex index = valueIndex;
+        if(index == null){
+            // enumeration values are not changed once defined
+            index = new CmdLineFuzzyIndex(enumValues);
+            valueIndex = index;
+        }
+        
+        return CmdLineFuzzyIndex.didYouMean(index.suggest(value));
+    }
+    
     public String getEnumValuesAsString(){
         if(!isEnumValue()){
             return "";
@@ -150,16 +201,45 @@ class CmdLineArgument implements java.io.Serializable {
         return enumValues != null && !enumValues.isEmpty();
     }
     
-    public String getValue(){
-        return value;
+    /**
+     * Get index of the argument in its schema
+     * 
+     * @return argument ordinal or -1 if not defined yet
+     */
+    int getOrdinal(){
+        return ordinal;
     }
     
-    public void setValue(String value){
-        this.value = value;
+    void setOrdinal(int ordinal){
+        if(this.ordinal >= 0){
+            throw new RuntimeException("Argument '" + getName() + 
+                    "' has been defined in another schema"
+            );
+        }
+        
+        this.ordinal = ordinal;
     }
     
-    public boolean isSupplied(){
-        return value != null;
+    void freeze(){
+        frozen = true;
+    }
+    
+    /**
+     * Get the help group of the argument, e.g. "Input options"
+     * 
+     * @return group name or null if not grouped
+     */
+    public String getGroup(){
+        return group;
+    }
+    
+    public void setGroup(String group){
+        if(frozen){
+            throw new IllegalStateException("Argument '" + getName() + 
+                    "' is frozen, it can't be changed");
+        }
+        
+        this.group = group;
     }
     
     public boolean isMandatory(){
@@ -167,48 +247,89 @@ class CmdLineArgument implements java.io.Serializable {
     }
     
     public void setMandatory(boolean isMandatory){
+        if(frozen){
+            throw new IllegalStateException("Argument '" + getName() + 
+                    "' is frozen, it can't be changed");
+        }
+        
         this.isMandatory = isMandatory;
+        helpInfo = null;
+    }
+    
+    /**
+     * Validate the argument value
+     * 
+     * @param value argument value or null if not supplied
+     */
+    public void validate(String value){
+        validate(value, CmdLineParseLimits.UNLIMITED);
     }
     
-    public void validate(CmdLineArgumentParser parser){
-        if(isMandatory() && !isSupplied()){
+    /**
+     * Validate argument value, values echoed in error messages are 
+     * abbreviated by the parse limits
+     * 
+     * @param value argument value or null if not supplied
+     * @param limits parse limits
+     */
+    void validate(String value, CmdLineParseLimits limits){
+        if(isMandatory() && value == null){
             throw new IllegalArgumentException(getName() 
                     + " is a manditory argument but has not supplied");            
         }
         
         // for other validations, only validate when argument is supplied.
-        if(isSupplied()){
-            final String value = getValue();
-
-            if(!hasValue() && value != null && !value.isEmpty()){
+        if(value != null){
+            if(!hasValue() && !value.isEmpty()){
                 throw new IllegalArgumentException(getName() 
-                        + " is a no value argument but set a value: " + value);
+                        + " is a no value argument but set a value: " + limits.abbreviate(value));
             }
 
             if(isEnumValue() && !enumValues.contains(value)){
-                throw new IllegalArgumentException(getName() + " value (" + value + ") "
-                        + "is not permit, it can be: " + getEnumValuesAsString());
+                throw new IllegalArgumentException(getName() + " value (" + limits.abbreviate(value) + ") "
+                        + "is not permit, it can be: " + getEnumValuesAsString()
+                        + didYouMean(value));
             }
         }
-        
-        // validate rules if any
-        for(CmdLineArgumentRule rule : rules){
-            rule.validate(parser);
-        }
     }
     
     /**
      * Apply argument value to the app by reflection
      * 
      * @param app 
+     * @param value argument value or null if not supplied
      */
-    public void applyTo(Object app){
-        if(isSupplied()){
-            // by convenstion, field (of app) is the long name (without prefix --)
-            ReflectionHelper.applyValue(app, getLongName().substring(2), getValue());
+    public void applyTo(Object app, String value){
+        if(value != null){
+            prepareApply(app, value).run();
         }
     }
     
+    /**
+     * Prepare to apply argument value to the app, the value is converted now
+     * and set by the action returned
+     * 
+     * @param app 
+     * @param value argument value
+     * @return action which sets the value
+     * @throws IllegalArgumentException if the value can't be converted
+     */
+    Runnable prepareApply(Object app, String value){
+        // by convenstion, field (of app) is the long name (without prefix --)
+        return ReflectionHelper.prepareValue(app, getLongName().substring(2), value);
+    }
+    
+    /**
+     * Prepare to clear the argument value of the app by reflection, e.g. of
+     * an argument which is not supplied any more. A flag is set to false.
+     * 
+     * @param app 
+     * @return action which clears the value
+     */
+    Runnable prepareClear(Object app){
+        return ReflectionHelper.prepareClear(app, getLongName().substring(2), !hasValue());
+    }
+    
     @Override
     public String toString(){
         StringBuilder buf = new StringBuilder();
@@ -221,6 +342,16 @@ class CmdLineArgument implements java.io.Serializable {
     }
     
     public String getHelpInfo(){
+        String info = helpInfo;
+        if(info == null){
+            info = buildHelpInfo();
+            helpInfo = info;
+        }
+        
+        return info;
+    }
+    
+    private String buildHelpInfo(){
         StringBuilder buf = new StringBuilder();
         buf.append(shortName)
            .append('|')
@@ -314,12 +445,31 @@ class CmdLineArgument implements java.io.Serializable {
         throw new RuntimeException("Illegal boolean value: " + value);
     }
     
+    /**
+     * Value of a no value argument from a value source, e.g. an environment 
+     * variable VERBOSE=true
+     * 
+     * @param value boolean value, e.g. Y/N, TRUE/FALSE
+     * @return "" if true, null if false, or the value itself if not boolean
+     *         which fails validation then
+     */
+    static String toFlagValue(String value){
+        try{
+            return toBoolean(value) ? "" : null;
+        }catch(RuntimeException e){
+            return value;
+        }
+    }
+    
     public static class CmdLineArgumentBuilder {
         private String shortName;
         private String longName;
         private boolean hasValue;  // if the argument has value?
         private Set<String> enumValues;  
         private boolean isMandatory;     // Ehancmement - mandatory argument    
+        private String group;
+        private Class<?> enumType;
+        private boolean isIgnoreCase;
         
         private boolean built;
         
@@ -362,6 +512,14 @@ class CmdLineArgument implements java.io.Serializable {
             return this;
         }
         
+        public CmdLineArgumentBuilder group(String group){
+            checkBuilt();
+            
+            this.group = group;
+            
+            return this;
+        }
+        
         public CmdLineArgumentBuilder enumValues(Set<String> enumValues){
             checkBuilt();
             
@@ -400,6 +558,35 @@ class CmdLineArgument implements java.io.Serializable {
             return this;
         }  
         
+        /**
+         * Back values by an enum class, values are its constant names
+         * 
+         * @param enumType enum class
+         * @return this builder
+         * @throws IllegalArgumentException if the class is not an enum
+         */
+        public CmdLineArgumentBuilder enumType(Class<?> enumType){
+            checkBuilt();
+            
+            this.enumType = CmdLineEnumIndex.of(enumType).getType();
+            
+            return this;
+        }
+        
+        /**
+         * Match values of an enum class case-insensitively, e.g. add for ADD
+         * 
+         * @param isIgnoreCase true to ignore case
+         * @return this builder
+         */
+        public CmdLineArgumentBuilder ignoreCase(boolean isIgnoreCase){
+            checkBuilt();
+            
+            this.isIgnoreCase = isIgnoreCase;
+            
+            return this;
+        }
+        
         private void checkBuilt(){
             if(built) throw new RuntimeException("Can't supply new info after build() called");
         }
@@ -407,13 +594,28 @@ class CmdLineArgument implements java.io.Serializable {
         public CmdLineArgument build(){
             built = true;
             
-            return new CmdLineArgument(
+            if(enumType != null){
+                enumValues = new HashSet<>(Arrays.asList(CmdLineEnumIndex.of(enumType).getNames()));
+                if(isIgnoreCase && !CmdLineEnumIndex.of(enumType).isCaseInsensitive()){
+                    throw new IllegalArgumentException("Constants of " + enumType.getName() + 
+                            " differ only by case, they can't be matched ignoring case");
+                }
+            }else if(isIgnoreCase){
+                throw new IllegalArgumentException("Ignore case is supported by enum types only");
+            }
+            
+            CmdLineArgument arg = new CmdLineArgument(
                     shortName,
                     longName,
                     hasValue,
                     enumValues,
                     isMandatory
             );
+            arg.group = group;
+            arg.enumType = enumType;
+            arg.isIgnoreCase = isIgnoreCase;
+            
+            return arg;
         }
     }    
 }
\ No newline at end of file
@@ -1,7 +1,16 @@
 package cmdline;
 
-import java.util.LinkedHashMap;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.Consumer;
 
 /**
  * Encapsulate command line paring &amp; validation logic
@@ -9,16 +18,48 @@ import java.util.Map;
  * @author Wayne Zhang
  */
 
-public final class CmdLineArgumentParser {
-    // Map indexed by argument short name
-    // Note: use linked map to keep argument define order
-    private final Map<String, CmdLineArgument> shortNameMap = new LinkedHashMap<>();
-    // Map indexed by argument long name
-    private final Map<String, CmdLineArgument> longNameMap = new LinkedHashMap<>();
+public final class CmdLineArgumentParser implements CmdLineValues {
+    // Argument definitions & rules, it may extend a shared schema
+    private final CmdLineSchema schema;
+    // Schema of the subcommand selected by last parse, or the schema itself
+    private CmdLineSchema activeSchema;
+    // Subcommand selected by last parse, null if none
+    private String subcommand;
+    // Argument values indexed by argument ordinal, null if not supplied
+    private String[] values = new String[0];
+    
+    // File system checker of path rules, such as -i isFile
+    private final CmdLinePathChecker pathChecker = new CmdLinePathChecker();
+    
+    // Schema & binding plan of config class, null if not created by forClass(_)
+    private final CmdLineAnnotationSchema annotationSchema;
     
     // Has argument parsed? that is parse(_) method called?
     private boolean hasParsed = false;
     
+    // Sources of argument values not supplied in command line, in order
+    private final List<CmdLineValueSource> valueSources = new ArrayList<>();
+    // Default values of arguments, computed when needed
+    private final Map<CmdLineArgument, Supplier<String>> defaults = new HashMap<>();
+    // Is the value resolved from a source or a default, by ordinal?
+    private boolean[] isResolved = new boolean[0];
+    
+    // Audit log of command lines parsed, null if not audited
+    private CmdLineAuditLog auditLog;
+    
+    // Limits of command line size and error messages
+    private CmdLineParseLimits limits = CmdLineParseLimits.UNLIMITED;
+    
+    // Match long names by unambiguous prefixes, e.g. --verb for --verbose?
+    private boolean isPrefixMatching;
+    
+    // Class owning main() of the calling stack, resolved on the first help
+    private String mainClass;
+    
+    // Help renderer, wraps lines to terminal width by default
+    private CmdLineHelpRenderer helpRenderer = new CmdLineHelpRenderer(
+            CmdLineHelpRenderer.terminalWidth());
+    
     /**
      * Define &amp; parse arguments at one call.
      * 
@@ -35,8 +76,41 @@ public final class CmdLineArgumentParser {
     }
     
     public CmdLineArgumentParser(){
-        // support -h/--help?
-        defineArgument("-h,--help,false");
+        // root schema supports -h/--help
+        schema = new CmdLineSchema();
+        activeSchema = schema;
+        annotationSchema = null;
+    }
+    
+    /**
+     * Create a parser which extends a shared schema, e.g. options common to
+     * many tools. The shared schema is frozen then.
+     * 
+     * @param base schema to extend
+     */
+    public CmdLineArgumentParser(CmdLineSchema base){
+        this(base, null);
+    }
+    
+    private CmdLineArgumentParser(CmdLineSchema base, CmdLineAnnotationSchema annotationSchema){
+        schema = base.extend();
+        activeSchema = schema;
+        this.annotationSchema = annotationSchema;
+    }
+    
+    /**
+     * Create a parser by &#64;Option and &#64;Rule annotations of a config class.
+     * The schema is derived once per class and shared by parsers created after.
+     * 
+     * @param type config class
+     * @return parser created
+     * @see Option
+     * @see Rule
+     */
+    public static CmdLineArgumentParser forClass(Class<?> type){
+        CmdLineAnnotationSchema annotationSchema = CmdLineAnnotationSchema.of(type);
+        
+        return new CmdLineArgumentParser(annotationSchema.getSchema(), annotationSchema);
     }
     
     public CmdLineArgumentParser(String... argumentDefinitions){
@@ -63,64 +137,156 @@ public final class CmdLineArgumentParser {
     
     // define an argument 
     public CmdLineArgument defineArgument(String argumentDefination){
-        CmdLineArgument arg = CmdLineArgument.valueOf(argumentDefination);
-        
-        defineArgument(arg);
-        
-        return arg;
+        return schema.defineArgument(argumentDefination);
     }
     
     public void defineArguments(String... argumentDefination){
-        for(String define: argumentDefination){
-            defineArgument(define);
-        }        
+        schema.defineArguments(argumentDefination);
     }
     
     // define an argument, using a builder for example
     public void defineArgument(CmdLineArgument arg){
-        // check if argument has been defined already!
-        if(shortNameMap.get(arg.getShortName()) != null ||
-           longNameMap.get(arg.getLongName()) != null )
-        {
-            throw new RuntimeException("Argument '" + 
-                    arg.getShortName() + "," +
-                    arg.getLongName() + "' has been defined already" 
-            );
-        }
-        
-        shortNameMap.put(arg.getShortName(), arg);
-        longNameMap.put(arg.getLongName(), arg);
+        schema.defineArgument(arg);
     }
     
     public void addArgumentRules(String... rules){
-        for(String rule : rules){
-            CmdLineArgumentRule argRule = new CmdLineArgumentRule(rule);
-            CmdLineArgument arg = getArgument(argRule.getArg1Name());
-            if(arg == null){
-                throw new RuntimeException(
-                        "CmdLineArgument rule definatin error, argument not found: " +
-                         rule
-                );
-            }
-            arg.addRule(argRule);
+        schema.addArgumentRules(rules);
+    }
+    
+    /**
+     * Put arguments in a help group, e.g. "Input options"
+     * 
+     * @param group group name
+     * @param argumentNames argument names, short or long
+     */
+    public void setGroup(String group, String... argumentNames){
+        schema.setGroup(group, argumentNames);
+    }
+    
+    /**
+     * Set the overall timeout of file system rules, e.g. isFile, in a parse.
+     * 
+     * @param timeoutMillis timeout in milliseconds, positive
+     * @throws IllegalArgumentException if timeout is not positive
+     */
+    public void setPathCheckTimeout(long timeoutMillis){
+        pathChecker.setTimeout(timeoutMillis);
+    }
+    
+    /**
+     * Add rule expressions which combine argument rules by &amp;&amp;, || and !, 
+     * for example
+     * 
+     *    -c dependsOn -a=ADD || -c dependsOn -a=UPDATE || --force
+     * 
+     * @param expressions rule expressions
+     * @see CmdLineRuleExpression
+     */
+    public void addRuleExpressions(String... expressions){
+        schema.addRuleExpressions(expressions);
+    }
+    
+    /**
+     * Add custom validators. Validators are run in order of cost, cheapest
+     * first, after the built-in argument checks.
+     * 
+     * @param argumentValidators validators
+     */
+    public void addValidators(CmdLineArgumentValidator... argumentValidators){
+        schema.addValidators(argumentValidators);
+    }
+    
+    /**
+     * Load validators by ServiceLoader. Validators which read arguments not
+     * defined by this parser are ignored, as they are for other tools.
+     */
+    public void loadValidators(){
+        schema.loadValidators();
+    }
+    
+    /**
+     * Add a subcommand (git-style), which is selected by the first operand
+     * of command line, e.g.
+     * 
+     *    parser.addSubcommand("add", schema -&gt; {
+     *        schema.defineArguments("-f,--file,true,,true");
+     *        schema.addArgumentRules("-f isFile");
+     *    });
+     * 
+     * The subcommand inherits arguments of this parser and its schema is
+     * defined only when the subcommand is selected. Subcommands of a shared
+     * schema the parser extends are inherited too.
+     * 
+     * The schema of the parser is frozen when a subcommand is selected the
+     * first time, as the subcommand schema extends it: define arguments and
+     * rules before parsing.
+     * 
+     * @param name subcommand name
+     * @param definer defines arguments and rules of the subcommand
+     */
+    public void addSubcommand(String name, Consumer<CmdLineSchema> definer){
+        schema.addSubcommand(name, definer);
+    }
+    
+    /**
+     * Get the subcommand selected by command line
+     * 
+     * @return subcommand name or null if no subcommand supplied
+     */
+    public String getSubcommand(){
+        if(!hasParsed){
+            throw new RuntimeException("Command line arguments hasn't been parsed.");
         }
+        
+        return subcommand;
     }
     
+    CmdLinePathChecker getPathChecker(){
+        return pathChecker;
+    }
+    
+    /**
+     * Parse and validate command line arguments. Selecting a subcommand the
+     * first time freezes the schema of the parser, no argument or rule can
+     * be defined after.
+     * 
+     * @param args command line arguments
+     * @throws IllegalArgumentException if validation failed
+     */
     public void parse(String... args) {    
+        // reject oversized command line before anything else
+        limits.checkTokens(args.length);
+        boolean isBytesLimited = limits.isBytesLimited();
+        long totalBytes = 0;
+        
         hasParsed = true;
+        pathChecker.reset();
+        
+        if(subcommand != null){
+            // values of subcommand arguments are not kept, as ordinals of 
+            // different subcommands overlap
+            Arrays.fill(values, schema.size(), values.length, null);
+            subcommand = null;
+        }
+        activeSchema = schema;
+        ensureCapacity(schema.size());
+        clearResolved();
         
         for(int i = 0; i < args.length; i ++){
             String arg = args[i];
+            if(isBytesLimited){
+                totalBytes = limits.checkBytes(arg, totalBytes);
+            }
+            
             if(arg.startsWith("-")){                
-                CmdLineArgument argDef = null;
-                if(arg.startsWith("--")){
-                    argDef = longNameMap.get(arg);
-                } else {
-                    argDef = shortNameMap.get(arg);
+                CmdLineArgument argDef = activeSchema.getArgument(arg);
+                if(argDef == null && isPrefixMatching){
+                    argDef = activeSchema.getArgumentByPrefix(arg);
                 }
                 
                 if(argDef == null){
-                    throw new IllegalArgumentException("Argument " + arg + " can't be recognised");
+                    throw new IllegalArgumentException("Argument " + limits.abbreviate(arg) + 
+                            " can't be recognised" + activeSchema.didYouMean(arg));
                 }
                 
                 if(argDef.hasValue()){                   
@@ -130,29 +296,262 @@ public final class CmdLineArgumentParser {
                     }
                     
                     String argVal = args[i + 1];                    
-                    if(argVal.startsWith("-")){
-                        throw new IllegalArgumentException("Wrong argument value '" + argVal + "' for: " + arg);
+                    if(isBytesLimited){
+                        totalBytes = limits.checkBytes(argVal, totalBytes);
                     }
                     
-                    argDef.setValue(argVal);
+                    if(argVal.startsWith("-") && !isNegativeNumber(argVal)){
+                        throw new IllegalArgumentException("Wrong argument value '" + 
+                                limits.abbreviate(argVal) + "' for: " + arg);
+                    }
+                    
+                    values[argDef.getOrdinal()] = argDef.canonicalize(argVal);
                     i++;
                 }else{
-                    argDef.setValue(""); // set empty value to indicate argument exist!
+                    values[argDef.getOrdinal()] = ""; // set empty value to indicate argument exist!
+                    
+                    // --help <prefix> filters help of arguments
+                    if(argDef == schema.getArgument("-h") && i + 1 < args.length && 
+                       !args[i + 1].startsWith("-") && !isSubcommand(args[i + 1]))
+                    {
+                        if(isBytesLimited){
+                            totalBytes = limits.checkBytes(args[i + 1], totalBytes);
+                        }
+                        values[argDef.getOrdinal()] = args[++i];
+                    }
                 }
+            }else if(subcommand == null && schema.hasSubcommands()){
+                // the first operand selects subcommand
+                CmdLineSchema subcommandSchema = schema.getSubcommandSchema(arg);
+                if(subcommandSchema == null){
+                    throw new IllegalArgumentException("Subcommand " + limits.abbreviate(arg) + 
+                            " can't be recognised" + schema.didYouMeanSubcommand(arg));
+                }
+                
+                subcommand = arg;
+                activeSchema = subcommandSchema;
+                ensureCapacity(activeSchema.size());
             }else if(!arg.isEmpty()){
-                throw new IllegalArgumentException("Argument " + arg + " can't be recognised");
+                throw new IllegalArgumentException("Argument " + limits.abbreviate(arg) + 
+                        " can't be recognised");
             }
         }
         
+        resolveValues();
+        
         // is help? check help before validation
         if(isArgumentSupplied("-h")){
-            help();
+            String prefix = getArgumentValue("-h");
+            help(getMainClass(), prefix.isEmpty() ? null : prefix, System.out);
             
             System.exit(0);
         }
         
-        for(CmdLineArgument arg : shortNameMap.values()){
-            arg.validate(this);
+        try{
+            for(CmdLineArgument arg : activeSchema.getArguments()){
+                arg.validate(values[arg.getOrdinal()], limits);
+            }
+
+            for(CmdLineArgumentValidator validator : activeSchema.getValidators()){
+                validator.validate(this);
+            }
+        }catch(IllegalArgumentException e){
+            // error message may echo values
+            throw limits.truncate(e);
+        }
+        
+        if(auditLog != null){
+            // values are encoded at once, not copied
+            auditLog.append(new CmdLineParseResult(activeSchema, subcommand, values));
+        }
+    }
+    
+    /**
+     * Set the audit log, which each command line validated is appended to
+     * 
+     * @param auditLog audit log, null to stop auditing
+     * @see CmdLineAuditLog
+     */
+    public void setAuditLog(CmdLineAuditLog auditLog){
+        this.auditLog = auditLog;
+    }
+    
+    /**
+     * Set limits of command line size and error messages, e.g. for command
+     * lines from untrusted sources
+     * 
+     * @param limits parse limits
+     */
+    public void setParseLimits(CmdLineParseLimits limits){
+        if(limits == null){
+            throw new IllegalArgumentException("Parse limits can't be null");
+        }
+        
+        this.limits = limits;
+    }
+    
+    CmdLineParseLimits getParseLimits(){
+        return limits;
+    }
+    
+    /**
+     * Match long names by unambiguous prefixes, e.g. --verb for --verbose.
+     * A prefix of more than one long name is an error. Off by default, as a
+     * prefix may become ambiguous when an argument is added.
+     * 
+     * @param isPrefixMatching true to match prefixes
+     */
+    public void setPrefixMatching(boolean isPrefixMatching){
+        this.isPrefixMatching = isPrefixMatching;
+    }
+    
+    boolean isPrefixMatching(){
+        return isPrefixMatching;
+    }
+    
+    /**
+     * Create a parse context, which a thread reuses to parse many command
+     * lines by this parser without garbage
+     * 
+     * @return new parse context
+     * @see CmdLineParseContext
+     */
+    public CmdLineParseContext newParseContext(){
+        return new CmdLineParseContext(this);
+    }
+    
+    /**
+     * Check if a value is a negative number, e.g. -1 or -.5, which is not 
+     * an argument name
+     */
+    private boolean isNegativeNumber(String value){
+        return isNegativeNumber(value, activeSchema);
+    }
+    
+    /**
+     * Is a value starting with - a negative number, rather than an argument?
+     * 
+     * @param value value starts with -
+     * @param schema schema of arguments
+     * @return true if it is a negative number, e.g. -1 or -.5
+     */
+    static boolean isNegativeNumber(String value, CmdLineSchema schema){
+        int digit = value.length() > 2 && value.charAt(1) == '.' ? 2 : 1;
+        
+        return value.length() > digit && Character.isDigit(value.charAt(digit)) &&
+               schema.getArgument(value) == null;
+    }
+    
+    private boolean isSubcommand(String name){
+        return subcommand == null && schema.getSubcommands().contains(name);
+    }
+    
+    private void ensureCapacity(int size){
+        if(values.length < size){
+            // arguments defined after last parse
+            values = Arrays.copyOf(values, size);
+        }
+    }
+    
+    /**
+     * Add sources of argument values, e.g. environment variables or a 
+     * properties file. Arguments not supplied in command line are resolved 
+     * from sources in add order, then from defaults. Resolved values are 
+     * validated the same way as command line values.
+     * 
+     * @param sources value sources
+     * @see CmdLineValueSources
+     */
+    public void addValueSources(CmdLineValueSource... sources){
+        valueSources.addAll(Arrays.asList(sources));
+    }
+    
+    /**
+     * Set the default value of an argument
+     * 
+     * @param name argument name, short or long
+     * @param value default value, or "true" for a no value argument
+     */
+    public void setDefault(String name, final String value){
+        setDefault(name, new Supplier<String>(){
+            @Override
+            public String get(){
+                return value;
+            }
+        });
+    }
+    
+    /**
+     * Set the default value of an argument, which is computed only when 
+     * the argument is not supplied by command line or value sources
+     * 
+     * @param name argument name, short or long
+     * @param supplier default value supplier
+     */
+    public void setDefault(String name, Supplier<String> supplier){
+        CmdLineArgument arg = schema.getArgument(name);
+        if(arg == null){
+            throw new RuntimeException("Argument '" + name + "' not defined");
+        }
+        
+        defaults.put(arg, supplier);
+    }
+    
+    /**
+     * Clear values resolved by last parse, they are resolved again
+     */
+    private void clearResolved(){
+        for(int i = 0; i < isResolved.length; i++){
+            if(isResolved[i]){
+                values[i] = null;
+                isResolved[i] = false;
+            }
+        }
+    }
+    
+    /**
+     * Resolve values of arguments not supplied in command line from value
+     * sources and defaults, in one pass
+     */
+    private void resolveValues(){
+        if(valueSources.isEmpty() && defaults.isEmpty()){
+            return;
+        }
+        
+        CmdLineValueSource[] sources = new CmdLineValueSource[valueSources.size()];
+        for(int i = 0; i < sources.length; i++){
+            sources[i] = valueSources.get(i).snapshot();
+        }
+        
+        if(isResolved.length < values.length){
+            isResolved = Arrays.copyOf(isResolved, values.length);
+        }
+        
+        CmdLineArgument help = schema.getArgument("-h");
+        for(CmdLineArgument arg : activeSchema.getArguments()){
+            int ordinal = arg.getOrdinal();
+            if(values[ordinal] != null || arg == help){
+                continue;
+            }
+            
+            String value = null;
+            for(int i = 0; i < sources.length && value == null; i++){
+                value = sources[i].getValue(arg.getLongName());
+            }
+            
+            if(value == null && !defaults.isEmpty()){
+                Supplier<String> supplier = defaults.get(arg);
+                value = supplier == null ? null : supplier.get();
+            }
+            
+            if(value != null && !arg.hasValue()){
+                value = CmdLineArgument.toFlagValue(value);
+            }
+            
+            if(value != null){
+                values[ordinal] = arg.canonicalize(value);
+                isResolved[ordinal] = true;
+            }
         }
     }
     
@@ -162,9 +561,151 @@ public final class CmdLineArgumentParser {
      * @param app application which arguments applied to
      */
     public void setArgumentsTo(Object app){
-        for(CmdLineArgument arg : shortNameMap.values()){
-            arg.applyTo(app);
+        applyValues(app, activeSchema, values);
+    }
+    
+    /**
+     * Set argument values to the app, values not supplied are skipped
+     * 
+     * @param app application which arguments applied to
+     * @param schema schema of arguments
+     * @param values argument values indexed by ordinal
+     */
+    void applyValues(Object app, CmdLineSchema schema, String[] values){
+        for(Runnable write : prepareValues(app, schema, values, null)){
+            write.run();
+        }
+    }
+    
+    /**
+     * Prepare to set argument values to the app and to clear values which are
+     * not supplied any more. All values are converted to their field types
+     * before any is set, the writes returned don't fail by a value, so the 
+     * app is not left with values set halfway.
+     * 
+     * @param app application which arguments applied to
+     * @param schema schema of arguments
+     * @param values argument values indexed by ordinal, null are skipped
+     * @param unset is argument unset, indexed by ordinal, or null if none
+     * @return writes to run
+     * @throws IllegalArgumentException if a value can't be converted
+     */
+    List<Runnable> prepareValues(final Object app, CmdLineSchema schema, 
+            final String[] values, final boolean[] unset)
+    {
+        CmdLineArgument[] arguments = schema.getArguments();
+        List<Runnable> writes = new ArrayList<>();
+        
+        int from = 0;
+        if(annotationSchema != null && annotationSchema.isInstance(app)){
+            // bind by the precomputed field plan
+            final CmdLineAnnotationSchema plan = annotationSchema;
+            plan.check(values);
+            writes.add(new Runnable(){
+                @Override
+                public void run(){
+                    plan.bind(app, values);
+                    if(unset != null){
+                        plan.unbind(app, unset);
+                    }
+                }
+            });
+            from = plan.getSchema().size();
         }
+        
+        for(int i = from; i < arguments.length; i++){
+            int ordinal = arguments[i].getOrdinal();
+            String value = ordinal < values.length ? values[ordinal] : null;
+            if(value != null){
+                writes.add(arguments[i].prepareApply(app, value));
+            }else if(unset != null && ordinal < unset.length && unset[ordinal]){
+                writes.add(arguments[i].prepareClear(app));
+            }
+        }
+        
+        return writes;
+    }
+    
+    /**
+     * Watch a defaults file and apply its changes to the app while it is 
+     * running, e.g. tunables of a service. Values of the file apply to 
+     * arguments not supplied in command line, they are applied at once.
+     * 
+     * @param file properties file, keys are long names without --
+     * @param app application which arguments applied to
+     * @return watcher started, close it to stop watching
+     * @throws IllegalArgumentException if values of the file are invalid
+     * @see CmdLineDefaultsWatcher
+     */
+    public CmdLineDefaultsWatcher watchDefaults(Path file, Object app){
+        CmdLineParseResult result = getParseResult();
+        
+        // arguments supplied in command line are not overridden
+        boolean[] isFixed = new boolean[activeSchema.size()];
+        for(int i = 0; i < isFixed.length; i++){
+            isFixed[i] = values[i] != null && !(i < isResolved.length && isResolved[i]);
+        }
+        
+        CmdLineDefaultsWatcher watcher = new CmdLineDefaultsWatcher(this, file, app, 
+                result, isFixed);
+        watcher.apply();
+        watcher.start();
+        
+        return watcher;
+    }
+    
+    /**
+     * Get an immutable snapshot of argument values parsed
+     * 
+     * @return parse result
+     */
+    public CmdLineParseResult getParseResult(){
+        if(!hasParsed){
+            throw new RuntimeException("Command line arguments hasn't been parsed.");
+        }
+        
+        return new CmdLineParseResult(activeSchema, subcommand, 
+                Arrays.copyOf(values, activeSchema.size()));
+    }
+    
+    /**
+     * Load argument values of a parse result without validating them again,
+     * e.g. a result validated by a supervisor and decoded by its worker
+     * 
+     * @param result parse result of the schema of this parser
+     * @throws IllegalArgumentException if the result is of another schema
+     * @see CmdLineResultCodec
+     */
+    public void load(CmdLineParseResult result){
+        CmdLineSchema resultSchema = result.getSchema();
+        boolean isSubcommand = result.getSubcommand() != null;
+        if(isSubcommand ? resultSchema != schema.getSubcommandSchema(result.getSubcommand()) : 
+                          resultSchema != schema)
+        {
+            throw new IllegalArgumentException("Parse result of another schema");
+        }
+        
+        reset();
+        ensureCapacity(resultSchema.size());
+        for(int i = 0; i < resultSchema.size(); i++){
+            values[i] = result.getValue(i);
+        }
+        subcommand = result.getSubcommand();
+        activeSchema = resultSchema;
+        hasParsed = true;
+    }
+    
+    /**
+     * Build an immutable config object, a record or an interface 
+     * implementation, from argument values parsed.
+     * 
+     * @param <T> config type
+     * @param type config type
+     * @return config object
+     * @see CmdLineParseResult#bindTo(Class)
+     */
+    public <T> T bindTo(Class<T> type){
+        return getParseResult().bindTo(type);
     }
     
     /**
@@ -172,9 +713,10 @@ public final class CmdLineArgumentParser {
      * It is not useful in real world but unit tests.
      */
     public void reset(){
-        for(CmdLineArgument arg : shortNameMap.values()){
-            arg.setValue(null);
-        }
+        Arrays.fill(values, null);
+        Arrays.fill(isResolved, false);
+        subcommand = null;
+        activeSchema = schema;
     }
     
     /**
@@ -196,6 +738,7 @@ public final class CmdLineArgumentParser {
      * @param name argument short name or long name, e.g -a  or --argument
      * @return argument value. An empty string returned if it is a no value argument
      */
+    @Override
     public String getArgumentValue(String name){
         if(!hasParsed){
             throw new RuntimeException("Command line arguments hasn't been parsed.");
@@ -207,7 +750,14 @@ public final class CmdLineArgumentParser {
             throw new RuntimeException("Argument '" + name + "' not defined");
         }
         
-        return arg.getValue();
+        return getValue(arg);
+    }
+    
+    private String getValue(CmdLineArgument arg){
+        // argument may be defined after last parse
+        int ordinal = arg.getOrdinal();
+        
+        return ordinal < values.length ? values[ordinal] : null;
     }
     
     /**
@@ -216,13 +766,20 @@ public final class CmdLineArgumentParser {
      * @return CmdLineArgument define or null if not defined
      */
     CmdLineArgument getArgument(String argumentName){
-        if(argumentName.startsWith("--")){                
-            return longNameMap.get(argumentName);
-        }else{
-            return shortNameMap.get(argumentName);
-        }        
+        return activeSchema.getArgument(argumentName);
+    }
+    
+    /**
+     * Get the schema of this parser, e.g. to decode parse results encoded
+     * by a parser of the same definitions
+     * 
+     * @return schema, without the subcommand layer
+     */
+    public CmdLineSchema getSchema(){
+        return schema;
     }
 	
+    @Override
     public boolean isArgumentSupplied(String name){
         return getArgumentValue(name) != null;
     }
@@ -235,28 +792,59 @@ public final class CmdLineArgumentParser {
     public String getHelpInfo(){
         StringBuilder buf = new StringBuilder();
         
-        for(CmdLineArgument arg : shortNameMap.values()){
+        if(subcommand != null){
+            buf.append(subcommand).append(" ");
+        }
+        
+        for(CmdLineArgument arg : activeSchema.getArguments()){
             buf.append(arg.getHelpInfo()).append(" ");
         }
         
+        if(subcommand == null && schema.hasSubcommands()){
+            buf.append("{");
+            for(String name : schema.getSubcommands()){
+                if(buf.charAt(buf.length() - 1) != '{'){
+                    buf.append('|');
+                }
+                buf.append(name);
+            }
+            buf.append("} ...");
+        }
+        
         return buf.toString();
     }
     
     /**
-     * Get the class name that owns main() method
+     * Get the class name that owns main() method, the innermost main() on
+     * the call stack, e.g. of a tool run by a launcher. It is resolved once 
+     * per parser, help(runner) overrides it.
      * 
-     * @return class name that owns main method or "unknown"
-     *         if main method is not on call stack
+     * @return class name that owns main method or "Unknown" if main method 
+     *         is not on call stack
      */
-    private static String getMainClass(){
-        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
-        for(StackTraceElement se : stack){
-            if(se.getMethodName().equals("main")){
-                return se.getClassName();
+    String getMainClass(){
+        String main = mainClass;
+        if(main == null){
+            main = "Unknown";
+            for(StackTraceElement se : Thread.currentThread().getStackTrace()){
+                if(se.getMethodName().equals("main")){
+                    main = se.getClassName();
+                    break;
+                }
             }
+            mainClass = main;
         }
         
-        return "Unknown";
+        return main;
+    }
+    
+    /**
+     * Set the width of help lines
+     * 
+     * @param width line width, the terminal width (COLUMNS) or 80 by default
+     */
+    public void setHelpWidth(int width){
+        helpRenderer = new CmdLineHelpRenderer(width);
     }
     
     public void help(){
@@ -268,12 +856,31 @@ public final class CmdLineArgumentParser {
     }
     
     public void help(String runner, java.io.PrintStream target){
-        StringBuilder help = new StringBuilder();
-        help.append("Usage: java ")
-            .append(runner)
-            .append(" ")
-            .append(getHelpInfo());
-      
-        target.println(help.toString());
-    }
-}
\ No newline at end of file
+        help(runner, null, target);
+    }
+    
+    /**
+     * Write help of arguments to a target, e.g. a Writer
+     * 
+     * @param runner class name of the tool
+     * @param prefix argument name prefix, e.g. "in" or "--in", to filter 
+     *        arguments, or null for all arguments
+     * @param target help target
+     */
+    public void help(String runner, String prefix, Appendable target){
+        try{
+            helpRenderer.render(target, runner, activeSchema, subcommand,
+                    subcommand == null ? schema.getSubcommands() : null, prefix);
+        }catch(IOException e){
+            throw new UncheckedIOException("Write help failed", e);
+        }
+        
+        if(target instanceof Flushable){
+            try{
+                ((Flushable)target).flush();
+            }catch(IOException e){
+                throw new UncheckedIOException("Write help failed", e);
+            }
+        }
+    }
+}
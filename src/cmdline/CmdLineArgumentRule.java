@@ -5,12 +5,14 @@
  */
 package cmdline;
 
+import java.util.Arrays;
+
 /**
  * Define relationship between 2 command line arguments
  * 
  * @author Wayne Zhang
  */
-class CmdLineArgumentRule {
+class CmdLineArgumentRule implements CmdLineArgumentValidator {
     private static enum Rule {
         dependsOn{
             boolean validate(Object... args){
@@ -20,37 +22,13 @@ class CmdLineArgumentRule {
                 
                 if(args[0] != null){
                     if(args.length > 2){    // with critiea
-                        CmdLineArgument arg2 = (CmdLineArgument)args[1];
+                        String arg2Value = (String)args[1];
                         String criteria = (String)args[2];
-                        if(arg2 == null || 
-                           criteria == null || 
-                           arg2.getValue() == null)
-                        {
+                        if(arg2Value == null || criteria == null){
                             return false;
                         }
 
-                        // assert criteria equals
-                        if(criteria.startsWith("=")){
-                            return criteria.substring(1).equals(arg2.getValue());
-                        } else if(criteria.startsWith(">")){
-                            try{
-                                Double arg2Value = Double.valueOf(arg2.getValue());
-                                Double criteriaValue = Double.valueOf(criteria.substring(1));
-
-                                return arg2Value > criteriaValue;
-                            }catch(NumberFormatException e){
-                                return false;
-                            }
-                        } else if(criteria.startsWith("<")){
-                            try{
-                                Double arg2Value = Double.valueOf(arg2.getValue());
-                                Double criteriaValue = Double.valueOf(criteria.substring(1));
-
-                                return arg2Value < criteriaValue;
-                            }catch(NumberFormatException e){
-                                return false;
-                            }                        
-                        }
+                        return matchesCriteria(arg2Value, criteria);
                     } else {    // without criteria
                         return args[1] != null;
                     }
@@ -74,6 +52,10 @@ class CmdLineArgumentRule {
                 return true;
             }
             
+            boolean isUniOp(){
+                return true;
+            }
+            
             boolean validate(Object... args){
                 if(args.length == 0){
                     return false;
@@ -93,6 +75,10 @@ class CmdLineArgumentRule {
                 return true;
             }
             
+            boolean isUniOp(){
+                return true;
+            }
+            
             boolean validate(Object... args){
                 if(args.length == 0){
                     return false;
@@ -148,6 +134,10 @@ class CmdLineArgumentRule {
             }
         },
         isMandatory{
+            boolean isUniOp(){
+                return true;
+            }
+            
             boolean validate(Object... args){
                 return args[0] != null;
             }
@@ -157,6 +147,10 @@ class CmdLineArgumentRule {
                 return true;
             }
             
+            int cost(){
+                return 3;
+            }
+            
             boolean validate(Object... args){
                 if(args.length < 2){
                     return false;
@@ -169,7 +163,9 @@ class CmdLineArgumentRule {
                     return true;
                 }
                 
-                String[] values = toArray((String)args[1]);
+                // list compiled when the rule is defined, or value of argument 2
+                String[] values = args[1] instanceof String[] ?
+                        (String[])args[1] : toArray((String)args[1]);
                 for(String value : values){
                     if(v1.equals(value)){
                         return true;
@@ -187,12 +183,16 @@ class CmdLineArgumentRule {
              *      'v1,v2, ...'
              *      "v1,v2,..."
              *      v1,v2,v3
-             * NOTE: NO spaces supported as space is delimiter of rule elements
+             * NOTE: NO spaces supported in rule definitions as space is 
+             * delimiter of rule elements, but in quoted values of rule 
+             * expressions
              * 
              * @param value value enumeration line
              * @return value array list parsed
+             * @throws IllegalArgumentException if quotes are not paired
              */
-            private String[] toArray(String value){
+            @Override
+            String[] toArray(String value){
                 if(value == null || value.isEmpty()){
                     return new String[0];
                 }
@@ -213,9 +213,9 @@ class CmdLineArgumentRule {
              */
             private String deQuote(String value, char quoteStartChar, char quoteEndChar)
             {
-                if(value.charAt(0) == quoteStartChar){
-                    if(value.charAt(value.length() - 1) != quoteEndChar){
-                        throw new RuntimeException("isIn format error: " + value);
+                if(!value.isEmpty() && value.charAt(0) == quoteStartChar){
+                    if(value.length() < 2 || value.charAt(value.length() - 1) != quoteEndChar){
+                        throw new IllegalArgumentException("isIn format error: " + value);
                     }
 
                     return value.substring(1, value.length() - 1);
@@ -223,11 +223,116 @@ class CmdLineArgumentRule {
 
                 return value;
             }            
+        },
+        isFile(CmdLinePathChecker.IS_FILE){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        isDir(CmdLinePathChecker.IS_DIR){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        isReadable(CmdLinePathChecker.IS_READABLE){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        isWritable(CmdLinePathChecker.IS_WRITABLE){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        // path lists, e.g. a:b:c on Unix, each path is checked
+        areFiles(CmdLinePathChecker.IS_FILE, true){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        areDirs(CmdLinePathChecker.IS_DIR, true){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        areReadable(CmdLinePathChecker.IS_READABLE, true){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
+        },
+        areWritable(CmdLinePathChecker.IS_WRITABLE, true){
+            boolean validate(Object... args){
+                return validatePath(args);
+            }
         };
         
+        // path attribute checked by file system rules, 0 for other rules
+        private final int pathAttribute;
+        // is the value a list of paths separated by File.pathSeparator?
+        private final boolean isPathList;
+        
+        private Rule(){
+            this(0);
+        }
+        
+        private Rule(int pathAttribute){
+            this(pathAttribute, false);
+        }
+        
+        private Rule(int pathAttribute, boolean isPathList){
+            this.pathAttribute = pathAttribute;
+            this.isPathList = isPathList;
+        }
+        
         // is validation on argument value ?
         boolean isValidateOnValue(){
-            return false;
+            return isPathRule();
+        }
+        
+        // does the rule take argument 1 only?
+        boolean isUniOp(){
+            return isPathRule();
+        }
+        
+        // is it a file system rule?
+        boolean isPathRule(){
+            return pathAttribute != 0;
+        }
+        
+        // relative evaluation cost, used to order rule expression operands
+        int cost(){
+            if(isPathRule()){
+                return 10;
+            }
+            
+            return isValidateOnValue() ? 2 : 1;
+        }
+        
+        /**
+         * Validate path argument value
+         * 
+         * @param args argument value and CmdLinePathChecker
+         * @return true if the path, or all paths of a path list, have the
+         *         path attribute
+         */
+        boolean validatePath(Object... args){
+            if(args.length < 2 || args[0] == null){
+                return true;
+            }
+            
+            return ((CmdLinePathChecker)args[1]).check((String)args[0], pathAttribute, 
+                    isPathList);
+        }
+        
+        /**
+         * Compile constant argument 2 to an array of values, only isIn 
+         * takes a value list
+         * 
+         * @param value constant argument 2
+         * @return values or null if the rule doesn't take a value list
+         */
+        String[] toArray(String value){
+            return null;
         }
         
         abstract boolean validate(Object... args);
@@ -251,31 +356,76 @@ class CmdLineArgumentRule {
     private boolean isArg2CmdLineArgument = false;
     // Rule
     private Rule rule;
+    // constant argument 2 compiled, e.g. values of isIn; null if none
+    private String[] arg2Values;
+    // fuzzy index of arg2Values, built on the first violation
+    private volatile CmdLineFuzzyIndex arg2Index;
     
     public CmdLineArgumentRule(String ruleDef){
+        this(ruleDef, split(ruleDef));
+    }
+    
+    private CmdLineArgumentRule(String ruleDef, String[] ruleElements){
+        this(ruleDef, ruleElements[0], ruleElements[1], 
+                ruleElements.length == 3 ? ruleElements[2] : null);
+    }
+    
+    private static String[] split(String ruleDef){
         String[] ruleElements = ruleDef.split(" ");
         // it can be 2 or 3 elements, depends on if it is uniOp
         if(ruleElements.length != 2 && ruleElements.length != 3){
             throw new IllegalArgumentException("Rule definination error: " + ruleDef);
         }
-        uniOp = ruleElements.length == 2;
+        
+        return ruleElements;
+    }
+    
+    /**
+     * Create a rule from the elements parsed, e.g. of a rule expression, so 
+     * that argument 2 can have spaces, e.g. a quoted value list of isIn
+     * 
+     * @param arg1Name argument 1 name
+     * @param ruleName rule name
+     * @param arg2 argument 2 name or constant value, null if uniOp
+     */
+    CmdLineArgumentRule(String arg1Name, String ruleName, String arg2){
+        this(arg2 == null ? arg1Name + " " + ruleName : arg1Name + " " + ruleName + " " + arg2, 
+                arg1Name, ruleName, arg2);
+    }
+    
+    private CmdLineArgumentRule(String ruleDef, String arg1Name, String ruleName, String arg2){
+        uniOp = arg2 == null;
         
         // arg 1
-        arg1Name = ruleElements[0].trim();
+        this.arg1Name = arg1Name.trim();
         
         // ruleDef type
-        this.rule = Rule.valueOf(ruleElements[1].trim());
+        if(!isRuleName(ruleName.trim())){
+            throw new IllegalArgumentException("Rule definination error: " + ruleDef);
+        }
+        this.rule = Rule.valueOf(ruleName.trim());
         
         // arg 2 (optional)
         if(!uniOp){
-            arg2 = ruleElements[2].trim();
+            this.arg2 = arg2.trim();
             
             // --xxx or
             // -[a-zA-Z]
             // negtive value such as -1 and -3.14 is not argument
-            isArg2CmdLineArgument = arg2.startsWith("-") && 
-                   arg2.length() > 1 && 
-                   !Character.isDigit(arg2.charAt(1));          
+            isArg2CmdLineArgument = this.arg2.startsWith("-") && 
+                   this.arg2.length() > 1 && 
+                   !Character.isDigit(this.arg2.charAt(1));          
+            
+            // rules on arguments, e.g. dependsOn, take no constant value
+            if(!isArg2CmdLineArgument && !rule.isValidateOnValue()){
+                throw new IllegalArgumentException("Rule definination error, " + 
+                        "argument expected: " + ruleDef);
+            }
+            
+            // compile once, so that format errors are found when defined
+            if(!isArg2CmdLineArgument){
+                arg2Values = rule.toArray(this.arg2);
+            }
         }
         
         if(this.rule == null){
@@ -283,6 +433,36 @@ class CmdLineArgumentRule {
         }
     }
     
+    /**
+     * Check if a name is a rule name, e.g. dependsOn
+     * 
+     * @param name rule name
+     * @return true if it is a rule name
+     */
+    static boolean isRuleName(String name){
+        for(Rule r : Rule.values()){
+            if(r.name().equals(name)){
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Check if a rule takes argument 1 only, e.g. isMandatory
+     * 
+     * @param name rule name
+     * @return true if it is a one argument rule
+     */
+    static boolean isUniOpRule(String name){
+        return Rule.valueOf(name).isUniOp();
+    }
+    
+    public boolean isPathRule(){
+        return rule.isPathRule();
+    }
+    
     public String getArg1Name(){
         return arg1Name;
     }
@@ -307,6 +487,52 @@ class CmdLineArgumentRule {
         }
     }
     
+    /**
+     * Get the position of value criteria of an argument, e.g. 
+     * 
+     *      -a=ADD, -s&gt;12 or -s&lt;12
+     * 
+     * @param arg argument with or without criteria
+     * @return criteria position or -1 if no criteria
+     */
+    static int criteriaIndexOf(String arg){
+        return indexOf(arg, '=', '<', '>');
+    }
+    
+    /**
+     * Check if an argument value matches a criteria, e.g. =ADD, &gt;12 or &lt;12
+     * 
+     * @param value argument value
+     * @param criteria value criteria
+     * @return true if the value matches
+     */
+    static boolean matchesCriteria(String value, String criteria){
+        // assert criteria equals
+        if(criteria.startsWith("=")){
+            return criteria.substring(1).equals(value);
+        } else if(criteria.startsWith(">")){
+            try{
+                Double argValue = Double.valueOf(value);
+                Double criteriaValue = Double.valueOf(criteria.substring(1));
+
+                return argValue > criteriaValue;
+            }catch(NumberFormatException e){
+                return false;
+            }
+        } else if(criteria.startsWith("<")){
+            try{
+                Double argValue = Double.valueOf(value);
+                Double criteriaValue = Double.valueOf(criteria.substring(1));
+
+                return argValue < criteriaValue;
+            }catch(NumberFormatException e){
+                return false;
+            }                        
+        }
+        
+        return true;
+    }
+    
     private static int indexOf(String s, char... dc){
         for(char c : dc){
             int pos = s.indexOf(c);
@@ -341,43 +567,131 @@ class CmdLineArgumentRule {
                indexOf(arg2, '=', '<', '>') > 0;
     }
     
-    public void validate(CmdLineArgumentParser parser){
-        Object arg1 = null, arg2 = null;
-        if(rule.isValidateOnValue()){
-            arg1 = parser.getArgumentValue(getArg1Name());
-            
-            // when validate argument value, validte only when argument 1 supplied!
-            if(arg1 == null){
-                // don't validate when argument is not supplied!
-                return;
-            }
-            
-            if(!uniOp){
-                // is the second argument constant value or command line argument?
-                if(isArg2CmdLineArgument) {
-                    arg2 = parser.getArgumentValue(getArg2());
-                }else{
-                    arg2 = getArg2();
-                }
-            }
-        }else{
-            arg1 = getArgumentIfSupplied(parser, getArg1Name());
-            if(!uniOp){
-                arg2 = getArgumentIfSupplied(parser, getArg2());
-                
-            }
+    @Override
+    public Cost getCost(){
+        return rule.isPathRule() ? Cost.IO : Cost.CHEAP;
+    }
+    
+    @Override
+    public void validate(CmdLineValues values){
+        if(!isSatisfied(values)){
+            Object arg1 = resolveArg1(values);
+            CmdLineParseLimits limits = CmdLineParseLimits.of(values);
+            throw new IllegalArgumentException(buildArgumentErrorMsg(
+                    abbreviate(limits, arg1), 
+                    abbreviate(limits, resolveArg2(values)), 
+                    isArg2WithCriteria() ? getArg2Criteria() : null
+            ) + didYouMean(arg1));
+        }
+    }
+    
+    private static Object abbreviate(CmdLineParseLimits limits, Object value){
+        return value instanceof String ? limits.abbreviate((String)value) : value;
+    }
+    
+    /**
+     * Suggest values of isIn for a wrong value
+     * 
+     * @param arg1 value of argument 1
+     * @return e.g. ", did you mean ADD?", or "" if no suggestion
+     */
+    private String didYouMean(Object arg1){
+        if(rule != Rule.isIn || arg2Values == null || !(arg1 instanceof String)){
+            return "";
+        }
+        
+        CmdLineFuzzyIndex index = arg2Index;
+        if(index == null){
+            index = new CmdLineFuzzyIndex(Arrays.asList(arg2Values));
+            arg2Index = index;
         }
         
+        return CmdLineFuzzyIndex.didYouMean(index.suggest((String)arg1));
+    }
+    
+    /**
+     * Evaluate the rule without throwing exception
+     * 
+     * @param values command line argument values
+     * @return true if the rule is satisfied
+     */
+    boolean isSatisfied(CmdLineValues values){
+        Object arg1 = resolveArg1(values);
+        
+        // when validate argument value, validte only when argument 1 supplied!
+        if(rule.isValidateOnValue() && arg1 == null){
+            // don't validate when argument is not supplied!
+            return true;
+        }
+        
+        Object arg2 = resolveArg2(values);
         if(isArg2WithCriteria()){
-            String arg2Criteria = getArg2Criteria();
-            if(!rule.validate(arg1, arg2, arg2Criteria)){
-                throw new IllegalArgumentException(buildArgumentErrorMsg(arg1, arg2, arg2Criteria));
-            }            
+            return rule.validate(arg1, arg2, getArg2Criteria());
         } else {
-            if(!rule.validate(arg1, arg2)){
-                throw new IllegalArgumentException(buildArgumentErrorMsg(arg1, arg2, null));
-            }               
+            return rule.validate(arg1, arg2);
+        }
+    }
+    
+    /**
+     * Relative cost of the rule evaluation
+     * 
+     * @return cost, the smaller the cheaper
+     */
+    int cost(){
+        return rule.cost();
+    }
+    
+    private Object resolveArg1(CmdLineValues values){
+        if(rule.isValidateOnValue()){
+            return values.getArgumentValue(getArg1Name());
+        }
+        
+        return getArgumentIfSupplied(values, getArg1Name());
+    }
+    
+    private Object resolveArg2(CmdLineValues values){
+        if(rule.isPathRule()){
+            return CmdLinePathChecker.of(values);
         }
+        
+        if(uniOp){
+            return null;
+        }
+        
+        if(rule.isValidateOnValue()){
+            // is the second argument constant value or command line argument?
+            if(isArg2CmdLineArgument) {
+                return values.getArgumentValue(getArg2());
+            }else{
+                return arg2Values != null ? arg2Values : getArg2();
+            }
+        }
+        
+        return getArgumentIfSupplied(values, getArg2());
+    }
+    
+    /**
+     * Get the argument names referenced by the rule
+     * 
+     * @return argument 1 name and argument 2 name if it is an argument
+     */
+    @Override
+    public String[] getArguments(){
+        if(isArg2CmdLineArgument){
+            return new String[]{getArg1Name(), getArg2()};
+        }
+        
+        return new String[]{getArg1Name()};
+    }
+    
+    @Override
+    public String toString(){
+        return uniOp ? arg1Name + rule : arg1Name + rule + arg2;
+    }
+    
+    @Override
+    public String getFingerprint(){
+        return toString();
     }
     
     /**
@@ -406,7 +720,7 @@ class CmdLineArgumentRule {
                 if(isArg2CmdLineArgument){
                    buf.append(arg1)
                       .append(" and ")
-                      .append(arg2);
+                      .append(arg2 == null ? "not supplied" : arg2);
                 } else {
                    buf.append(arg1);
                 }
@@ -414,9 +728,8 @@ class CmdLineArgumentRule {
             
             // process criteria
             if(isArg2WithCriteria()){
-                CmdLineArgument argument2 = (CmdLineArgument)arg2;
                 buf.append(" but ")
-                   .append(argument2.getValue());
+                   .append(arg2 == null ? "not supplied" : arg2);
             }
         }  
         
@@ -424,19 +737,15 @@ class CmdLineArgumentRule {
     }
     
     /**
-     * Return the argument (object) if it is supplied
+     * Return the argument value if it is supplied
      * 
-     * @param parser CmdLineArgumentParser instance
+     * @param values command line argument values
      * @param argName argument name, short or long
-     * @return CmdLineArgument or null if not supplied
+     * @return argument value or null if not supplied
      */
-    private static CmdLineArgument getArgumentIfSupplied(
-            CmdLineArgumentParser parser, String argName)
+    private static String getArgumentIfSupplied(
+            CmdLineValues values, String argName)
     {
-        if(parser.isArgumentSupplied(argName)){
-            return parser.getArgument(argName);
-        }  
-        
-        return null;
+        return values.getArgumentValue(argName);
     }   
 }
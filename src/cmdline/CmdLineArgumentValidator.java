@@ -0,0 +1,66 @@
+package cmdline;
+
+/**
+ * Custom argument validator, which runs in the same validation pass as the
+ * built-in argument rules.
+ * 
+ * Validators are registered on the parser by 
+ * {@link CmdLineArgumentParser#addValidators(CmdLineArgumentValidator...)} or 
+ * discovered through {@link java.util.ServiceLoader} by 
+ * {@link CmdLineArgumentParser#loadValidators()}. They are run cheapest first,
+ * and validation fails at the first violation.
+ * 
+ * Anything expensive to prepare, e.g. a regular expression Pattern, should be
+ * prepared when the validator is created rather than in validate(_).
+ * 
+ * @author Wayne Zhang
+ * @see CmdLineValidators
+ */
+public interface CmdLineArgumentValidator {
+    /**
+     * Validation cost class
+     */
+    enum Cost {
+        CHEAP,      // in memory checks, e.g. value format
+        MODERATE,   // checks with heavier computation
+        IO          // checks access file system or network
+    }
+    
+    /**
+     * Get the arguments the validator reads
+     * 
+     * @return argument names, short or long
+     */
+    String[] getArguments();
+    
+    /**
+     * Get the validation cost class
+     * 
+     * @return cost class
+     */
+    Cost getCost();
+    
+    /**
+     * Validate argument values
+     * 
+     * @param values command line argument values
+     * @throws IllegalArgumentException if validation fails
+     */
+    void validate(CmdLineValues values);
+    
+    /**
+     * Get a descriptor of the validator and all of its parameters, e.g.
+     * "in range [1.0,10.0]", which is hashed into schema fingerprints, so
+     * that validators of different parameters differ.
+     * 
+     * A validator without a fingerprint, e.g. a lambda, may differ between
+     * processes, results decoded by a schema of such a validator are
+     * validated again.
+     * 
+     * @return fingerprint, or null if the validator can't be fingerprinted
+     * @see CmdLineResultCodec#fingerprint(CmdLineSchema)
+     */
+    default String getFingerprint(){
+        return null;
+    }
+}
@@ -0,0 +1,284 @@
+package cmdline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builder of the command line of a child command, from the parse result of
+ * its parent and a few overrides:
+ *
+ *    String[] argv = new CmdLineArgvBuilder(parser.getParseResult())
+ *            .command("java", "-jar", "tool.jar")
+ *            .set("--inputFile", part)
+ *            .unset("--verbose")
+ *            .build();
+ *    new ProcessBuilder(argv).start();
+ *
+ * Overrides are validated by the rules of the parent before any argv is
+ * built, so that an invalid child command fails in the parent rather than
+ * in the child. Arguments are written in ordinal order by their long names,
+ * or short names if useShortNames(true). Subcommand arguments follow the
+ * subcommand.
+ *
+ * Argv elements are passed to a process as they are, toCommandLine() quotes
+ * them for a POSIX shell, e.g. to log the command or to run it by ssh.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineArgvBuilder {
+    private final CmdLineParseResult parent;
+    private String[] command = new String[0];
+    private CmdLineDelta overrides = new CmdLineDelta();
+    private boolean isShortNames;
+    // result of parent and overrides, validated, null if not validated yet
+    private CmdLineParseResult child;
+
+    /**
+     * Create a builder of the argument values of a parse result
+     *
+     * @param parent parse result of the parent command
+     */
+    public CmdLineArgvBuilder(CmdLineParseResult parent){
+        this.parent = parent;
+    }
+
+    /**
+     * Set the command, which argv starts with, e.g. "java", "-jar", "tool.jar"
+     *
+     * @param command command and its own arguments
+     * @return this builder
+     */
+    public CmdLineArgvBuilder command(String... command){
+        this.command = command.clone();
+
+        return this;
+    }
+
+    /**
+     * Override the value of an argument
+     *
+     * @param name argument name, short or long
+     * @param value argument value
+     * @return this builder
+     */
+    public CmdLineArgvBuilder set(String name, String value){
+        overrides.set(name, value);
+        child = null;
+
+        return this;
+    }
+
+    /**
+     * Set a no value argument, e.g. --verbose
+     *
+     * @param name argument name, short or long
+     * @return this builder
+     */
+    public CmdLineArgvBuilder set(String name){
+        overrides.set(name);
+        child = null;
+
+        return this;
+    }
+
+    /**
+     * Remove an argument from the child command line
+     *
+     * @param name argument name, short or long
+     * @return this builder
+     */
+    public CmdLineArgvBuilder unset(String name){
+        overrides.unset(name);
+        child = null;
+
+        return this;
+    }
+
+    /**
+     * Clear overrides, e.g. to build the command line of the next child
+     *
+     * @return this builder
+     */
+    public CmdLineArgvBuilder clear(){
+        if(!overrides.isEmpty()){
+            overrides = new CmdLineDelta();
+            child = null;
+        }
+
+        return this;
+    }
+
+    /**
+     * Write arguments by short names, e.g. -v rather than --verbose
+     *
+     * @param isShortNames true to write short names
+     * @return this builder
+     */
+    public CmdLineArgvBuilder useShortNames(boolean isShortNames){
+        this.isShortNames = isShortNames;
+
+        return this;
+    }
+
+    /**
+     * Validate overrides by the rules of the parent command
+     *
+     * @return parse result of the child command
+     * @throws IllegalArgumentException if validation failed, or a value
+     *         can't be passed in a command line, e.g. -x
+     */
+    public CmdLineParseResult validate(){
+        CmdLineParseResult result = child;
+        if(result == null){
+            result = overrides.isEmpty() ? parent : parent.update(overrides);
+            checkValues(result);
+            child = result;
+        }
+
+        return result;
+    }
+
+    private void checkValues(CmdLineParseResult result){
+        CmdLineSchema schema = result.getSchema();
+        for(CmdLineArgument arg : schema.getArguments()){
+            String value = result.getValue(arg.getOrdinal());
+            if(value != null && value.startsWith("-") && arg.hasValue() &&
+               !CmdLineArgumentParser.isNegativeNumber(value, schema))
+            {
+                throw new IllegalArgumentException("Wrong argument value '" + value +
+                        "' for: " + arg.getLongName() + ", it is taken as an argument");
+            }
+        }
+    }
+
+    /**
+     * Build the command line
+     *
+     * @return command and arguments
+     * @throws IllegalArgumentException if validation failed
+     */
+    public String[] build(){
+        List<String> argv = buildList();
+
+        return argv.toArray(new String[argv.size()]);
+    }
+
+    /**
+     * Build the command line as a list, e.g. for ProcessBuilder
+     *
+     * @return command and arguments
+     * @throws IllegalArgumentException if validation failed
+     */
+    public List<String> buildList(){
+        List<String> argv = new ArrayList<>(command.length + 2 * parent.getSchema().size());
+        appendTo(argv);
+
+        return argv;
+    }
+
+    /**
+     * Append the command line to a collection, which can be reused for
+     * many child commands
+     *
+     * @param argv collection appended to
+     * @throws IllegalArgumentException if validation failed
+     */
+    public void appendTo(Collection<String> argv){
+        CmdLineParseResult result = validate();
+        CmdLineSchema schema = result.getSchema();
+        CmdLineArgument[] arguments = schema.getArguments();
+        CmdLineArgument help = schema.getArgument("-h");
+
+        // ordinal of the first subcommand argument
+        int subcommandFrom = result.getSubcommand() == null ? -1 : schema.getParent().size();
+
+        Collections.addAll(argv, command);
+        for(int i = 0; i <= arguments.length; i++){
+            if(i == subcommandFrom){
+                argv.add(result.getSubcommand());
+            }
+
+            String value = i < arguments.length ? result.getValue(i) : null;
+            if(value == null || arguments[i] == help){
+                continue;
+            }
+
+            argv.add(isShortNames ? arguments[i].getShortName() : arguments[i].getLongName());
+            if(arguments[i].hasValue()){
+                argv.add(value);
+            }
+        }
+    }
+
+    /**
+     * Build the command line quoted for a POSIX shell
+     *
+     * @return command line
+     * @throws IllegalArgumentException if validation failed
+     */
+    public String toCommandLine(){
+        StringBuilder buf = new StringBuilder();
+        for(String token : build()){
+            if(buf.length() > 0){
+                buf.append(' ');
+            }
+            quote(token, buf);
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Quote a token for a POSIX shell, tokens of safe characters only are
+     * not quoted
+     *
+     * @param token token
+     * @return token quoted
+     */
+    public static String quote(String token){
+        return quote(token, new StringBuilder()).toString();
+    }
+
+    private static StringBuilder quote(String token, StringBuilder buf){
+        if(isSafe(token)){
+            return buf.append(token);
+        }
+
+        buf.append('\'');
+        for(int i = 0; i < token.length(); i++){
+            char c = token.charAt(i);
+            if(c == '\''){
+                // close quote, escaped quote, open quote
+                buf.append("'\\''");
+            }else{
+                buf.append(c);
+            }
+        }
+
+        return buf.append('\'');
+    }
+
+    private static boolean isSafe(String token){
+        if(token.isEmpty()){
+            return false;
+        }
+
+        for(int i = 0; i < token.length(); i++){
+            char c = token.charAt(i);
+            if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' ||
+                 "-_./:=,+@%".indexOf(c) >= 0))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        return String.join(" ", command) + " " + parent + " " + overrides;
+    }
+}
@@ -0,0 +1,376 @@
+package cmdline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only audit log of command lines parsed, e.g. commands dispatched
+ * by a daemon:
+ *
+ *    CmdLineAuditLog auditLog = CmdLineAuditLog.builder(Paths.get("audit"))
+ *            .segmentSize(64 &lt;&lt; 20)
+ *            .syncEvery(1000)
+ *            .open();
+ *    parser.setAuditLog(auditLog);
+ *
+ * Each validated parse is appended as a record of its timestamp and its
+ * values encoded by CmdLineResultCodec, i.e. schema fingerprint, presence
+ * bitmap and values by ordinal, to a memory-mapped segment file. A segment
+ * is rolled when it is full. Records are written to the mapped memory,
+ * which the OS writes back, and forced to the disk every syncEvery records,
+ * when a segment is rolled and when the log is closed.
+ *
+ * Segment format, numbers are big endian:
+ *
+ *    int     magic "CLAL"
+ *    int     format version
+ *    records int length of the bytes after it, 0 at the end
+ *            long timestamp, milliseconds since epoch
+ *            bytes parse result encoded
+ *
+ * Segments are read by read(_) in order. A new log of the same directory
+ * starts a new segment.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineAuditLog implements Closeable {
+    static final int MAGIC = 0x434C414C;
+    static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    // length and timestamp
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int syncEvery;
+
+    private long sequence;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int unsynced;
+    private boolean isClosed;
+
+    private CmdLineAuditLog(Path dir, int segmentSize, int syncEvery) throws IOException{
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncEvery = syncEvery;
+
+        Files.createDirectories(dir);
+        List<Path> segments = listSegments(dir);
+        sequence = segments.isEmpty() ? 0 : sequenceOf(segments.get(segments.size() - 1));
+        roll();
+    }
+
+    public static CmdLineAuditLogBuilder builder(Path dir){
+        return new CmdLineAuditLogBuilder(dir);
+    }
+
+    /**
+     * Append a parse result
+     *
+     * @param result parse result
+     * @throws IllegalArgumentException if the result is larger than a segment
+     * @throws UncheckedIOException if a segment can't be created
+     */
+    public void append(CmdLineParseResult result){
+        append(result, System.currentTimeMillis());
+    }
+
+    synchronized void append(CmdLineParseResult result, long timestamp){
+        if(isClosed){
+            throw new IllegalStateException("Audit log closed: " + dir);
+        }
+
+        // bytes after the length
+        int length = 8 + CmdLineResultCodec.encodedSize(result);
+        if(4 + length + 4 > segmentSize - SEGMENT_HEADER_SIZE){
+            throw new IllegalArgumentException("Audit record of " + length +
+                    " bytes is larger than a segment");
+        }
+
+        // a record and the end mark
+        if(segment.remaining() < 4 + length + 4){
+            try{
+                roll();
+            }catch(IOException e){
+                throw new UncheckedIOException("Roll audit log failed: " + dir, e);
+            }
+        }
+
+        // length is written last, so that a reader never sees a partial record
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER_SIZE);
+        CmdLineResultCodec.encode(result, segment);
+        segment.putLong(start + 4, timestamp);
+        segment.putInt(start, length);
+
+        if(syncEvery > 0 && ++unsynced >= syncEvery){
+            segment.force();
+            unsynced = 0;
+        }
+    }
+
+    private void roll() throws IOException{
+        closeSegment();
+
+        Path path = dir.resolve(String.format("%s%020d%s", PREFIX, ++sequence, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(MAGIC);
+        segment.putInt(FORMAT_VERSION);
+    }
+
+    private void closeSegment() throws IOException{
+        if(segment != null){
+            segment.force();
+            unsynced = 0;
+            segment = null;
+        }
+        if(channel != null){
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Force records appended to the disk
+     */
+    public synchronized void sync(){
+        if(segment != null){
+            segment.force();
+            unsynced = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException{
+        if(!isClosed){
+            isClosed = true;
+            closeSegment();
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "audit log " + dir;
+    }
+
+    private static List<Path> listSegments(Path dir) throws IOException{
+        List<Path> segments = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)){
+            for(Path path : stream){
+                segments.add(path);
+            }
+        }
+
+        // names are zero padded, name order is sequence order
+        Collections.sort(segments);
+
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment){
+        String name = segment.getFileName().toString();
+
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Read records of an audit log, in append order
+     *
+     * @param dir directory of the audit log
+     * @return records, which are iterated segment by segment
+     * @throws UncheckedIOException if a segment can't be read
+     */
+    public static Iterable<Entry> read(final Path dir){
+        return new Iterable<Entry>(){
+            @Override
+            public Iterator<Entry> iterator(){
+                try{
+                    return new EntryIterator(listSegments(dir));
+                }catch(IOException e){
+                    throw new UncheckedIOException("Read audit log failed: " + dir, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Entry of an audit log, which is decoded by a schema of the same
+     * fingerprint
+     */
+    public static final class Entry {
+        private final long timestamp;
+        private final ByteBuffer encoded;
+
+        Entry(long timestamp, ByteBuffer encoded){
+            this.timestamp = timestamp;
+            this.encoded = encoded;
+        }
+
+        public long getTimestamp(){
+            return timestamp;
+        }
+
+        /**
+         * Get the fingerprint of the schema, which the command line is parsed by
+         *
+         * @return schema fingerprint
+         */
+        public long getFingerprint(){
+            // after magic, format version and length
+            return encoded.getLong(encoded.position() + 9);
+        }
+
+        /**
+         * Decode the parse result
+         *
+         * @param schema schema of the same fingerprint
+         * @return parse result
+         * @throws IllegalArgumentException if the schema has a different fingerprint
+         */
+        public CmdLineParseResult decode(CmdLineSchema schema){
+            return CmdLineResultCodec.decode(encoded.duplicate(), schema);
+        }
+
+        @Override
+        public String toString(){
+            return timestamp + " " + Long.toHexString(getFingerprint());
+        }
+    }
+
+    private static final class EntryIterator implements Iterator<Entry> {
+        private final List<Path> segments;
+        private int next;
+        private ByteBuffer segment;
+        private Entry entry;
+
+        EntryIterator(List<Path> segments){
+            this.segments = segments;
+        }
+
+        @Override
+        public boolean hasNext(){
+            while(entry == null){
+                if(segment != null && segment.remaining() >= RECORD_HEADER_SIZE){
+                    int length = segment.getInt();
+                    if(length >= 8 && length <= segment.remaining()){
+                        long timestamp = segment.getLong();
+                        ByteBuffer encoded = segment.slice();
+                        encoded.limit(length - 8);
+                        segment.position(segment.position() + length - 8);
+                        entry = new Entry(timestamp, encoded);
+
+                        return true;
+                    }
+                }
+
+                // end of segment
+                if(next >= segments.size()){
+                    return false;
+                }
+                segment = map(segments.get(next++));
+            }
+
+            return true;
+        }
+
+        @Override
+        public Entry next(){
+            if(!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            Entry e = entry;
+            entry = null;
+
+            return e;
+        }
+
+        private static ByteBuffer map(Path path){
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if(buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != MAGIC){
+                    throw new IllegalArgumentException("Not an audit log segment: " + path);
+                }
+                int version = buffer.getInt();
+                if(version != FORMAT_VERSION){
+                    throw new IllegalArgumentException("Audit log format version " + version +
+                            " not supported: " + path);
+                }
+
+                return buffer;
+            }catch(IOException e){
+                throw new UncheckedIOException("Read audit log failed: " + path, e);
+            }
+        }
+    }
+
+    public static class CmdLineAuditLogBuilder {
+        private final Path dir;
+        private int segmentSize = 64 << 20;
+        private int syncEvery;
+
+        CmdLineAuditLogBuilder(Path dir){
+            this.dir = dir;
+        }
+
+        /**
+         * Set the size of segment files, 64MB by default
+         *
+         * @param segmentSize bytes
+         * @return this builder
+         */
+        public CmdLineAuditLogBuilder segmentSize(int segmentSize){
+            if(segmentSize < 1024){
+                throw new IllegalArgumentException("segmentSize must be at least 1024: " + segmentSize);
+            }
+            this.segmentSize = segmentSize;
+
+            return this;
+        }
+
+        /**
+         * Force records to the disk every n records, 0 by default, i.e. when
+         * a segment is rolled or the log is closed
+         *
+         * @param records number of records
+         * @return this builder
+         */
+        public CmdLineAuditLogBuilder syncEvery(int records){
+            if(records < 0){
+                throw new IllegalArgumentException("syncEvery must not be negative: " + records);
+            }
+            this.syncEvery = records;
+
+            return this;
+        }
+
+        /**
+         * Open the audit log, a new segment is started
+         *
+         * @return audit log
+         * @throws IOException if the directory or the segment can't be created
+         */
+        public CmdLineAuditLog open() throws IOException{
+            return new CmdLineAuditLog(dir, segmentSize, syncEvery);
+        }
+    }
+}
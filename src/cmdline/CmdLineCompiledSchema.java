@@ -0,0 +1,538 @@
+package cmdline;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Compact, read-only storage form of a schema, for tools which keep many
+ * large schemas loaded but run few of them, e.g. a launcher of many tools.
+ * Arguments are kept in parallel primitive arrays indexed by argument
+ * ordinal instead of one object per argument:
+ *
+ *    names         short and long names of all arguments in one char arena
+ *    nameOffsets   offsets of names in the arena, 2 names per argument
+ *    flags         has value, mandatory and ignore case bits
+ *    groups        help groups, only if any argument is grouped
+ *    enumTypes     enum classes, only if any argument is backed by one
+ *    dictionary    distinct enumeration values of all arguments, sorted
+ *    enumIds       enumeration values as sorted ids of the dictionary,
+ *                  enumOffsets are the slices of arguments
+ *    nameTable     open addressing hash table of names to ordinals
+ *
+ * A command line is parsed on the compact form, names are looked up by the
+ * name table and enumeration values checked by the dictionary, no argument
+ * object is created:
+ *
+ *    CmdLineCompiledSchema compiled = schema.compile();
+ *    ...
+ *    CmdLineValues values = compiled.parse(args);
+ *
+ * Rules and validators are shared with the original schema. Features of the
+ * parser, e.g. help, value sources or binding, need the inflated schema of
+ * toSchema(), which takes the memory of the original schema again. So does
+ * a command line which selects a subcommand.
+ *
+ * getFootprint() reports the bytes of the compact form by its array lengths,
+ * to verify the savings.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineCompiledSchema {
+    private static final byte HAS_VALUE = 1;
+    private static final byte MANDATORY = 1 << 1;
+    private static final byte IGNORE_CASE = 1 << 2;
+
+    private static final int[] NO_ENUM = new int[0];
+
+    // 64-bit JVM with compressed references: object header, array header
+    // and reference size, objects are aligned to 8 bytes
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    private final int size;
+    private final char[] names;
+    private final int[] nameOffsets;
+    private final byte[] flags;
+    private final int[] enumOffsets;
+    private final int[] enumIds;
+    private final String[] dictionary;
+    // help groups indexed by ordinal, null if no argument is grouped
+    private final String[] groups;
+    // enum classes indexed by ordinal, null if no argument is backed by one
+    private final Class<?>[] enumTypes;
+    // 2 * ordinal + 1 for short name, 2 * ordinal + 2 for long name, 0 if empty
+    private final int[] nameTable;
+
+    // shared with the schema compiled from
+    private final CmdLineArgumentValidator[] validators;
+    private final Map<String, Consumer<CmdLineSchema>> subcommands;
+
+    CmdLineCompiledSchema(CmdLineSchema schema, Map<String, Consumer<CmdLineSchema>> subcommands){
+        CmdLineArgument[] arguments = schema.getArguments();
+        size = arguments.length;
+
+        int length = 0;
+        for(CmdLineArgument arg : arguments){
+            length += arg.getShortName().length() + arg.getLongName().length();
+        }
+
+        names = new char[length];
+        nameOffsets = new int[2 * size + 1];
+        flags = new byte[size];
+        enumOffsets = new int[size + 1];
+
+        TreeSet<String> enumValues = new TreeSet<>();
+        for(CmdLineArgument arg : arguments){
+            if(arg.isEnumValue()){
+                enumValues.addAll(arg.getEnumValues());
+            }
+        }
+        dictionary = enumValues.toArray(new String[enumValues.size()]);
+
+        String[] argGroups = null;
+        Class<?>[] argEnumTypes = null;
+        int[] ids = new int[16];
+        int offset = 0, idCount = 0;
+        for(int i = 0; i < size; i++){
+            CmdLineArgument arg = arguments[i];
+
+            nameOffsets[2 * i] = offset;
+            offset = copyName(arg.getShortName(), offset);
+            nameOffsets[2 * i + 1] = offset;
+            offset = copyName(arg.getLongName(), offset);
+
+            flags[i] = (byte)((arg.hasValue() ? HAS_VALUE : 0) |
+                              (arg.isMandatory() ? MANDATORY : 0) |
+                              (arg.isIgnoreCase() ? IGNORE_CASE : 0));
+
+            if(arg.getGroup() != null){
+                if(argGroups == null){
+                    argGroups = new String[size];
+                }
+                argGroups[i] = arg.getGroup();
+            }
+
+            if(arg.getEnumType() != null){
+                if(argEnumTypes == null){
+                    argEnumTypes = new Class<?>[size];
+                }
+                argEnumTypes[i] = arg.getEnumType();
+            }
+
+            enumOffsets[i] = idCount;
+            if(arg.isEnumValue()){
+                int[] argIds = idsOf(arg.getEnumValues().toArray(new String[0]));
+                if(idCount + argIds.length > ids.length){
+                    ids = Arrays.copyOf(ids, Math.max(ids.length * 2, idCount + argIds.length));
+                }
+                System.arraycopy(argIds, 0, ids, idCount, argIds.length);
+                idCount += argIds.length;
+            }
+        }
+        groups = argGroups;
+        enumTypes = argEnumTypes;
+        nameOffsets[2 * size] = offset;
+        enumOffsets[size] = idCount;
+        enumIds = idCount == 0 ? NO_ENUM : Arrays.copyOf(ids, idCount);
+
+        nameTable = new int[tableSize(2 * size)];
+        for(int i = 0; i < 2 * size; i++){
+            int slot = hash(nameOffsets[i], nameOffsets[i + 1]) & (nameTable.length - 1);
+            while(nameTable[slot] != 0){
+                slot = (slot + 1) & (nameTable.length - 1);
+            }
+            nameTable[slot] = i + 1;
+        }
+
+        this.validators = schema.getValidators();
+        this.subcommands = subcommands.isEmpty() ?
+                Collections.<String, Consumer<CmdLineSchema>>emptyMap() :
+                new LinkedHashMap<>(subcommands);
+    }
+
+    /**
+     * Get sorted ids of enumeration values in the dictionary
+     */
+    private int[] idsOf(String[] enumValues){
+        int[] ids = new int[enumValues.length];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = Arrays.binarySearch(dictionary, enumValues[i]);
+        }
+        Arrays.sort(ids);
+
+        return ids;
+    }
+
+    private int copyName(String name, int offset){
+        name.getChars(0, name.length(), names, offset);
+
+        return offset + name.length();
+    }
+
+    private static int tableSize(int entries){
+        // load factor 0.5 at most
+        int tableSize = 2;
+        while(tableSize < entries * 2){
+            tableSize <<= 1;
+        }
+
+        return tableSize;
+    }
+
+    /**
+     * Same as String.hashCode(), so that a name is looked up by the hash
+     * cached in its String.
+     */
+    private int hash(int from, int to){
+        int h = 0;
+        for(int i = from; i < to; i++){
+            h = 31 * h + names[i];
+        }
+
+        return spread(h);
+    }
+
+    private static int spread(int h){
+        return h ^ (h >>> 16);
+    }
+
+    private boolean nameEquals(int name, String s){
+        int from = nameOffsets[name];
+        int length = nameOffsets[name + 1] - from;
+        if(length != s.length()){
+            return false;
+        }
+
+        for(int i = 0; i < length; i++){
+            if(names[from + i] != s.charAt(i)){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of arguments
+     *
+     * @return number of arguments, including -h,--help
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Get argument ordinal by name
+     *
+     * @param name argument name, short or long
+     * @return argument ordinal or -1 if not defined
+     */
+    public int ordinalOf(String name){
+        int slot = spread(name.hashCode()) & (nameTable.length - 1);
+        for(int entry; (entry = nameTable[slot]) != 0; slot = (slot + 1) & (nameTable.length - 1)){
+            if(nameEquals(entry - 1, name)){
+                return (entry - 1) >> 1;
+            }
+        }
+
+        return -1;
+    }
+
+    public String getShortName(int ordinal){
+        return new String(names, nameOffsets[2 * ordinal],
+                nameOffsets[2 * ordinal + 1] - nameOffsets[2 * ordinal]);
+    }
+
+    public String getLongName(int ordinal){
+        return new String(names, nameOffsets[2 * ordinal + 1],
+                nameOffsets[2 * ordinal + 2] - nameOffsets[2 * ordinal + 1]);
+    }
+
+    public boolean hasValue(int ordinal){
+        return (flags[ordinal] & HAS_VALUE) != 0;
+    }
+
+    public boolean isMandatory(int ordinal){
+        return (flags[ordinal] & MANDATORY) != 0;
+    }
+
+    public String getGroup(int ordinal){
+        return groups == null ? null : groups[ordinal];
+    }
+
+    /**
+     * Get the enum class which values of an argument are backed by
+     *
+     * @param ordinal argument ordinal
+     * @return enum class or null
+     */
+    public Class<?> getEnumType(int ordinal){
+        return enumTypes == null ? null : enumTypes[ordinal];
+    }
+
+    public boolean isIgnoreCase(int ordinal){
+        return (flags[ordinal] & IGNORE_CASE) != 0;
+    }
+
+    public boolean isEnumValue(int ordinal){
+        return enumOffsets[ordinal + 1] > enumOffsets[ordinal];
+    }
+
+    /**
+     * Get enumeration values of an argument
+     *
+     * @param ordinal argument ordinal
+     * @return enumeration values, empty if not an enumeration argument
+     */
+    public String[] getEnumValues(int ordinal){
+        String[] values = new String[enumOffsets[ordinal + 1] - enumOffsets[ordinal]];
+        for(int i = 0; i < values.length; i++){
+            values[i] = dictionary[enumIds[enumOffsets[ordinal] + i]];
+        }
+
+        return values;
+    }
+
+    /**
+     * Check if a value is permitted by the enumeration of an argument
+     *
+     * @param ordinal argument ordinal
+     * @param value argument value
+     * @return true if the argument isn't an enumeration argument or the value
+     *         is one of its enumeration values
+     */
+    public boolean isPermitted(int ordinal, String value){
+        if(!isEnumValue(ordinal)){
+            return true;
+        }
+
+        Class<?> enumType = getEnumType(ordinal);
+        if(enumType != null){
+            return CmdLineEnumIndex.of(enumType).lookup(value, isIgnoreCase(ordinal)) != null;
+        }
+
+        int id = Arrays.binarySearch(dictionary, value);
+
+        return id >= 0 &&
+               Arrays.binarySearch(enumIds, enumOffsets[ordinal], enumOffsets[ordinal + 1], id) >= 0;
+    }
+
+    /**
+     * Parse and validate a command line on the compact form. -h/--help is a
+     * plain no value argument, it doesn't print help nor exit. A command
+     * line which selects a subcommand is parsed by the inflated schema, as
+     * subcommand schemas extend it.
+     *
+     * @param args command line arguments
+     * @return argument values
+     * @throws IllegalArgumentException if validation failed
+     */
+    public CmdLineValues parse(String... args){
+        String[] values = new String[size];
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(arg.startsWith("-")){
+                int ordinal = ordinalOf(arg);
+                if(ordinal < 0){
+                    throw new IllegalArgumentException("Argument " + arg + " can't be recognised");
+                }
+
+                if(hasValue(ordinal)){
+                    if(i + 1 >= args.length){
+                        throw new IllegalArgumentException("Argument value not supplied for: " + arg);
+                    }
+
+                    String argVal = args[++i];
+                    if(argVal.startsWith("-") && !isNegativeNumber(argVal)){
+                        throw new IllegalArgumentException("Wrong argument value '" + argVal +
+                                "' for: " + arg);
+                    }
+
+                    values[ordinal] = canonicalize(ordinal, argVal);
+                }else{
+                    values[ordinal] = "";
+                }
+            }else if(!subcommands.isEmpty()){
+                CmdLineParseContext context = new CmdLineArgumentParser(toSchema()).newParseContext();
+                context.parse(args);
+
+                return context.getParseResult();
+            }else if(!arg.isEmpty()){
+                throw new IllegalArgumentException("Argument " + arg + " can't be recognised");
+            }
+        }
+
+        for(int i = 0; i < size; i++){
+            validate(i, values[i]);
+        }
+
+        Values result = new Values(values);
+        for(CmdLineArgumentValidator validator : validators){
+            validator.validate(result);
+        }
+
+        return result;
+    }
+
+    private boolean isNegativeNumber(String value){
+        int digit = value.length() > 2 && value.charAt(1) == '.' ? 2 : 1;
+
+        return value.length() > digit && Character.isDigit(value.charAt(digit)) &&
+               ordinalOf(value) < 0;
+    }
+
+    private String canonicalize(int ordinal, String value){
+        Class<?> enumType = getEnumType(ordinal);
+        if(enumType == null){
+            return value;
+        }
+
+        Enum<?> constant = CmdLineEnumIndex.of(enumType).lookup(value, isIgnoreCase(ordinal));
+
+        return constant == null ? value : constant.name();
+    }
+
+    private void validate(int ordinal, String value){
+        String name = getShortName(ordinal) + "|" + getLongName(ordinal);
+        if(value == null){
+            if(isMandatory(ordinal)){
+                throw new IllegalArgumentException(name + " is a manditory argument but has not supplied");
+            }
+
+            return;
+        }
+
+        if(!isPermitted(ordinal, value)){
+            throw new IllegalArgumentException(name + " value (" + value + ") is not permit, " +
+                    "it can be: " + String.join("|", getEnumValues(ordinal)));
+        }
+    }
+
+    /**
+     * Get the bytes of the compact form, computed by the lengths of its
+     * arrays on a 64-bit JVM with compressed references. Enumeration values
+     * of the dictionary are counted as strings of 2 byte chars. Rules,
+     * validators and subcommand definers are shared with the original
+     * schema and not counted.
+     *
+     * @return bytes of the compact form
+     */
+    public long getFootprint(){
+        long bytes = align(OBJECT_HEADER + 4 + 11 * REFERENCE) +
+                arrayBytes(names.length, 2) +
+                arrayBytes(nameOffsets.length, 4) +
+                arrayBytes(flags.length, 1) +
+                arrayBytes(enumOffsets.length, 4) +
+                arrayBytes(enumIds.length, 4) +
+                arrayBytes(nameTable.length, 4) +
+                arrayBytes(dictionary.length, REFERENCE);
+        for(String value : dictionary){
+            bytes += stringBytes(value);
+        }
+
+        if(groups != null){
+            bytes += arrayBytes(groups.length, REFERENCE);
+        }
+        if(enumTypes != null){
+            bytes += arrayBytes(enumTypes.length, REFERENCE);
+        }
+
+        return bytes;
+    }
+
+    static long arrayBytes(int length, int elementSize){
+        return align(ARRAY_HEADER + (long)length * elementSize);
+    }
+
+    // String of a value array and hash
+    static long stringBytes(String value){
+        return align(OBJECT_HEADER + REFERENCE + 4 + 4) + arrayBytes(value.length(), 2);
+    }
+
+    private static long align(long bytes){
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Values parsed on the compact form, looked up by the name table
+     */
+    private final class Values implements CmdLineValues {
+        // argument values indexed by argument ordinal, null if not supplied
+        private final String[] values;
+
+        Values(String[] values){
+            this.values = values;
+        }
+
+        @Override
+        public String getArgumentValue(String name){
+            int ordinal = ordinalOf(name);
+            if(ordinal < 0){
+                throw new RuntimeException("Argument '" + name + "' not defined");
+            }
+
+            return values[ordinal];
+        }
+
+        @Override
+        public boolean isArgumentSupplied(String name){
+            return getArgumentValue(name) != null;
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder buf = new StringBuilder();
+            for(int i = 0; i < size; i++){
+                if(values[i] != null){
+                    if(buf.length() > 0){
+                        buf.append(' ');
+                    }
+
+                    buf.append(getLongName(i));
+                    if(!values[i].isEmpty()){
+                        buf.append(' ').append(values[i]);
+                    }
+                }
+            }
+
+            return buf.toString();
+        }
+    }
+
+    /**
+     * Inflate to a frozen root schema with the same arguments, rules, validators
+     * and subcommands. Argument ordinals are kept.
+     *
+     * @return new schema
+     */
+    public CmdLineSchema toSchema(){
+        CmdLineSchema schema = new CmdLineSchema(null);
+        for(int i = 0; i < size; i++){
+            CmdLineArgument.CmdLineArgumentBuilder builder = CmdLineArgument.builder()
+                    .shortName(getShortName(i))
+                    .longName(getLongName(i))
+                    .hasValue(hasValue(i))
+                    .isMandatory(isMandatory(i))
+                    .group(getGroup(i));
+            if(getEnumType(i) != null){
+                builder.enumType(getEnumType(i)).ignoreCase(isIgnoreCase(i));
+            }else if(isEnumValue(i)){
+                builder.enumValues(getEnumValues(i));
+            }
+
+            schema.defineArgument(builder.build());
+        }
+
+        schema.addValidators(validators);
+        for(Map.Entry<String, Consumer<CmdLineSchema>> subcommand : subcommands.entrySet()){
+            schema.addSubcommand(subcommand.getKey(), subcommand.getValue());
+        }
+
+        return schema.freeze();
+    }
+}
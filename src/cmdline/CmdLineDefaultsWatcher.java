@@ -0,0 +1,279 @@
+package cmdline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Watcher of a defaults file of a running application, e.g. tunables of a
+ * service, created by CmdLineArgumentParser.watchDefaults(_):
+ *
+ *    CmdLineDefaultsWatcher watcher = parser.watchDefaults(
+ *            Paths.get("service.properties"), config);
+ *    watcher.onError(e -> log.warn("defaults rejected", e));
+ *
+ * When the file changes, only the file is read again. Changed values are
+ * validated against the rules of the parser, together with the values
+ * unchanged, then only the changed values are set to the application and
+ * the new parse result is published by one reference swap. Invalid edits
+ * are rejected, the application and the parse result are not touched, and
+ * the values applied last are kept.
+ *
+ * Values of the file apply to arguments not supplied in command line. An
+ * argument removed from the file falls back to its value at start. If it
+ * has none, or a flag is set to false, it is unset in the application too:
+ * flags are set to false, other fields to null or zero of primitive types.
+ *
+ * Values are set to the application while holding its lock, readers which
+ * need several values consistent synchronize on it, or read the parse result.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineDefaultsWatcher implements Closeable {
+    // editors write a file in several steps, wait until it settles
+    private static final long SETTLE_MILLIS = 50;
+
+    private final CmdLineArgumentParser parser;
+    private final Path file;
+    private final Object app;
+    // parse result at start, values which arguments fall back to
+    private final CmdLineParseResult initial;
+    // is argument supplied in command line, by ordinal?
+    private final boolean[] isFixed;
+    private final AtomicReference<CmdLineParseResult> current;
+    // values of the file applied last, null if not applied yet
+    private CmdLineValueSource applied;
+
+    private volatile Consumer<CmdLineParseResult> reloadListener;
+    private volatile Consumer<RuntimeException> errorListener;
+
+    private WatchService watchService;
+
+    CmdLineDefaultsWatcher(CmdLineArgumentParser parser, Path file, Object app,
+            CmdLineParseResult initial, boolean[] isFixed)
+    {
+        this.parser = parser;
+        this.file = file.toAbsolutePath().normalize();
+        this.app = app;
+        this.initial = initial;
+        this.isFixed = isFixed;
+        this.current = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Get the parse result of the values applied last
+     *
+     * @return parse result
+     */
+    public CmdLineParseResult getParseResult(){
+        return current.get();
+    }
+
+    /**
+     * Set the listener of changes applied, called on the watcher thread
+     *
+     * @param listener listener of new parse results
+     * @return this watcher
+     */
+    public CmdLineDefaultsWatcher onReload(Consumer<CmdLineParseResult> listener){
+        this.reloadListener = listener;
+
+        return this;
+    }
+
+    /**
+     * Set the listener of changes rejected, called on the watcher thread.
+     * Without a listener, changes rejected are ignored.
+     *
+     * @param listener listener of errors
+     * @return this watcher
+     */
+    public CmdLineDefaultsWatcher onError(Consumer<RuntimeException> listener){
+        this.errorListener = Objects.requireNonNull(listener);
+
+        return this;
+    }
+
+    /**
+     * Read the file and apply its changes now, e.g. where file changes are
+     * detected late by a polling WatchService
+     *
+     * @return true if changes applied or nothing changed, false if rejected
+     */
+    public boolean reload(){
+        try{
+            apply();
+
+            return true;
+        }catch(RuntimeException e){
+            Consumer<RuntimeException> listener = errorListener;
+            if(listener != null){
+                listener.accept(e);
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Read the file and apply its changes
+     *
+     * @return parse result of the values applied
+     * @throws IllegalArgumentException if values are invalid
+     */
+    synchronized CmdLineParseResult apply(){
+        CmdLineValueSource fileValues = CmdLineValueSources.read(file);
+        CmdLineParseResult result = current.get();
+        if(fileValues == applied){
+            // file not modified
+            return result;
+        }
+
+        CmdLineSchema schema = result.getSchema();
+        CmdLineArgument help = schema.getArgument("-h");
+        CmdLineDelta delta = new CmdLineDelta();
+        // changed values by ordinal, null if not changed or unset
+        String[] changed = new String[schema.size()];
+        // is argument unset, by ordinal
+        boolean[] unset = new boolean[schema.size()];
+        for(CmdLineArgument arg : schema.getArguments()){
+            int ordinal = arg.getOrdinal();
+            if(isFixed[ordinal] || arg == help){
+                continue;
+            }
+
+            String value = fileValues.getValue(arg.getLongName());
+            if(value != null && !arg.hasValue()){
+                value = CmdLineArgument.toFlagValue(value);
+            }
+            if(value == null){
+                value = initial.getValue(ordinal);
+            }
+
+            if(!Objects.equals(value, result.getValue(ordinal))){
+                if(value == null){
+                    delta.unset(arg.getLongName());
+                    unset[ordinal] = true;
+                }else{
+                    delta.set(arg.getLongName(), value);
+                }
+                changed[ordinal] = value;
+            }
+        }
+
+        if(delta.isEmpty()){
+            applied = fileValues;
+
+            return result;
+        }
+
+        CmdLineParseResult updated = result.update(delta);
+        // convert all values before any is set
+        List<Runnable> writes = parser.prepareValues(app, schema, changed, unset);
+        synchronized(app){
+            for(Runnable write : writes){
+                write.run();
+            }
+        }
+
+        current.set(updated);
+        applied = fileValues;
+
+        Consumer<CmdLineParseResult> listener = reloadListener;
+        if(listener != null){
+            listener.accept(updated);
+        }
+
+        return updated;
+    }
+
+    /**
+     * Start watching the directory of the file on a daemon thread
+     */
+    void start(){
+        Path dir = file.getParent();
+        try{
+            watchService = dir.getFileSystem().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }catch(IOException e){
+            throw new UncheckedIOException("Watch " + file + " failed", e);
+        }
+
+        Thread thread = new Thread(new Runnable(){
+            @Override
+            public void run(){
+                watch();
+            }
+        }, "CmdLineDefaultsWatcher " + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch(){
+        try{
+            while(true){
+                WatchKey key = watchService.take();
+                boolean isChanged = isChanged(key);
+                if(!key.reset()){
+                    // directory deleted
+                    return;
+                }
+
+                if(isChanged){
+                    while((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null){
+                        key.pollEvents();
+                        key.reset();
+                    }
+
+                    reload();
+                }
+            }
+        }catch(InterruptedException | ClosedWatchServiceException e){
+            // closed
+        }
+    }
+
+    private boolean isChanged(WatchKey key){
+        boolean isChanged = false;
+        for(WatchEvent<?> event : key.pollEvents()){
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW ||
+               file.getFileName().equals(event.context()))
+            {
+                isChanged = true;
+            }
+        }
+
+        return isChanged;
+    }
+
+    /**
+     * Stop watching, the values applied are kept
+     */
+    @Override
+    public void close(){
+        try{
+            if(watchService != null){
+                watchService.close();
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException("Close watcher of " + file + " failed", e);
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "watcher of " + file;
+    }
+}
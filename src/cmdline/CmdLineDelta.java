@@ -0,0 +1,80 @@
+package cmdline;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Changes of argument values, applied to a parse result incrementally, e.g.
+ * in an interactive session:
+ *
+ *    CmdLineParseResult session = parser.getParseResult();
+ *    ...
+ *    session = session.update(new CmdLineDelta()
+ *            .set("--action", "REMOVE")
+ *            .set("--verbose")
+ *            .unset("--criteria"));
+ *
+ * Later changes of an argument override earlier ones.
+ *
+ * @author Wayne Zhang
+ * @see CmdLineParseResult#update(CmdLineDelta)
+ */
+public final class CmdLineDelta {
+    // argument name to new value, null to unset
+    private final Map<String, String> changes = new LinkedHashMap<>();
+
+    /**
+     * Set the value of an argument
+     *
+     * @param name argument name, short or long
+     * @param value argument value
+     * @return this delta
+     */
+    public CmdLineDelta set(String name, String value){
+        if(value == null){
+            throw new IllegalArgumentException("Argument value can't be null: " + name);
+        }
+
+        changes.put(name, value);
+
+        return this;
+    }
+
+    /**
+     * Set a no value argument, e.g. --verbose
+     *
+     * @param name argument name, short or long
+     * @return this delta
+     */
+    public CmdLineDelta set(String name){
+        changes.put(name, "");
+
+        return this;
+    }
+
+    /**
+     * Unset an argument, as if it is not supplied
+     *
+     * @param name argument name, short or long
+     * @return this delta
+     */
+    public CmdLineDelta unset(String name){
+        changes.put(name, null);
+
+        return this;
+    }
+
+    public boolean isEmpty(){
+        return changes.isEmpty();
+    }
+
+    Map<String, String> getChanges(){
+        return Collections.unmodifiableMap(changes);
+    }
+
+    @Override
+    public String toString(){
+        return changes.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package cmdline;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lookup of enum constants by name, by a perfect hash of the constant names
+ * computed once per enum class. A lookup hashes the value once and compares
+ * it with one constant name at most, no string is created.
+ *
+ * The hash is built by hash-and-displace (CHD): names are hashed to buckets
+ * of 4 names on average, and buckets, largest first, are each given the
+ * first displacement which places all of their names in free slots of a
+ * table of load factor 1/2 at most. A bucket needs a few tries on average,
+ * so the hash is built for enums of any size. Only names whose 64 bit hashes
+ * are the same can't be placed, then names are looked up by a HashMap.
+ *
+ * Names are hashed case-insensitively, so the same table serves exact and
+ * case-insensitive lookups, unless constant names differ only by case, e.g.
+ * ON and on, then lookups are exact only.
+ *
+ * @author Wayne Zhang
+ */
+final class CmdLineEnumIndex {
+    private static final ClassValue<CmdLineEnumIndex> CACHE = new ClassValue<CmdLineEnumIndex>(){
+        @Override
+        protected CmdLineEnumIndex computeValue(Class<?> type){
+            return new CmdLineEnumIndex(type);
+        }
+    };
+
+    // names per bucket on average
+    private static final int BUCKET_SIZE = 4;
+    // displacements tried for a bucket before names are put in a HashMap
+    private static final int MAX_DISPLACEMENT = 1 << 16;
+
+    private final Class<?> type;
+    private final Enum<?>[] constants;
+    private final String[] names;
+    // names hashed case-insensitively?
+    private final boolean isCaseInsensitive;
+
+    // displacement by bucket, null if names are looked up by the HashMap
+    private final int[] displacements;
+    // constant by slot, null if empty
+    private final Enum<?>[] table;
+    // constants by upper case name if case-insensitive, null if hashed
+    private final Map<String, Enum<?>> map;
+
+    private CmdLineEnumIndex(Class<?> type){
+        if(!type.isEnum()){
+            throw new IllegalArgumentException("Not an enum type: " + type.getName());
+        }
+
+        this.type = type;
+        constants = (Enum<?>[])type.getEnumConstants();
+        names = new String[constants.length];
+        for(int i = 0; i < constants.length; i++){
+            names[i] = constants[i].name();
+        }
+
+        isCaseInsensitive = !hasCaseDuplicates(names);
+
+        int[] bucketDisplacements = new int[Math.max(1, constants.length / BUCKET_SIZE)];
+        int tableSize = 2;
+        while(tableSize < 2 * constants.length){
+            tableSize <<= 1;
+        }
+        Enum<?>[] slots = new Enum<?>[tableSize];
+
+        if(place(bucketDisplacements, slots)){
+            displacements = bucketDisplacements;
+            table = slots;
+            map = null;
+        }else{
+            displacements = null;
+            table = null;
+            map = new HashMap<>();
+            for(Enum<?> constant : constants){
+                map.put(key(constant.name()), constant);
+            }
+        }
+    }
+
+    static CmdLineEnumIndex of(Class<?> type){
+        return CACHE.get(type);
+    }
+
+    private static boolean hasCaseDuplicates(String[] names){
+        for(int i = 0; i < names.length; i++){
+            for(int j = i + 1; j < names.length; j++){
+                if(names[i].equalsIgnoreCase(names[j])){
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Place constants in the table by bucket displacements, largest buckets
+     * first
+     *
+     * @return true if all constants are placed
+     */
+    private boolean place(int[] bucketDisplacements, Enum<?>[] slots){
+        int bucketCount = bucketDisplacements.length;
+        long[] hashes = new long[constants.length];
+        final int[] sizes = new int[bucketCount];
+        for(int i = 0; i < constants.length; i++){
+            hashes[i] = hash(names[i]);
+            sizes[bucket(hashes[i], bucketCount)]++;
+        }
+
+        // constants by bucket, buckets by size descending
+        int[] starts = new int[bucketCount + 1];
+        for(int b = 0; b < bucketCount; b++){
+            starts[b + 1] = starts[b] + sizes[b];
+        }
+        int[] members = new int[constants.length];
+        int[] fill = Arrays.copyOf(starts, bucketCount);
+        for(int i = 0; i < constants.length; i++){
+            members[fill[bucket(hashes[i], bucketCount)]++] = i;
+        }
+
+        Integer[] order = new Integer[bucketCount];
+        for(int b = 0; b < bucketCount; b++){
+            order[b] = b;
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer b1, Integer b2){
+                return Integer.compare(sizes[b2], sizes[b1]);
+            }
+        });
+
+        int[] bucketSlots = new int[constants.length];
+        for(int b : order){
+            if(sizes[b] == 0){
+                break;
+            }
+
+            int d = 0;
+            while(!fits(d, members, starts[b], starts[b + 1], hashes, slots, bucketSlots)){
+                if(++d == MAX_DISPLACEMENT){
+                    return false;
+                }
+            }
+
+            bucketDisplacements[b] = d;
+            for(int i = starts[b]; i < starts[b + 1]; i++){
+                slots[bucketSlots[i - starts[b]]] = constants[members[i]];
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if names of a bucket are placed in free and distinct slots by a
+     * displacement
+     *
+     * @param bucketSlots slots of bucket names, filled
+     */
+    private static boolean fits(int d, int[] members, int from, int to, long[] hashes,
+            Enum<?>[] slots, int[] bucketSlots)
+    {
+        for(int i = from; i < to; i++){
+            int slot = slot(hashes[members[i]], d, slots.length - 1);
+            if(slots[slot] != null){
+                return false;
+            }
+
+            for(int j = from; j < i; j++){
+                if(bucketSlots[j - from] == slot){
+                    return false;
+                }
+            }
+            bucketSlots[i - from] = slot;
+        }
+
+        return true;
+    }
+
+    /**
+     * 2 hashes of a name by murmur3 steps of 2 seeds, in one pass: the high
+     * half selects the bucket, the low half is displaced to the slot
+     */
+    private long hash(String name){
+        int h1 = 0x9747B28C, h2 = 0x5BD1E995;
+        for(int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            int k = (isCaseInsensitive ? Character.toUpperCase(c) : c) * 0xCC9E2D51;
+            k = Integer.rotateLeft(k, 15) * 0x1B873593;
+            h1 = Integer.rotateLeft(h1 ^ k, 13) * 5 + 0xE6546B64;
+            h2 = Integer.rotateLeft(h2 ^ k, 17) * 5 + 0x38495AB5;
+        }
+
+        return (long)fmix(h1 ^ name.length()) << 32 | (fmix(h2 ^ name.length()) & 0xFFFFFFFFL);
+    }
+
+    private static int fmix(int h){
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    private static int bucket(long hash, int bucketCount){
+        return (int)(((hash >>> 32) * bucketCount) >>> 32);
+    }
+
+    private static int slot(long hash, int d, int mask){
+        return fmix((int)hash + d * 0x9E3779B9) & mask;
+    }
+
+    private String key(String name){
+        return isCaseInsensitive ? name.toUpperCase(Locale.ROOT) : name;
+    }
+
+    Class<?> getType(){
+        return type;
+    }
+
+    /**
+     * Get constant names in declaration order
+     *
+     * @return names
+     */
+    String[] getNames(){
+        return names.clone();
+    }
+
+    boolean isCaseInsensitive(){
+        return isCaseInsensitive;
+    }
+
+    /**
+     * Look up a constant by name
+     *
+     * @param name constant name
+     * @param ignoreCase match case-insensitively? ignored if constant names
+     *        differ only by case
+     * @return constant or null if not found
+     */
+    Enum<?> lookup(String name, boolean ignoreCase){
+        Enum<?> constant;
+        if(table == null){
+            constant = map.get(key(name));
+        }else{
+            long hash = hash(name);
+            constant = table[slot(hash, displacements[bucket(hash, displacements.length)],
+                                  table.length - 1)];
+        }
+
+        return constant != null && matches(constant, name, ignoreCase) ? constant : null;
+    }
+
+    private boolean matches(Enum<?> constant, String name, boolean ignoreCase){
+        return ignoreCase && isCaseInsensitive ? constant.name().equalsIgnoreCase(name) :
+                                                 constant.name().equals(name);
+    }
+
+    @Override
+    public String toString(){
+        return type.getName() + (table == null ? ", hash map" :
+                ", table " + table.length + ", buckets " + displacements.length);
+    }
+}
@@ -0,0 +1,298 @@
+package cmdline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fuzzy index of names, e.g. argument names or enumeration values, to
+ * suggest the names closest to an unknown one:
+ *
+ *    Argument --verbos can't be recognised, did you mean --verbose?
+ *
+ * Closeness is the edit distance, i.e. insertions, deletions, substitutions
+ * and transpositions of adjacent characters, ignoring case. Names are
+ * indexed by their bigrams, the 2 character substrings of the name padded
+ * at both ends. An edit changes 3 bigrams at most, so a name within
+ * distance k of a query shares all but 3k of its bigrams. A query counts
+ * shared bigrams through the posting lists of its own bigrams, and computes
+ * the distance of the few names which share enough only, rather than of
+ * all names. A query takes microseconds even for thousands of arguments.
+ *
+ * The index is built once and never changed, it can be shared by threads.
+ *
+ * @author Wayne Zhang
+ */
+final class CmdLineFuzzyIndex {
+    // suggestions of a name at most
+    static final int MAX_SUGGESTIONS = 3;
+    // edit distance of suggestions at most
+    private static final int MAX_DISTANCE = 3;
+    // padding of both ends, so that the first and last characters are in 2 bigrams
+    private static final char PAD = '\u0000';
+
+    private final String[] names;
+    // lower case names
+    private final String[] keys;
+    // distinct bigrams of names, sorted, indexed by id
+    private final int[][] nameBigrams;
+    // ids of names, in id order, indexed by bigram
+    private final Map<Integer, int[]> postings;
+    // length of the longest name
+    private final int maxLength;
+
+    /**
+     * Build the index of names
+     *
+     * @param names names, duplicates are ignored
+     */
+    CmdLineFuzzyIndex(Collection<String> names){
+        this.names = new LinkedHashSet<>(names).toArray(new String[0]);
+        this.keys = new String[this.names.length];
+
+        // size posting lists first, then fill them
+        nameBigrams = new int[keys.length][];
+        Map<Integer, int[]> sizes = new HashMap<>();
+        int length = 0;
+        for(int id = 0; id < keys.length; id++){
+            keys[id] = this.names[id].toLowerCase();
+            length = Math.max(length, keys[id].length());
+            nameBigrams[id] = bigrams(keys[id]);
+
+            for(int bigram : nameBigrams[id]){
+                int[] size = sizes.get(bigram);
+                if(size == null){
+                    sizes.put(bigram, new int[]{1});
+                }else{
+                    size[0]++;
+                }
+            }
+        }
+
+        maxLength = length;
+        postings = new HashMap<>(sizes.size() * 4 / 3 + 1);
+        for(Map.Entry<Integer, int[]> entry : sizes.entrySet()){
+            postings.put(entry.getKey(), new int[entry.getValue()[0]]);
+        }
+        // sizes count down to the next free slot, ids are filled from the end
+        for(int id = keys.length - 1; id >= 0; id--){
+            for(int bigram : nameBigrams[id]){
+                int[] size = sizes.get(bigram);
+                postings.get(bigram)[--size[0]] = id;
+            }
+        }
+    }
+
+    /**
+     * Distinct bigrams of a key, padded at both ends
+     *
+     * @param key lower case name
+     * @return bigrams, 2 characters in an int
+     */
+    private static int[] bigrams(String key){
+        int[] bigrams = new int[key.length() + 1];
+        char prev = PAD;
+        for(int i = 0; i <= key.length(); i++){
+            char c = i < key.length() ? key.charAt(i) : PAD;
+            bigrams[i] = prev << 16 | c;
+            prev = c;
+        }
+
+        Arrays.sort(bigrams);
+        int count = 0;
+        for(int i = 0; i < bigrams.length; i++){
+            if(i == 0 || bigrams[i] != bigrams[i - 1]){
+                bigrams[count++] = bigrams[i];
+            }
+        }
+
+        return Arrays.copyOf(bigrams, count);
+    }
+
+    /**
+     * Get names closest to a name. Distances are tried in turn, up to a
+     * quarter of the length of the name, and names of the first distance
+     * matched are suggested, so that short names are suggested only if they
+     * differ by case.
+     *
+     * A name within distance k shares t = |bigrams| - 3k bigrams of the
+     * name at least, so it is in at least one of any |bigrams| - t + 1
+     * posting lists of them. Candidates are taken from the shortest lists
+     * only, and their distance is computed if they share enough bigrams.
+     *
+     * A name longer than any name by more than MAX_DISTANCE, e.g. a hostile
+     * value, is not within distance of any and isn't indexed at all.
+     *
+     * @param name unknown name
+     * @return suggestions in name order, MAX_SUGGESTIONS at most
+     */
+    List<String> suggest(String name){
+        if(name.length() > maxLength + MAX_DISTANCE){
+            return new ArrayList<>();
+        }
+
+        String key = name.toLowerCase();
+        int[] bigrams = bigrams(key);
+        int[][] rows = new int[3][key.length() + 1];
+
+        // posting lists of the bigrams, shortest first
+        int[][] lists = new int[bigrams.length][];
+        for(int i = 0; i < bigrams.length; i++){
+            int[] list = postings.get(bigrams[i]);
+            lists[i] = list == null ? new int[0] : list;
+        }
+        Arrays.sort(lists, new Comparator<int[]>(){
+            @Override
+            public int compare(int[] l1, int[] l2){
+                return Integer.compare(l1.length, l2.length);
+            }
+        });
+
+        // pass of the last visit of each name
+        int[] visited = new int[keys.length];
+
+        int maxDistance = Math.min(MAX_DISTANCE, name.length() / 4);
+        List<String> suggestions = new ArrayList<>();
+        for(int k = 0; k <= maxDistance && suggestions.isEmpty(); k++){
+            int threshold = bigrams.length - 3 * k;
+            if(threshold <= 0){
+                for(int id = 0; id < keys.length; id++){
+                    match(id, key, k, rows, suggestions);
+                }
+                continue;
+            }
+
+            for(int i = 0; i <= bigrams.length - threshold; i++){
+                for(int id : lists[i]){
+                    if(visited[id] == k + 1){
+                        continue;
+                    }
+                    visited[id] = k + 1;
+
+                    if(Math.abs(keys[id].length() - key.length()) <= k &&
+                       shared(nameBigrams[id], bigrams) >= threshold)
+                    {
+                        match(id, key, k, rows, suggestions);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(suggestions);
+
+        return suggestions.size() > MAX_SUGGESTIONS ?
+                new ArrayList<>(suggestions.subList(0, MAX_SUGGESTIONS)) : suggestions;
+    }
+
+    /**
+     * Count bigrams shared by 2 sorted bigram arrays
+     */
+    private static int shared(int[] b1, int[] b2){
+        int count = 0;
+        for(int i = 0, j = 0; i < b1.length && j < b2.length;){
+            if(b1[i] == b2[j]){
+                count++;
+                i++;
+                j++;
+            }else if(b1[i] < b2[j]){
+                i++;
+            }else{
+                j++;
+            }
+        }
+
+        return count;
+    }
+
+    private void match(int id, String key, int k, int[][] rows, List<String> suggestions){
+        if(distance(keys[id], key, k + 1, rows) == k){
+            suggestions.add(names[id]);
+        }
+    }
+
+    /**
+     * Edit distance of 2 keys, optimal string alignment
+     *
+     * @param limit distance which is large enough, larger distances are
+     *        returned as it
+     * @return distance or limit if not smaller
+     */
+    static int distance(String s, String t, int limit){
+        return distance(s, t, limit, new int[3][t.length() + 1]);
+    }
+
+    /**
+     * Edit distance of 2 keys, by rows reused
+     *
+     * @param rows 3 rows of t.length() + 1 at least
+     */
+    private static int distance(String s, String t, int limit, int[][] rows){
+        int n = s.length(), m = t.length();
+        if(Math.abs(n - m) >= limit){
+            return limit;
+        }
+
+        // rows of i - 2, i - 1 and i
+        int[] prev2 = rows[0];
+        int[] prev = rows[1];
+        int[] row = rows[2];
+        for(int j = 0; j <= m; j++){
+            prev[j] = j;
+        }
+
+        for(int i = 1; i <= n; i++){
+            row[0] = i;
+            int rowMin = i;
+            char c = s.charAt(i - 1);
+            for(int j = 1; j <= m; j++){
+                int cost = c == t.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(prev[j] + 1, row[j - 1] + 1), prev[j - 1] + cost);
+                if(i > 1 && j > 1 && c == t.charAt(j - 2) && s.charAt(i - 2) == t.charAt(j - 1)){
+                    d = Math.min(d, prev2[j - 2] + 1);
+                }
+                row[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+
+            // row minimums never decrease, no alignment can get under the limit
+            if(rowMin >= limit){
+                return limit;
+            }
+
+            int[] tmp = prev2;
+            prev2 = prev;
+            prev = row;
+            row = tmp;
+        }
+
+        return Math.min(prev[m], limit);
+    }
+
+    /**
+     * Format suggestions for an error message
+     *
+     * @param suggestions suggestions
+     * @return e.g. ", did you mean --verbose?", or "" if no suggestion
+     */
+    static String didYouMean(List<String> suggestions){
+        if(suggestions.isEmpty()){
+            return "";
+        }
+
+        StringBuilder buf = new StringBuilder(", did you mean ");
+        for(int i = 0; i < suggestions.size(); i++){
+            if(i > 0){
+                buf.append(i == suggestions.size() - 1 ? " or " : ", ");
+            }
+            buf.append(suggestions.get(i));
+        }
+
+        return buf.append('?').toString();
+    }
+}
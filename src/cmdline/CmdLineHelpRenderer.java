@@ -0,0 +1,196 @@
+package cmdline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Render help of a schema to an Appendable, e.g. System.out or a Writer,
+ * without building the whole message in memory:
+ *
+ *    Usage: java tool.Main -h|--help -v|--verbose
+ *        -a|--action [ADD|REMOVE]* {add|remove} ...
+ *    Input options:
+ *      -i|--inputFile {input file name} -d|--scanDir {scan dir}
+ *
+ * Arguments not grouped are listed in the usage line, grouped arguments under
+ * their group name. Lines are wrapped to the width, and arguments can be
+ * filtered by a name prefix, e.g. "--help input". Help fragments are cached by
+ * the arguments.
+ *
+ * @author Wayne Zhang
+ */
+final class CmdLineHelpRenderer {
+    static final int DEFAULT_WIDTH = 80;
+    private static final int MIN_WIDTH = 20;
+
+    private static final String CONTINUATION_INDENT = "    ";
+    private static final String GROUP_INDENT = "  ";
+
+    private final int width;
+
+    CmdLineHelpRenderer(int width){
+        if(width < MIN_WIDTH){
+            throw new IllegalArgumentException("Help width is too small: " + width);
+        }
+
+        this.width = width;
+    }
+
+    /**
+     * Get the terminal width from environment variable COLUMNS
+     *
+     * @return terminal width or DEFAULT_WIDTH if unknown
+     */
+    static int terminalWidth(){
+        String columns = System.getenv("COLUMNS");
+        if(columns != null){
+            try{
+                return Math.max(MIN_WIDTH, Integer.parseInt(columns.trim()));
+            }catch(NumberFormatException e){
+                // not a number, use the default
+            }
+        }
+
+        return DEFAULT_WIDTH;
+    }
+
+    /**
+     * Render help
+     *
+     * @param out help target
+     * @param runner class or jar of the tool
+     * @param schema schema of the arguments
+     * @param subcommand subcommand selected, or null
+     * @param subcommands subcommands to select, or null if none
+     * @param prefix argument name prefix to filter, or null to render all
+     * @throws IOException if failed to write
+     */
+    void render(Appendable out, String runner, CmdLineSchema schema, String subcommand,
+            Collection<String> subcommands, String prefix) throws IOException
+    {
+        LineWriter line = new LineWriter(out);
+        line.append("Usage: java ").append(runner);
+        line.indent = CONTINUATION_INDENT;
+        if(subcommand != null){
+            line.word(subcommand);
+        }
+
+        Map<String, List<CmdLineArgument>> groups = null;
+        for(CmdLineArgument arg : schema.getArguments()){
+            if(prefix != null && !matches(arg, prefix)){
+                continue;
+            }
+
+            if(arg.getGroup() == null){
+                line.word(arg.getHelpInfo());
+            }else{
+                if(groups == null){
+                    groups = new LinkedHashMap<>();
+                }
+
+                List<CmdLineArgument> group = groups.get(arg.getGroup());
+                if(group == null){
+                    group = new ArrayList<>();
+                    groups.put(arg.getGroup(), group);
+                }
+                group.add(arg);
+            }
+        }
+
+        if(subcommands != null && !subcommands.isEmpty()){
+            line.word(subcommandList(subcommands));
+        }
+        line.endLine();
+
+        if(groups != null){
+            line.indent = GROUP_INDENT;
+            for(Map.Entry<String, List<CmdLineArgument>> group : groups.entrySet()){
+                line.append(group.getKey()).append(":").endLine();
+                for(CmdLineArgument arg : group.getValue()){
+                    line.word(arg.getHelpInfo());
+                }
+                line.endLine();
+            }
+        }
+    }
+
+    /**
+     * Check if short name or long name starts with the prefix, with or
+     * without leading dashes, e.g. "in", "-i" and "--in" match --inputFile
+     */
+    private static boolean matches(CmdLineArgument arg, String prefix){
+        return arg.getShortName().startsWith(prefix) ||
+               arg.getLongName().startsWith(prefix) ||
+               arg.getLongName().startsWith(prefix, 2);
+    }
+
+    private static String subcommandList(Collection<String> subcommands){
+        StringBuilder buf = new StringBuilder("{");
+        for(String name : subcommands){
+            if(buf.length() > 1){
+                buf.append('|');
+            }
+            buf.append(name);
+        }
+
+        return buf.append("} ...").toString();
+    }
+
+    /**
+     * Write words and wrap lines at the width
+     */
+    private final class LineWriter {
+        private final Appendable out;
+        // indent of the lines wrapped
+        private String indent = "";
+        private int column;
+
+        LineWriter(Appendable out){
+            this.out = out;
+        }
+
+        LineWriter append(String s) throws IOException{
+            out.append(s);
+            column += s.length();
+
+            return this;
+        }
+
+        /**
+         * Append a word, trailing spaces ignored. It is put on a new line if
+         * it can't fit in current line.
+         */
+        void word(String word) throws IOException{
+            int length = word.length();
+            while(length > 0 && word.charAt(length - 1) == ' '){
+                length--;
+            }
+
+            if(column > indent.length() && column + 1 + length > width){
+                endLine();
+            }
+
+            if(column == 0){
+                out.append(indent);
+                column = indent.length();
+            }else{
+                out.append(' ');
+                column++;
+            }
+
+            out.append(word, 0, length);
+            column += length;
+        }
+
+        void endLine() throws IOException{
+            if(column > 0){
+                out.append(System.lineSeparator());
+                column = 0;
+            }
+        }
+    }
+}
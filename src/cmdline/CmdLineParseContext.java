@@ -0,0 +1,246 @@
+package cmdline;
+
+import java.util.Arrays;
+
+/**
+ * Reusable parse state of a thread, for high-rate command streams which
+ * parse many command lines by the same parser:
+ *
+ *    CmdLineParseContext context = parser.newParseContext();
+ *    for(String[] args : commands){
+ *        context.parse(args);
+ *        dispatch(context.getArgumentValue("-a"));
+ *    }
+ *    context.clear();
+ *
+ * Values are kept as indexes of the tokens parsed, in slots preallocated by
+ * argument ordinal, and turned to strings only when read. Once the slots
+ * are sized to the schema, a parse allocates nothing but errors.
+ *
+ * Unlike the parser, values don't persist across parses: each parse starts
+ * with empty slots, and a failed parse leaves none. clear() drops the
+ * tokens, e.g. before the context is returned to a pool. Tokens must not be
+ * changed until the next parse or clear().
+ *
+ * A context parses the command line only, value sources, defaults and the
+ * audit log of the parser don't apply. -h/--help is a plain no value
+ * argument, it doesn't print help nor exit. A context is used by one thread at a time,
+ * the parser must not be changed while its contexts are parsing.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineParseContext implements CmdLineValues {
+    // slot of an argument not supplied
+    private static final int NOT_SUPPLIED = -1;
+    // slot of a no value argument supplied, its value is ""
+    private static final int FLAG = -2;
+
+    private final CmdLineArgumentParser parser;
+    // file system checker of path rules, not shared with the parser
+    private final CmdLinePathChecker pathChecker = new CmdLinePathChecker();
+
+    // tokens of last parse, null if cleared
+    private String[] tokens;
+    // token index of value by argument ordinal, or NOT_SUPPLIED or FLAG
+    private int[] slots = new int[0];
+    private CmdLineSchema activeSchema;
+    private String subcommand;
+
+    CmdLineParseContext(CmdLineArgumentParser parser){
+        this.parser = parser;
+        this.activeSchema = parser.getSchema();
+    }
+
+    /**
+     * Parse and validate a command line, values of last parse are cleared
+     * first. A context is cleared if parse failed.
+     *
+     * @param args command line arguments, kept until the next parse or clear()
+     * @throws IllegalArgumentException if validation failed
+     */
+    public void parse(String... args){
+        clear();
+
+        try{
+            parseTokens(args);
+        }catch(RuntimeException e){
+            clear();
+            throw e;
+        }
+    }
+
+    private void parseTokens(String[] args){
+        CmdLineSchema schema = parser.getSchema();
+        CmdLineParseLimits limits = parser.getParseLimits();
+        limits.checkTokens(args.length);
+        boolean isBytesLimited = limits.isBytesLimited();
+        long totalBytes = 0;
+
+        pathChecker.setTimeout(parser.getPathChecker().getTimeout());
+        pathChecker.reset();
+        ensureCapacity(schema.size());
+        tokens = args;
+
+        for(int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if(isBytesLimited){
+                totalBytes = limits.checkBytes(arg, totalBytes);
+            }
+
+            if(arg.startsWith("-")){
+                CmdLineArgument argDef = activeSchema.getArgument(arg);
+                if(argDef == null && parser.isPrefixMatching()){
+                    argDef = activeSchema.getArgumentByPrefix(arg);
+                }
+
+                if(argDef == null){
+                    throw new IllegalArgumentException("Argument " + limits.abbreviate(arg) +
+                            " can't be recognised" + activeSchema.didYouMean(arg));
+                }
+
+                if(argDef.hasValue()){
+                    if(i + 1 >= args.length){
+                        throw new IllegalArgumentException("Argument value not supplied for: " + arg);
+                    }
+
+                    String argVal = args[i + 1];
+                    if(isBytesLimited){
+                        totalBytes = limits.checkBytes(argVal, totalBytes);
+                    }
+
+                    if(argVal.startsWith("-") &&
+                       !CmdLineArgumentParser.isNegativeNumber(argVal, activeSchema))
+                    {
+                        throw new IllegalArgumentException("Wrong argument value '" +
+                                limits.abbreviate(argVal) + "' for: " + arg);
+                    }
+
+                    slots[argDef.getOrdinal()] = ++i;
+                }else{
+                    slots[argDef.getOrdinal()] = FLAG;
+                }
+            }else if(subcommand == null && schema.hasSubcommands()){
+                // the first operand selects subcommand
+                CmdLineSchema subcommandSchema = schema.getSubcommandSchema(arg);
+                if(subcommandSchema == null){
+                    throw new IllegalArgumentException("Subcommand " + limits.abbreviate(arg) +
+                            " can't be recognised" + schema.didYouMeanSubcommand(arg));
+                }
+
+                subcommand = arg;
+                activeSchema = subcommandSchema;
+                ensureCapacity(activeSchema.size());
+            }else if(!arg.isEmpty()){
+                throw new IllegalArgumentException("Argument " + limits.abbreviate(arg) +
+                        " can't be recognised");
+            }
+        }
+
+        try{
+            for(CmdLineArgument arg : activeSchema.getArguments()){
+                arg.validate(getValue(arg), limits);
+            }
+
+            for(CmdLineArgumentValidator validator : activeSchema.getValidators()){
+                validator.validate(this);
+            }
+        }catch(IllegalArgumentException e){
+            // error message may echo values
+            throw limits.truncate(e);
+        }
+    }
+
+    private void ensureCapacity(int size){
+        if(slots.length < size){
+            // arguments defined after last parse
+            int length = slots.length;
+            slots = Arrays.copyOf(slots, size);
+            Arrays.fill(slots, length, size, NOT_SUPPLIED);
+        }
+    }
+
+    /**
+     * Clear values and drop the tokens of last parse
+     */
+    public void clear(){
+        Arrays.fill(slots, NOT_SUPPLIED);
+        tokens = null;
+        subcommand = null;
+        activeSchema = parser.getSchema();
+    }
+
+    /**
+     * Get the subcommand selected by last parse
+     *
+     * @return subcommand or null if none
+     */
+    public String getSubcommand(){
+        return subcommand;
+    }
+
+    /**
+     * Get the value of argument supplied in the command line
+     *
+     * @param name argument short name or long name, e.g -a  or --argument
+     * @return argument value, an empty string if it is a no value argument
+     *         or null if not supplied
+     */
+    @Override
+    public String getArgumentValue(String name){
+        CmdLineArgument arg = activeSchema.getArgument(name);
+
+        if(arg == null){
+            throw new RuntimeException("Argument '" + name + "' not defined");
+        }
+
+        return getValue(arg);
+    }
+
+    private String getValue(CmdLineArgument arg){
+        // argument may be defined after last parse
+        int ordinal = arg.getOrdinal();
+        int slot = ordinal < slots.length ? slots[ordinal] : NOT_SUPPLIED;
+        if(slot == NOT_SUPPLIED){
+            return null;
+        }
+
+        return slot == FLAG ? "" : arg.canonicalize(tokens[slot]);
+    }
+
+    @Override
+    public boolean isArgumentSupplied(String name){
+        return getArgumentValue(name) != null;
+    }
+
+    CmdLinePathChecker getPathChecker(){
+        return pathChecker;
+    }
+    
+    CmdLineArgumentParser getParser(){
+        return parser;
+    }
+
+    /**
+     * Get an immutable snapshot of argument values parsed, e.g. to keep them
+     * after the context is cleared
+     *
+     * @return parse result
+     */
+    public CmdLineParseResult getParseResult(){
+        if(tokens == null){
+            throw new RuntimeException("Command line arguments hasn't been parsed.");
+        }
+
+        String[] values = new String[activeSchema.size()];
+        for(CmdLineArgument arg : activeSchema.getArguments()){
+            values[arg.getOrdinal()] = getValue(arg);
+        }
+
+        return new CmdLineParseResult(activeSchema, subcommand, values);
+    }
+
+    @Override
+    public String toString(){
+        return tokens == null ? "cleared" : String.join(" ", tokens);
+    }
+}
@@ -0,0 +1,232 @@
+package cmdline;
+
+/**
+ * Limits of command line parsing, for command lines from untrusted sources,
+ * e.g. requests of a daemon:
+ *
+ *    parser.setParseLimits(CmdLineParseLimits.builder()
+ *            .maxTokens(64)
+ *            .maxTokenBytes(4096)
+ *            .maxTotalBytes(16384)
+ *            .maxErrorLength(256)
+ *            .build());
+ *
+ * Token count is checked before parsing, token bytes (UTF-8) are counted
+ * while tokens are parsed, without copying them. Values echoed in error
+ * messages are abbreviated when the messages are built, by the parser and
+ * by the built-in rules and validators, and error messages are truncated to
+ * the maximum error length.
+ *
+ * There is no limit of error count, as parse stops at the first error.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineParseLimits {
+    /**
+     * No limits, the default of parsers
+     */
+    public static final CmdLineParseLimits UNLIMITED = builder().build();
+
+    private final int maxTokens;
+    private final int maxTokenBytes;
+    private final long maxTotalBytes;
+    private final int maxErrorLength;
+
+    private CmdLineParseLimits(int maxTokens, int maxTokenBytes, long maxTotalBytes,
+            int maxErrorLength)
+    {
+        this.maxTokens = maxTokens;
+        this.maxTokenBytes = maxTokenBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxErrorLength = maxErrorLength;
+    }
+
+    public static CmdLineParseLimitsBuilder builder(){
+        return new CmdLineParseLimitsBuilder();
+    }
+
+    public int getMaxTokens(){
+        return maxTokens;
+    }
+
+    public int getMaxTokenBytes(){
+        return maxTokenBytes;
+    }
+
+    public long getMaxTotalBytes(){
+        return maxTotalBytes;
+    }
+
+    public int getMaxErrorLength(){
+        return maxErrorLength;
+    }
+
+    /**
+     * Get the limits of current parse, to abbreviate values echoed by rules
+     * and validators
+     *
+     * @param values command line argument values being validated
+     * @return limits of the parser, or UNLIMITED
+     */
+    static CmdLineParseLimits of(CmdLineValues values){
+        if(values instanceof CmdLineArgumentParser){
+            return ((CmdLineArgumentParser)values).getParseLimits();
+        }
+        if(values instanceof CmdLineParseContext){
+            return ((CmdLineParseContext)values).getParser().getParseLimits();
+        }
+
+        return UNLIMITED;
+    }
+
+    boolean isBytesLimited(){
+        return maxTokenBytes < Integer.MAX_VALUE || maxTotalBytes < Long.MAX_VALUE;
+    }
+
+    /**
+     * Check the number of tokens before parsing
+     *
+     * @param tokens number of tokens
+     */
+    void checkTokens(int tokens){
+        if(tokens > maxTokens){
+            throw new IllegalArgumentException("Too many arguments: " + tokens +
+                    ", at most " + maxTokens);
+        }
+    }
+
+    /**
+     * Check bytes of a token, and bytes of all tokens so far
+     *
+     * @param token token
+     * @param totalBytes bytes of tokens before this one
+     * @return bytes of tokens including this one
+     */
+    long checkBytes(String token, long totalBytes){
+        // stop counting once over the limit
+        long remaining = Math.min(maxTokenBytes, maxTotalBytes - totalBytes);
+        int bytes = utf8Length(token, (int)Math.min(Integer.MAX_VALUE, remaining + 1));
+        if(bytes > maxTokenBytes){
+            throw new IllegalArgumentException("Argument too long: " +
+                    abbreviate(token) + ", at most " + maxTokenBytes + " bytes");
+        }
+
+        if(totalBytes + bytes > maxTotalBytes){
+            throw new IllegalArgumentException("Command line too long, at most " +
+                    maxTotalBytes + " bytes");
+        }
+
+        return totalBytes + bytes;
+    }
+
+    /**
+     * Get UTF-8 length of a string without encoding it
+     *
+     * @param s string
+     * @param limit counting stops when length reaches the limit
+     * @return UTF-8 length, or a length not less than the limit
+     */
+    static int utf8Length(String s, int limit){
+        int bytes = 0;
+        for(int i = 0, n = s.length(); i < n && bytes < limit; i++){
+            char c = s.charAt(i);
+            if(c < 0x80){
+                bytes++;
+            }else if(c < 0x800){
+                bytes += 2;
+            }else if(Character.isHighSurrogate(c) && i + 1 < n &&
+                     Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                bytes += 4;
+                i++;
+            }else{
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Abbreviate a value echoed in an error message, e.g. xxxxx...(20000 chars)
+     *
+     * @param value value
+     * @return value itself if short enough
+     */
+    String abbreviate(String value){
+        // a quarter of an error message at most
+        int max = Math.max(16, maxErrorLength / 4);
+        if(value == null || value.length() <= max){
+            return value;
+        }
+
+        return value.substring(0, max) + "...(" + value.length() + " chars)";
+    }
+
+    /**
+     * Truncate an error message
+     *
+     * @param e validation error
+     * @return the error itself if short enough, or an error with truncated
+     *         message caused by it
+     */
+    IllegalArgumentException truncate(IllegalArgumentException e){
+        String message = e.getMessage();
+        if(message == null || message.length() <= maxErrorLength){
+            return e;
+        }
+
+        return new IllegalArgumentException(message.substring(0, maxErrorLength) + "...", e);
+    }
+
+    @Override
+    public String toString(){
+        return "maxTokens=" + maxTokens + ", maxTokenBytes=" + maxTokenBytes +
+               ", maxTotalBytes=" + maxTotalBytes + ", maxErrorLength=" + maxErrorLength;
+    }
+
+    public static class CmdLineParseLimitsBuilder {
+        private int maxTokens = Integer.MAX_VALUE;
+        private int maxTokenBytes = Integer.MAX_VALUE;
+        private long maxTotalBytes = Long.MAX_VALUE;
+        private int maxErrorLength = Integer.MAX_VALUE;
+
+        public CmdLineParseLimitsBuilder maxTokens(int maxTokens){
+            checkPositive(maxTokens, "maxTokens");
+            this.maxTokens = maxTokens;
+
+            return this;
+        }
+
+        public CmdLineParseLimitsBuilder maxTokenBytes(int maxTokenBytes){
+            checkPositive(maxTokenBytes, "maxTokenBytes");
+            this.maxTokenBytes = maxTokenBytes;
+
+            return this;
+        }
+
+        public CmdLineParseLimitsBuilder maxTotalBytes(long maxTotalBytes){
+            checkPositive(maxTotalBytes, "maxTotalBytes");
+            this.maxTotalBytes = maxTotalBytes;
+
+            return this;
+        }
+
+        public CmdLineParseLimitsBuilder maxErrorLength(int maxErrorLength){
+            checkPositive(maxErrorLength, "maxErrorLength");
+            this.maxErrorLength = maxErrorLength;
+
+            return this;
+        }
+
+        private static void checkPositive(long limit, String name){
+            if(limit <= 0){
+                throw new IllegalArgumentException(name + " must be positive: " + limit);
+            }
+        }
+
+        public CmdLineParseLimits build(){
+            return new CmdLineParseLimits(maxTokens, maxTokenBytes, maxTotalBytes, maxErrorLength);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package cmdline;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of parsed &amp; validated command line argument values,
+ * which can be safely published to other threads.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineParseResult implements CmdLineValues {
+    // schema of parsed arguments, including subcommand layer if any
+    private final CmdLineSchema schema;
+    private final String subcommand;
+    // argument values indexed by argument ordinal, null if not supplied
+    private final String[] values;
+
+    CmdLineParseResult(CmdLineSchema schema, String subcommand, String[] values){
+        this.schema = schema;
+        this.subcommand = subcommand;
+        this.values = values;
+    }
+
+    CmdLineSchema getSchema(){
+        return schema;
+    }
+
+    /**
+     * Get the value of argument by ordinal, it is the slot of value
+     *
+     * @param ordinal argument ordinal
+     * @return argument value or null if not supplied
+     */
+    String getValue(int ordinal){
+        return ordinal < values.length ? values[ordinal] : null;
+    }
+
+    /**
+     * Get the subcommand selected by command line
+     *
+     * @return subcommand name or null if no subcommand supplied
+     */
+    public String getSubcommand(){
+        return subcommand;
+    }
+
+    /**
+     * Get the version of the schema which arguments are parsed by
+     *
+     * @return schema version, 0 if the schema is not published by a registry
+     * @see CmdLineSchemaRegistry
+     */
+    public long getSchemaVersion(){
+        return schema.getVersion();
+    }
+
+    @Override
+    public String getArgumentValue(String name){
+        CmdLineArgument arg = schema.getArgument(name);
+
+        if(arg == null){
+            throw new RuntimeException("Argument '" + name + "' not defined");
+        }
+
+        return getValue(arg.getOrdinal());
+    }
+
+    /**
+     * Get argument value with defaults if not defined
+     *
+     * @param name argument name
+     * @param defaultValue default value if not supplied
+     * @return argument value if supplied or default value
+     */
+    public String getArgumentValue(String name, String defaultValue){
+        String value = getArgumentValue(name);
+
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public boolean isArgumentSupplied(String name){
+        return getArgumentValue(name) != null;
+    }
+
+    /**
+     * Build an immutable config object from argument values. The type can be
+     *
+     *    a record, built by its canonical constructor, or
+     *    an interface, e.g. { int port(); boolean verbose(); }, implemented
+     *    by a proxy which returns values converted once, default methods
+     *    run their own implementation
+     *
+     * Record components and interface methods are matched to arguments by
+     * long name, e.g. port() to --port. Methods isXxx() and getXxx() are
+     * matched to --xxx too if --isXxx/--getXxx is not defined.
+     *
+     * @param <T> config type
+     * @param type config type
+     * @return config object
+     */
+    public <T> T bindTo(Class<T> type){
+        return CmdLineTypeBinder.of(type).bind(this);
+    }
+
+    /**
+     * Apply changes of argument values and validate them incrementally. Only
+     * the changed arguments, and the rules and validators reading them, are
+     * validated again. This result is not changed.
+     *
+     * @param delta changes of argument values
+     * @return new parse result
+     * @throws IllegalArgumentException if validation failed
+     */
+    public CmdLineParseResult update(CmdLineDelta delta){
+        String[] newValues = Arrays.copyOf(values, schema.size());
+        CmdLineArgument[] arguments = schema.getArguments();
+
+        int[] changed = new int[delta.getChanges().size()];
+        int count = 0;
+        for(Map.Entry<String, String> change : delta.getChanges().entrySet()){
+            CmdLineArgument arg = schema.getArgument(change.getKey());
+            if(arg == null){
+                throw new RuntimeException("Argument '" + change.getKey() + "' not defined");
+            }
+
+            String value = change.getValue();
+            if(value != null && value.isEmpty() && arg.hasValue()){
+                throw new IllegalArgumentException("Argument value not supplied for: " +
+                        change.getKey());
+            }
+
+            newValues[arg.getOrdinal()] = arg.canonicalize(value);
+            changed[count++] = arg.getOrdinal();
+        }
+
+        CmdLineParseResult result = new CmdLineParseResult(schema, subcommand, newValues);
+
+        // validators reading changed arguments, and validators reading none
+        int[][] validatorIndex = schema.getValidatorIndex();
+        int[] selected = validatorIndex[validatorIndex.length - 1];
+        for(int i = 0; i < count; i++){
+            arguments[changed[i]].validate(newValues[changed[i]]);
+
+            int[] indexes = validatorIndex[changed[i]];
+            int length = selected.length;
+            selected = Arrays.copyOf(selected, length + indexes.length);
+            System.arraycopy(indexes, 0, selected, length, indexes.length);
+        }
+
+        // in validation order, cheapest first, each validator once
+        Arrays.sort(selected);
+        CmdLineArgumentValidator[] validators = schema.getValidators();
+        for(int i = 0; i < selected.length; i++){
+            if(i == 0 || selected[i] != selected[i - 1]){
+                validators[selected[i]].validate(result);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder buf = new StringBuilder();
+        if(subcommand != null){
+            buf.append(subcommand);
+        }
+
+        for(CmdLineArgument arg : schema.getArguments()){
+            String value = getValue(arg.getOrdinal());
+            if(value != null){
+                if(buf.length() > 0){
+                    buf.append(' ');
+                }
+
+                buf.append(arg.getLongName());
+                if(!value.isEmpty()){
+                    buf.append(' ').append(value);
+                }
+            }
+        }
+
+        return buf.toString();
+    }
+}
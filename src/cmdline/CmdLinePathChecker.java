@@ -0,0 +1,381 @@
+package cmdline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+/**
+ * File system checks of path arguments for rules isFile, isDir, isReadable
+ * and isWritable, whose value is one path, and their path list forms
+ * areFiles, areDirs, areReadable and areWritable.
+ *
+ * A path list holds several paths separated by {@link File#pathSeparator},
+ * e.g. a:b:c on Unix. Paths are checked on a bounded executor, many of them
+ * in parallel, so that a check hung by the file system, e.g. of an
+ * unreachable network mount, fails by the timeout. File attributes are read
+ * as they are checked and cached within one parse, and all checks of a parse
+ * share one overall timeout.
+ *
+ * @author Wayne Zhang
+ */
+class CmdLinePathChecker {
+    static final int EXISTS     = 1;
+    static final int IS_FILE    = 1 << 1;
+    static final int IS_DIR     = 1 << 2;
+    static final int IS_READABLE= 1 << 3;
+    static final int IS_WRITABLE= 1 << 4;
+
+    // attributes read by one stat
+    private static final int BASIC = EXISTS | IS_FILE | IS_DIR;
+    private static final int ALL = BASIC | IS_READABLE | IS_WRITABLE;
+    // cached attributes hold the attributes read shifted by KNOWN
+    private static final int KNOWN = 8;
+    private static final BiFunction<Integer, Integer, Integer> OR =
+        new BiFunction<Integer, Integer, Integer>(){
+            @Override
+            public Integer apply(Integer a, Integer b){
+                return a | b;
+            }
+        };
+
+    // default overall timeout of path checks in a parse
+    static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    // check paths in parallel when there are at least so many of them
+    private static final int PARALLEL_THRESHOLD = 8;
+    private static final int THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+    // file attributes cached within one parse, indexed by path
+    private final ConcurrentMap<String, Integer> attributeCache = new ConcurrentHashMap<>();
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    // deadline (System.nanoTime) of path checks of current parse, 0 if not started
+    private volatile long deadline;
+
+    /**
+     * Shared by all parsers, threads are created on demand and are daemons
+     */
+    private static final class ExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+            new ThreadFactory(){
+                @Override
+                public Thread newThread(Runnable r){
+                    Thread t = new Thread(r, "CmdLinePathChecker");
+                    t.setDaemon(true);
+
+                    return t;
+                }
+            }
+        );
+    }
+
+    /**
+     * Get the path checker of current parse
+     *
+     * @param values command line argument values being validated
+     * @return checker of the parser or a new checker without shared cache
+     */
+    static CmdLinePathChecker of(CmdLineValues values){
+        if(values instanceof CmdLineArgumentParser){
+            return ((CmdLineArgumentParser)values).getPathChecker();
+        }
+        if(values instanceof CmdLineParseContext){
+            return ((CmdLineParseContext)values).getPathChecker();
+        }
+
+        return new CmdLinePathChecker();
+    }
+
+    void setTimeout(long timeoutMillis){
+        if(timeoutMillis <= 0){
+            throw new IllegalArgumentException("Timeout must be positive: " + timeoutMillis);
+        }
+
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    long getTimeout(){
+        return timeoutMillis;
+    }
+
+    /**
+     * Clear cached attributes and timeout before a new parse
+     */
+    void reset(){
+        attributeCache.clear();
+        deadline = 0;
+    }
+
+    /**
+     * Check if the path, or all paths of a path list, of an argument value
+     * have the attribute
+     *
+     * @param value argument value
+     * @param attribute one of IS_FILE, IS_DIR, IS_READABLE or IS_WRITABLE
+     * @param isPathList is the value paths separated by File.pathSeparator?
+     * @return true if all paths have the attribute
+     */
+    boolean check(String value, int attribute, boolean isPathList){
+        if(deadline == 0){
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+
+        if(!isPathList){
+            checkTimeout();
+            if(isCached(value, attribute)){
+                return hasAttribute(value, attribute);
+            }
+
+            return checkInTime(new String[]{value}, attribute);
+        }
+
+        String[] paths = value.split(File.pathSeparator, -1);
+        if(paths.length < PARALLEL_THRESHOLD){
+            checkTimeout();
+
+            return checkInTime(paths, attribute);
+        }
+
+        return checkInParallel(paths, attribute);
+    }
+
+    /**
+     * Check paths on the executor, waiting until the deadline at most
+     */
+    private boolean checkInTime(final String[] paths, final int attribute){
+        Future<Boolean> result = ExecutorHolder.EXECUTOR.submit(new Callable<Boolean>(){
+            @Override
+            public Boolean call(){
+                return check(paths, 0, paths.length, attribute, null);
+            }
+        });
+
+        try{
+            return result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }catch(TimeoutException e){
+            result.cancel(true);
+
+            throw timeoutException();
+        }catch(ExecutionException e){
+            throw rethrow(e);
+        }catch(InterruptedException e){
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+
+            throw new RuntimeException("Path validation interrupted", e);
+        }
+    }
+
+    private boolean check(String[] paths, int from, int to, int attribute, AtomicBoolean failed){
+        for(int i = from; i < to; i++){
+            if(failed != null && failed.get()){
+                return false;
+            }
+
+            checkTimeout();
+
+            if(!hasAttribute(paths[i], attribute)){
+                if(failed != null){
+                    failed.set(true);
+                }
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean checkInParallel(final String[] paths, final int attribute){
+        final AtomicBoolean failed = new AtomicBoolean();
+        int chunk = (paths.length + THREADS - 1) / THREADS;
+
+        List<Callable<Boolean>> tasks = new ArrayList<>(THREADS);
+        for(int from = 0; from < paths.length; from += chunk){
+            final int start = from;
+            final int end = Math.min(paths.length, from + chunk);
+            tasks.add(new Callable<Boolean>(){
+                @Override
+                public Boolean call(){
+                    return check(paths, start, end, attribute, failed);
+                }
+            });
+        }
+
+        try{
+            long remaining = deadline - System.nanoTime();
+            List<Future<Boolean>> results = ExecutorHolder.EXECUTOR.invokeAll(
+                    tasks, remaining, TimeUnit.NANOSECONDS
+            );
+
+            for(Future<Boolean> result : results){
+                if(!result.get()){
+                    return false;
+                }
+            }
+
+            return true;
+        }catch(CancellationException e){
+            throw timeoutException();
+        }catch(ExecutionException e){
+            throw rethrow(e);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+
+            throw new RuntimeException("Path validation interrupted", e);
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e){
+        if(e.getCause() instanceof RuntimeException){
+            return (RuntimeException)e.getCause();
+        }
+
+        return new RuntimeException(e.getCause());
+    }
+
+    private void checkTimeout(){
+        if(System.nanoTime() - deadline >= 0){
+            throw timeoutException();
+        }
+    }
+
+    private IllegalArgumentException timeoutException(){
+        return new IllegalArgumentException("Path validation timed out after " +
+                timeoutMillis + "ms");
+    }
+
+    /**
+     * Check if a path has the attribute. A path which doesn't exist is
+     * writable if its parent directory is writable.
+     */
+    private boolean hasAttribute(String path, int attribute){
+        int attributes = getAttributes(path, attribute);
+        if((attributes & attribute) != 0){
+            return true;
+        }
+
+        if(attribute == IS_WRITABLE && (attributes & EXISTS) == 0){
+            Path parent = toPath(path);
+            parent = parent == null ? null : parent.toAbsolutePath().getParent();
+
+            return parent != null && hasAttribute(parent.toString(), IS_WRITABLE);
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the attribute of a path is decided by cached attributes, without
+     * file system access
+     */
+    private boolean isCached(String path, int attribute){
+        Integer attributes = attributeCache.get(path);
+        if(attributes == null || (attributes >>> KNOWN & attribute) == 0){
+            return false;
+        }
+
+        // a writable path which doesn't exist depends on its parent
+        return attribute != IS_WRITABLE || (attributes & (EXISTS | IS_WRITABLE)) != 0;
+    }
+
+    /**
+     * Get attributes of a path, reading the attribute and basic attributes
+     * if they are not cached yet
+     */
+    private int getAttributes(String path, int attribute){
+        Integer cached = attributeCache.get(path);
+        int attributes = cached == null ? 0 : cached;
+        int needed = BASIC | attribute;
+        if((attributes >>> KNOWN & needed) == needed){
+            return attributes;
+        }
+
+        attributes |= readAttributes(path, attributes, needed);
+        attributeCache.merge(path, attributes, OR);
+
+        return attributes;
+    }
+
+    /**
+     * Read attributes of a path which are needed and not known yet, e.g.
+     * isReadable is not asked of isDir
+     *
+     * @param known attributes known, as cached
+     * @param needed attributes needed
+     * @return attributes read, with the attributes read shifted by KNOWN
+     */
+    private static int readAttributes(String path, int known, int needed){
+        Path p = toPath(path);
+        if(p == null){
+            return ALL << KNOWN;
+        }
+
+        int attributes = known;
+        if((known >>> KNOWN & BASIC) == 0){
+            BasicFileAttributes attrs;
+            try{
+                attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            }catch(IOException | SecurityException e){
+                // nothing else of a path which doesn't exist
+                return ALL << KNOWN;
+            }
+
+            attributes |= EXISTS | BASIC << KNOWN;
+            if(attrs.isRegularFile()){
+                attributes |= IS_FILE;
+            }
+            if(attrs.isDirectory()){
+                attributes |= IS_DIR;
+            }
+        }
+
+        if((attributes & EXISTS) == 0){
+            return attributes | ALL << KNOWN;
+        }
+        if((needed & ~(attributes >>> KNOWN) & IS_READABLE) != 0){
+            attributes |= IS_READABLE << KNOWN;
+            if(Files.isReadable(p)){
+                attributes |= IS_READABLE;
+            }
+        }
+        if((needed & ~(attributes >>> KNOWN) & IS_WRITABLE) != 0){
+            attributes |= IS_WRITABLE << KNOWN;
+            if(Files.isWritable(p)){
+                attributes |= IS_WRITABLE;
+            }
+        }
+
+        return attributes;
+    }
+
+    private static Path toPath(String path){
+        if(path.isEmpty()){
+            return null;
+        }
+
+        try{
+            return Paths.get(path);
+        }catch(InvalidPathException e){
+            return null;
+        }
+    }
+}
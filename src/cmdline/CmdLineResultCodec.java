@@ -0,0 +1,492 @@
+package cmdline;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of validated parse results, which are handed off
+ * to worker processes. A worker decodes a result without parsing and
+ * validating the command line again, if its schema has the same fingerprint:
+ *
+ *    // supervisor
+ *    CmdLineResultCodec.write(parser.getParseResult(), process.getOutputStream());
+ *
+ *    // worker
+ *    parser.load(CmdLineResultCodec.read(System.in, parser.getSchema()));
+ *
+ * The fingerprint covers the parameters of rules and built-in validators.
+ * Results of a schema with validators which can't be fingerprinted, e.g.
+ * lambdas, are validated again when decoded.
+ *
+ * Format, version 1, numbers are big endian:
+ *
+ *    int     magic "CLPR"
+ *    byte    format version
+ *    int     length of the bytes after it
+ *    long    fingerprint of argument definitions, rules and validators
+ *    string  subcommand, empty if none
+ *    varint  number of arguments
+ *    bytes   presence bitmap, a bit per argument by ordinal
+ *    values  of arguments supplied, by ordinal, nothing for no value
+ *            arguments, otherwise a tag byte and
+ *              0: string, varint UTF-8 length and UTF-8 bytes
+ *              1: integer, zigzag varint
+ *
+ * A string is a varint UTF-8 length and UTF-8 bytes. Integers are encoded
+ * only if they are decoded to the same text, e.g. not 007 or +1.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineResultCodec {
+    static final int MAGIC = 0x434C5052;
+    static final byte FORMAT_VERSION = 1;
+    // magic, format version and length
+    private static final int HEADER_SIZE = 9;
+
+    private static final byte TAG_STRING = 0;
+    private static final byte TAG_INTEGER = 1;
+
+    private CmdLineResultCodec(){
+    }
+
+    /**
+     * Get the fingerprint of a schema, a hash of argument definitions, and
+     * rules and validators of all layers with their parameters. Results are
+     * decoded only by schemas of the same fingerprint.
+     *
+     * @param schema schema
+     * @return fingerprint
+     */
+    public static long fingerprint(CmdLineSchema schema){
+        return schema.getFingerprint();
+    }
+
+    static long computeFingerprint(CmdLineSchema schema){
+        // FNV-1a, 64 bits
+        long hash = 0xcbf29ce484222325L;
+        for(CmdLineArgument arg : schema.getArguments()){
+            hash = hash(hash, arg.getShortName());
+            hash = hash(hash, arg.getLongName());
+            hash = hash(hash, arg.hasValue() ? "V" : "F");
+            hash = hash(hash, arg.isMandatory() ? "M" : "O");
+            if(arg.getEnumType() != null){
+                hash = hash(hash, arg.getEnumType().getName());
+                hash = hash(hash, arg.isIgnoreCase() ? "I" : "C");
+            }
+            if(arg.isEnumValue()){
+                String[] enumValues = arg.getEnumValues().toArray(new String[0]);
+                Arrays.sort(enumValues);
+                for(String value : enumValues){
+                    hash = hash(hash, value);
+                }
+            }
+        }
+
+        for(CmdLineArgumentValidator validator : schema.getValidators()){
+            String fingerprint = validator.getFingerprint();
+            if(fingerprint != null){
+                hash = hash(hash, fingerprint);
+            }else{
+                // validated again when decoded
+                // lambda class names differ across JVMs, the enclosing class is taken
+                String name = validator.getClass().getName();
+                int lambda = name.indexOf("$$Lambda");
+                hash = hash(hash, lambda > 0 ? name.substring(0, lambda) : name);
+            }
+
+            for(String name : validator.getArguments()){
+                hash = hash(hash, name);
+            }
+        }
+
+        return hash;
+    }
+
+    private static long hash(long hash, String s){
+        for(int i = 0; i < s.length(); i++){
+            hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        }
+
+        // separator, so that "ab","c" differs from "a","bc"
+        return (hash ^ 0xFFFF) * 0x100000001b3L;
+    }
+
+    /**
+     * Get the size of a parse result encoded
+     *
+     * @param result parse result
+     * @return bytes
+     */
+    public static int encodedSize(CmdLineParseResult result){
+        CmdLineSchema schema = result.getSchema();
+        int size = schema.size();
+
+        int bytes = HEADER_SIZE + 8 + stringSize(result.getSubcommand()) +
+                varintSize(size) + (size + 7) / 8;
+        for(CmdLineArgument arg : schema.getArguments()){
+            String value = result.getValue(arg.getOrdinal());
+            if(value != null && arg.hasValue()){
+                bytes += 1 + (isCanonicalInteger(value) ?
+                        varintSize(zigzag(Long.parseLong(value))) : stringSize(value));
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Encode a parse result
+     *
+     * @param result parse result
+     * @return bytes encoded
+     */
+    public static byte[] encode(CmdLineParseResult result){
+        byte[] bytes = new byte[encodedSize(result)];
+        encode(result, ByteBuffer.wrap(bytes));
+
+        return bytes;
+    }
+
+    /**
+     * Encode a parse result to a buffer, from its position
+     *
+     * @param result parse result
+     * @param buffer buffer, which has encodedSize(result) bytes remaining
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void encode(CmdLineParseResult result, ByteBuffer buffer){
+        CmdLineSchema schema = result.getSchema();
+        CmdLineArgument[] arguments = schema.getArguments();
+
+        int start = buffer.position();
+        buffer.putInt(MAGIC);
+        buffer.put(FORMAT_VERSION);
+        // length, filled at the end
+        buffer.putInt(0);
+        buffer.putLong(fingerprint(schema));
+        putString(buffer, result.getSubcommand() == null ? "" : result.getSubcommand());
+        putVarint(buffer, arguments.length);
+
+        // presence bitmap
+        for(int i = 0; i < arguments.length; i += 8){
+            int bits = 0;
+            for(int j = i; j < Math.min(i + 8, arguments.length); j++){
+                if(result.getValue(j) != null){
+                    bits |= 1 << (j - i);
+                }
+            }
+            buffer.put((byte)bits);
+        }
+
+        for(CmdLineArgument arg : arguments){
+            String value = result.getValue(arg.getOrdinal());
+            if(value == null || !arg.hasValue()){
+                continue;
+            }
+
+            if(isCanonicalInteger(value)){
+                buffer.put(TAG_INTEGER);
+                putVarint(buffer, zigzag(Long.parseLong(value)));
+            }else{
+                buffer.put(TAG_STRING);
+                putString(buffer, value);
+            }
+        }
+
+        buffer.putInt(start + 5, buffer.position() - start - HEADER_SIZE);
+    }
+
+    /**
+     * Write a parse result encoded to a stream, e.g. a pipe to a worker
+     *
+     * @param result parse result
+     * @param out output stream, not closed
+     * @throws IOException if write failed
+     */
+    public static void write(CmdLineParseResult result, OutputStream out) throws IOException{
+        out.write(encode(result));
+        out.flush();
+    }
+
+    /**
+     * Decode a parse result, argument values are not validated again, unless
+     * a validator of the schema has no fingerprint. Only the bytes of the
+     * encoded length are read, the buffer is positioned after them.
+     *
+     * @param buffer buffer, from its position
+     * @param schema schema of the parser, which decodes the result
+     * @return parse result
+     * @throws IllegalArgumentException if the bytes are not a parse result,
+     *         their length doesn't match the encoded length, or the schema
+     *         has a different fingerprint
+     */
+    public static CmdLineParseResult decode(ByteBuffer buffer, CmdLineSchema schema){
+        try{
+            if(buffer.getInt() != MAGIC){
+                throw new IllegalArgumentException("Not an encoded parse result");
+            }
+            byte version = buffer.get();
+            if(version != FORMAT_VERSION){
+                throw new IllegalArgumentException("Parse result format version " +
+                        version + " not supported");
+            }
+            int length = buffer.getInt();
+            if(length < 0 || length > buffer.remaining()){
+                throw new IllegalArgumentException("Parse result truncated");
+            }
+
+            // the body, nothing is read beyond the encoded length
+            ByteBuffer body = buffer.slice().order(buffer.order());
+            body.limit(length);
+            CmdLineParseResult result = decodeBody(body, schema);
+            if(body.hasRemaining()){
+                throw new IllegalArgumentException("Parse result corrupted, " +
+                        body.remaining() + " bytes after values");
+            }
+            buffer.position(buffer.position() + length);
+
+            if(!isFingerprinted(result.getSchema())){
+                validate(result);
+            }
+
+            return result;
+        }catch(BufferUnderflowException e){
+            throw new IllegalArgumentException("Parse result truncated", e);
+        }
+    }
+
+    /**
+     * Decode the body of a parse result, after its header, values are not
+     * validated
+     */
+    private static CmdLineParseResult decodeBody(ByteBuffer buffer, CmdLineSchema schema){
+        long fingerprint = buffer.getLong();
+        String subcommand = getString(buffer);
+        CmdLineSchema activeSchema = schema;
+        if(!subcommand.isEmpty()){
+            activeSchema = schema.getSubcommandSchema(subcommand);
+            if(activeSchema == null){
+                throw new IllegalArgumentException("Subcommand " + subcommand + " not defined");
+            }
+        }
+
+        if(fingerprint != fingerprint(activeSchema)){
+            throw new IllegalArgumentException("Parse result encoded by a different schema");
+        }
+
+        CmdLineArgument[] arguments = activeSchema.getArguments();
+        if(getVarint(buffer) != arguments.length){
+            throw new IllegalArgumentException("Parse result corrupted, argument count");
+        }
+
+        byte[] bitmap = new byte[(arguments.length + 7) / 8];
+        buffer.get(bitmap);
+
+        String[] values = new String[arguments.length];
+        for(CmdLineArgument arg : arguments){
+            int ordinal = arg.getOrdinal();
+            if((bitmap[ordinal >> 3] & (1 << (ordinal & 7))) == 0){
+                continue;
+            }
+
+            if(!arg.hasValue()){
+                values[ordinal] = "";
+                continue;
+            }
+
+            byte tag = buffer.get();
+            if(tag == TAG_INTEGER){
+                long zigzag = getVarint(buffer);
+                values[ordinal] = String.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+            }else if(tag == TAG_STRING){
+                values[ordinal] = getString(buffer);
+            }else{
+                throw new IllegalArgumentException("Parse result corrupted, value tag " + tag);
+            }
+        }
+
+        return new CmdLineParseResult(activeSchema,
+                subcommand.isEmpty() ? null : subcommand, values);
+    }
+
+    /**
+     * Are all validators of a schema fingerprinted, so that a result of the
+     * same fingerprint is valid for the schema?
+     */
+    private static boolean isFingerprinted(CmdLineSchema schema){
+        for(CmdLineArgumentValidator validator : schema.getValidators()){
+            if(validator.getFingerprint() == null){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void validate(CmdLineParseResult result){
+        CmdLineSchema schema = result.getSchema();
+        for(CmdLineArgument arg : schema.getArguments()){
+            arg.validate(result.getValue(arg.getOrdinal()));
+        }
+
+        for(CmdLineArgumentValidator validator : schema.getValidators()){
+            validator.validate(result);
+        }
+    }
+
+    /**
+     * Read a parse result encoded from a stream, e.g. a pipe from a supervisor
+     *
+     * @param in input stream, not closed
+     * @param schema schema of the parser, which decodes the result
+     * @return parse result
+     * @throws IOException if read failed
+     * @throws IllegalArgumentException if the bytes are not a parse result,
+     *         or the schema has a different fingerprint
+     */
+    public static CmdLineParseResult read(InputStream in, CmdLineSchema schema) throws IOException{
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[HEADER_SIZE];
+        data.readFully(header);
+
+        int length = ByteBuffer.wrap(header).getInt(5);
+        if(length < 0){
+            throw new IllegalArgumentException("Parse result corrupted, length " + length);
+        }
+
+        byte[] bytes = Arrays.copyOf(header, HEADER_SIZE + length);
+        data.readFully(bytes, HEADER_SIZE, length);
+
+        return decode(ByteBuffer.wrap(bytes), schema);
+    }
+
+    /**
+     * Is it an integer, which is decoded to the same text?
+     */
+    static boolean isCanonicalInteger(String value){
+        int n = value.length();
+        int i = n > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if(n == i || n - i > 19 || (value.charAt(i) == '0' && (n - i > 1 || i == 1))){
+            return false;
+        }
+
+        for(int j = i; j < n; j++){
+            char c = value.charAt(j);
+            if(c < '0' || c > '9'){
+                return false;
+            }
+        }
+
+        if(n - i == 19){
+            // overflow?
+            try{
+                Long.parseLong(value);
+            }catch(NumberFormatException e){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long zigzag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int varintSize(long value){
+        int size = 1;
+        while((value & ~0x7FL) != 0){
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value){
+        while((value & ~0x7FL) != 0){
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    private static long getVarint(ByteBuffer buffer){
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            byte b = buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if(b >= 0){
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Parse result corrupted, varint too long");
+    }
+
+    private static int stringSize(String s){
+        if(s == null){
+            return 1;
+        }
+
+        int bytes = CmdLineParseLimits.utf8Length(s, Integer.MAX_VALUE);
+
+        return varintSize(bytes) + bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, String s){
+        putVarint(buffer, CmdLineParseLimits.utf8Length(s, Integer.MAX_VALUE));
+
+        // encode without a copy, as String.getBytes does
+        for(int i = 0, n = s.length(); i < n; i++){
+            char c = s.charAt(i);
+            if(c < 0x80){
+                buffer.put((byte)c);
+            }else if(c < 0x800){
+                buffer.put((byte)(0xC0 | (c >> 6)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }else if(Character.isHighSurrogate(c) && i + 1 < n &&
+                     Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte)(0xF0 | (cp >> 18)));
+                buffer.put((byte)(0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte)(0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (cp & 0x3F)));
+            }else{
+                // an unpaired surrogate is 3 bytes, as counted by utf8Length,
+                // which is decoded as U+FFFD
+                buffer.put((byte)(0xE0 | (c >> 12)));
+                buffer.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer buffer){
+        long length = getVarint(buffer);
+        if(length < 0 || length > buffer.remaining()){
+            throw new BufferUnderflowException();
+        }
+
+        int size = (int)length;
+        if(buffer.hasArray()){
+            String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    size, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + size);
+
+            return s;
+        }
+
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
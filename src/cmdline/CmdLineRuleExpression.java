@@ -0,0 +1,389 @@
+package cmdline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Boolean combination of command line argument rules, for example
+ *
+ *    -c dependsOn -a=ADD || -c dependsOn -a=UPDATE || --force
+ *    !(-u &amp;&amp; -t)
+ *    -q isNumber &amp;&amp; (-q lessThan -m || !-m)
+ *
+ * Expression grammar:
+ *
+ *    expression := term ('||' term)*
+ *    term       := factor ('&amp;&amp;' factor)*
+ *    factor     := '!' factor | '(' expression ')' | predicate
+ *    predicate  := argument[criteria] | argument rule [argument2]
+ *
+ * A bare argument is true if it is supplied and matches the criteria if any,
+ * e.g. --force, -a=ADD, -s&gt;12. A rule predicate is any CmdLineArgumentRule.
+ *
+ * The expression is parsed once into an evaluation tree. Operands of
+ * &amp;&amp; and || are ordered cheapest first and evaluated with short-circuit.
+ *
+ * @author Wayne Zhang
+ */
+class CmdLineRuleExpression implements CmdLineArgumentValidator {
+    private final String expression;
+    private final Node root;
+    // argument names referenced by the expression, in order of appearance
+    private final Set<String> argumentNames = new LinkedHashSet<>();
+
+    // parse position
+    private int pos;
+    // an expression costs at least so much if it has a file system rule
+    private static final int IO_COST = 10;
+
+    public CmdLineRuleExpression(String expression){
+        this.expression = expression;
+
+        Node node = parseOr();
+        skipSpaces();
+        if(pos < expression.length()){
+            throw syntaxError("unexpected '" + expression.charAt(pos) + "'");
+        }
+        this.root = node;
+    }
+
+    public String getExpression(){
+        return expression;
+    }
+
+    /**
+     * Get argument names referenced by the expression
+     *
+     * @return argument names, short or long
+     */
+    public Set<String> getArgumentNames(){
+        return argumentNames;
+    }
+
+    @Override
+    public String[] getArguments(){
+        return argumentNames.toArray(new String[argumentNames.size()]);
+    }
+    
+    @Override
+    public Cost getCost(){
+        return root.cost() >= IO_COST ? Cost.IO : Cost.CHEAP;
+    }
+    
+    /**
+     * Relative cost of the expression evaluation
+     *
+     * @return cost, the smaller the cheaper
+     */
+    int cost(){
+        return root.cost();
+    }
+
+    boolean isSatisfied(CmdLineValues values){
+        return root.eval(values);
+    }
+
+    @Override
+    public void validate(CmdLineValues values){
+        if(!isSatisfied(values)){
+            throw new IllegalArgumentException("Argument rule violated: " + expression);
+        }
+    }
+
+    @Override
+    public String toString(){
+        return expression;
+    }
+
+    @Override
+    public String getFingerprint(){
+        return expression;
+    }
+
+    private Node parseOr(){
+        List<Node> operands = new ArrayList<>();
+        operands.add(parseAnd());
+        while(skip("||")){
+            operands.add(parseAnd());
+        }
+
+        return operands.size() == 1 ? operands.get(0) : new Or(operands);
+    }
+
+    private Node parseAnd(){
+        List<Node> operands = new ArrayList<>();
+        operands.add(parseFactor());
+        while(skip("&&")){
+            operands.add(parseFactor());
+        }
+
+        return operands.size() == 1 ? operands.get(0) : new And(operands);
+    }
+
+    private Node parseFactor(){
+        if(skip("!")){
+            return new Not(parseFactor());
+        }
+
+        if(skip("(")){
+            Node node = parseOr();
+            if(!skip(")")){
+                throw syntaxError("')' expected");
+            }
+
+            return node;
+        }
+
+        return parsePredicate();
+    }
+
+    private Node parsePredicate(){
+        String arg = readWord();
+        if(!arg.startsWith("-") || arg.length() < 2){
+            throw syntaxError("argument expected but '" + arg + "' found");
+        }
+
+        // rule predicate or bare argument?
+        int mark = pos;
+        String ruleName = readWord();
+        if(!CmdLineArgumentRule.isRuleName(ruleName)){
+            pos = mark;
+
+            return new ArgumentPredicate(arg);
+        }
+
+        String arg2 = null;
+        if(!CmdLineArgumentRule.isUniOpRule(ruleName)){
+            arg2 = readOperand();
+            if(arg2.isEmpty()){
+                throw syntaxError("rule " + ruleName + " requires the second argument");
+            }
+        }
+
+        // built from the parts, a quoted operand can have spaces
+        CmdLineArgumentRule rule = new CmdLineArgumentRule(arg, ruleName, arg2);
+        Collections.addAll(argumentNames, rule.getArguments());
+
+        return new RulePredicate(rule);
+    }
+
+    /**
+     * Read a word, which ends with space, ')' or a boolean operator
+     */
+    private String readWord(){
+        skipSpaces();
+
+        int start = pos;
+        while(pos < expression.length()){
+            char c = expression.charAt(pos);
+            if(Character.isWhitespace(c) || c == ')' ||
+               expression.startsWith("&&", pos) ||
+               expression.startsWith("||", pos))
+            {
+                break;
+            }
+            pos++;
+        }
+
+        return expression.substring(start, pos);
+    }
+
+    /**
+     * Read the second rule argument, it can be a quoted enumeration,
+     * e.g. (insert,update) for isIn
+     */
+    private String readOperand(){
+        skipSpaces();
+        if(pos >= expression.length()){
+            return "";
+        }
+
+        char quoteEnd;
+        switch(expression.charAt(pos)){
+            case '(': quoteEnd = ')'; break;
+            case '[': quoteEnd = ']'; break;
+            case '{': quoteEnd = '}'; break;
+            case '\'': quoteEnd = '\''; break;
+            case '\"': quoteEnd = '\"'; break;
+            default:
+                return readWord();
+        }
+
+        int end = expression.indexOf(quoteEnd, pos + 1);
+        if(end < 0){
+            throw syntaxError("'" + quoteEnd + "' expected");
+        }
+
+        String operand = expression.substring(pos, end + 1);
+        pos = end + 1;
+
+        return operand;
+    }
+
+    private boolean skip(String token){
+        skipSpaces();
+        if(expression.startsWith(token, pos)){
+            pos += token.length();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void skipSpaces(){
+        while(pos < expression.length() && Character.isWhitespace(expression.charAt(pos))){
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException syntaxError(String reason){
+        return new IllegalArgumentException("Rule expression error at " + pos +
+                " (" + reason + "): " + expression);
+    }
+
+    /**
+     * Node of the evaluation tree
+     */
+    private static abstract class Node {
+        abstract boolean eval(CmdLineValues values);
+
+        abstract int cost();
+    }
+
+    private static final Comparator<Node> CHEAPEST_FIRST = new Comparator<Node>(){
+        @Override
+        public int compare(Node n1, Node n2){
+            return Integer.compare(n1.cost(), n2.cost());
+        }
+    };
+
+    private static final class And extends Node {
+        private final Node[] operands;
+        private final int cost;
+
+        And(List<Node> operands){
+            // stable sort keeps the define order of operands with same cost
+            Collections.sort(operands, CHEAPEST_FIRST);
+            this.operands = operands.toArray(new Node[operands.size()]);
+            this.cost = sumCost(this.operands);
+        }
+
+        boolean eval(CmdLineValues values){
+            for(Node operand : operands){
+                if(!operand.eval(values)){
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        int cost(){
+            return cost;
+        }
+    }
+
+    private static final class Or extends Node {
+        private final Node[] operands;
+        private final int cost;
+
+        Or(List<Node> operands){
+            Collections.sort(operands, CHEAPEST_FIRST);
+            this.operands = operands.toArray(new Node[operands.size()]);
+            this.cost = sumCost(this.operands);
+        }
+
+        boolean eval(CmdLineValues values){
+            for(Node operand : operands){
+                if(operand.eval(values)){
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        int cost(){
+            return cost;
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand){
+            this.operand = operand;
+        }
+
+        boolean eval(CmdLineValues values){
+            return !operand.eval(values);
+        }
+
+        int cost(){
+            return operand.cost();
+        }
+    }
+
+    private static final class RulePredicate extends Node {
+        private final CmdLineArgumentRule rule;
+
+        RulePredicate(CmdLineArgumentRule rule){
+            this.rule = rule;
+        }
+
+        boolean eval(CmdLineValues values){
+            return rule.isSatisfied(values);
+        }
+
+        int cost(){
+            return rule.cost();
+        }
+    }
+
+    /**
+     * Bare argument predicate, e.g. --force or -a=ADD
+     */
+    private final class ArgumentPredicate extends Node {
+        private final String name;
+        private final String criteria;
+
+        ArgumentPredicate(String arg){
+            int pos = CmdLineArgumentRule.criteriaIndexOf(arg);
+            if(pos > 0){
+                name = arg.substring(0, pos);
+                criteria = arg.substring(pos);
+            }else{
+                name = arg;
+                criteria = null;
+            }
+
+            argumentNames.add(name);
+        }
+
+        boolean eval(CmdLineValues values){
+            String value = values.getArgumentValue(name);
+            if(value == null){
+                return false;
+            }
+
+            return criteria == null || CmdLineArgumentRule.matchesCriteria(value, criteria);
+        }
+
+        int cost(){
+            return criteria == null ? 1 : 2;
+        }
+    }
+
+    private static int sumCost(Node[] nodes){
+        int cost = 0;
+        for(Node node : nodes){
+            cost += node.cost();
+        }
+
+        return cost;
+    }
+}
@@ -0,0 +1,728 @@
+package cmdline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Command line argument definitions and rules, which can be shared by many
+ * parsers.
+ *
+ * A schema is a layer on top of an optional parent schema. Once frozen, a
+ * schema can be extended by other schemas without copying its arguments,
+ * for example, options common to many tools:
+ *
+ *    CmdLineSchema common = new CmdLineSchema();
+ *    common.defineArguments("-v,--verbose,false", "-c,--config,true");
+ *    common.freeze();
+ *
+ *    CmdLineArgumentParser parser = new CmdLineArgumentParser(common);
+ *    parser.defineArguments("-a,--action,true,ADD|REMOVE,true");
+ *
+ * Argument lookups fall through to the parent layers by a combined name index
+ * compiled when a layer is frozen. Argument names must be unique across all
+ * layers. A root schema defines the -h,--help argument.
+ *
+ * A schema may have subcommands (git-style), each of which is a schema layer
+ * on top of it. Subcommand schemas are defined only when selected:
+ *
+ *    parser.addSubcommand("add", schema -&gt; schema.defineArguments(...));
+ *
+ * Subcommands of parent layers are inherited. A subcommand added by several
+ * layers is defined by the definers of all of them, parent layers first.
+ * Selecting a subcommand the first time freezes the schema, which the
+ * subcommand schema extends.
+ *
+ * Freezing computes arguments, validators, fingerprint and subcommands of
+ * all layers once, a frozen schema is read by parsers without locking.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineSchema {
+    private final CmdLineSchema parent;
+    // Version of a schema published by a registry, 0 if not published
+    private final long version;
+
+    // Map indexed by argument short name of this layer
+    // Note: use linked map to keep argument define order
+    private final Map<String, CmdLineArgument> shortNameMap = new LinkedHashMap<>();
+    // Map indexed by argument long name of this layer
+    private final Map<String, CmdLineArgument> longNameMap = new LinkedHashMap<>();
+    // Rules and validators of this layer, in add order
+    private final List<CmdLineArgumentValidator> validators = new ArrayList<>();
+
+    // Subcommand definers of this layer, indexed by subcommand name
+    private final Map<String, Consumer<CmdLineSchema>> subcommands = new LinkedHashMap<>();
+    // Subcommand schemas defined on demand
+    private final Map<String, CmdLineSchema> subcommandSchemas = new ConcurrentHashMap<>();
+
+    private volatile boolean frozen;
+    // Name index of all layers, compiled when frozen
+    private Map<String, CmdLineArgument> combinedIndex;
+    // Arguments and validators of all layers, compiled on demand
+    private CmdLineArgument[] allArguments;
+    private CmdLineArgumentValidator[] allValidators;
+    // Indexes of validators reading each argument, compiled on demand
+    private int[][] validatorIndex;
+    // Fingerprint of arguments and rules of all layers, computed on demand
+    private Long fingerprint;
+    // Long names of all layers in order, built on demand for prefix matching
+    private String[] sortedLongNames;
+    // Subcommand definers of all layers, computed when frozen
+    private Map<String, Consumer<CmdLineSchema>> allSubcommands;
+    // Fuzzy index of argument names of all layers, built on the first
+    // unknown argument
+    private volatile CmdLineFuzzyIndex nameIndex;
+
+    /**
+     * Create a root schema with -h,--help argument defined
+     */
+    public CmdLineSchema(){
+        this(null);
+
+        // support -h/--help?
+        defineArgument("-h,--help,false");
+    }
+
+    // a root schema without -h,--help if parent is null
+    CmdLineSchema(CmdLineSchema parent){
+        this(parent, 0);
+    }
+
+    CmdLineSchema(CmdLineSchema parent, long version){
+        this.parent = parent;
+        this.version = version;
+    }
+
+    /**
+     * Create a new schema layer on top of this one, which is frozen then.
+     *
+     * @return schema layer extends this schema
+     */
+    public CmdLineSchema extend(){
+        freeze();
+
+        return new CmdLineSchema(this);
+    }
+
+    /**
+     * Freeze the schema, no argument, rule or validator can be added after.
+     *
+     * @return this schema
+     */
+    public synchronized CmdLineSchema freeze(){
+        if(frozen){
+            return this;
+        }
+
+        Map<String, CmdLineArgument> index = new HashMap<>();
+        if(parent != null){
+            index.putAll(parent.combinedIndex);
+        }
+        index.putAll(shortNameMap);
+        index.putAll(longNameMap);
+
+        for(CmdLineArgument arg : shortNameMap.values()){
+            arg.freeze();
+        }
+
+        combinedIndex = index;
+        // read without lock once frozen is set
+        getArguments();
+        getValidators();
+        getValidatorIndex();
+        getSortedLongNames();
+        getFingerprint();
+        allSubcommands = Collections.unmodifiableMap(getSubcommandDefiners());
+        frozen = true;
+
+        return this;
+    }
+
+    /**
+     * Compile arguments of all layers to a compact, read-only form to keep
+     * many schemas loaded, parsers use the schema inflated from it. This
+     * schema is frozen then.
+     *
+     * @return compiled schema
+     * @see CmdLineCompiledSchema
+     */
+    public synchronized CmdLineCompiledSchema compile(){
+        freeze();
+
+        return new CmdLineCompiledSchema(this, getSubcommandDefiners());
+    }
+
+    public boolean isFrozen(){
+        return frozen;
+    }
+
+    public CmdLineSchema getParent(){
+        return parent;
+    }
+
+    /**
+     * Get the version of the schema published by a registry, which this
+     * schema is or extends
+     *
+     * @return schema version, 0 if not published by a registry
+     * @see CmdLineSchemaRegistry
+     */
+    public long getVersion(){
+        if(version != 0 || parent == null){
+            return version;
+        }
+
+        return parent.getVersion();
+    }
+
+    // define an argument
+    public CmdLineArgument defineArgument(String argumentDefination){
+        CmdLineArgument arg = CmdLineArgument.valueOf(argumentDefination);
+
+        defineArgument(arg);
+
+        return arg;
+    }
+
+    public void defineArguments(String... argumentDefination){
+        for(String define: argumentDefination){
+            defineArgument(define);
+        }
+    }
+
+    // define an argument, using a builder for example
+    public synchronized void defineArgument(CmdLineArgument arg){
+        checkFrozen();
+
+        // check if argument has been defined already, in any layer!
+        if(getArgument(arg.getShortName()) != null ||
+           getArgument(arg.getLongName()) != null )
+        {
+            throw new RuntimeException("Argument '" +
+                    arg.getShortName() + "," +
+                    arg.getLongName() + "' has been defined already"
+            );
+        }
+
+        arg.setOrdinal(size());
+
+        shortNameMap.put(arg.getShortName(), arg);
+        longNameMap.put(arg.getLongName(), arg);
+        allArguments = null;
+        validatorIndex = null;
+        fingerprint = null;
+        nameIndex = null;
+        sortedLongNames = null;
+    }
+
+    /**
+     * Put arguments in a help group, e.g. "Input options". Arguments not
+     * grouped are listed in the usage line.
+     * 
+     * @param group group name
+     * @param argumentNames argument names, short or long
+     */
+    public synchronized void setGroup(String group, String... argumentNames){
+        checkFrozen();
+
+        for(String name : argumentNames){
+            CmdLineArgument arg = getArgument(name);
+            if(arg == null){
+                throw new RuntimeException("Argument '" + name + "' not defined");
+            }
+
+            arg.setGroup(group);
+        }
+    }
+
+    public void addArgumentRules(String... rules){
+        for(String rule : rules){
+            CmdLineArgumentRule argRule = new CmdLineArgumentRule(rule);
+            CmdLineArgument arg = getArgument(argRule.getArg1Name());
+            if(arg == null){
+                throw new RuntimeException(
+                        "CmdLineArgument rule definatin error, argument not found: " +
+                         rule
+                );
+            }
+            argRule.setArg1(arg);
+
+            addValidators(argRule);
+        }
+    }
+
+    /**
+     * Add rule expressions which combine argument rules by &amp;&amp;, || and !,
+     * for example
+     *
+     *    -c dependsOn -a=ADD || -c dependsOn -a=UPDATE || --force
+     *
+     * @param expressions rule expressions
+     * @see CmdLineRuleExpression
+     */
+    public void addRuleExpressions(String... expressions){
+        for(String expression : expressions){
+            addValidators(new CmdLineRuleExpression(expression));
+        }
+    }
+
+    /**
+     * Add custom validators. Validators are run in order of cost, cheapest
+     * first, after the built-in argument checks.
+     *
+     * @param argumentValidators validators
+     */
+    public synchronized void addValidators(CmdLineArgumentValidator... argumentValidators){
+        checkFrozen();
+
+        for(CmdLineArgumentValidator validator : argumentValidators){
+            for(String name : validator.getArguments()){
+                if(getArgument(name) == null){
+                    throw new RuntimeException(
+                            "CmdLineArgument validator definatin error, argument not found: " +
+                             name + " of " + validator
+                    );
+                }
+            }
+
+            validators.add(validator);
+        }
+
+        allValidators = null;
+        validatorIndex = null;
+        fingerprint = null;
+    }
+
+    /**
+     * Load validators by ServiceLoader. Validators which read arguments not
+     * defined by this schema are ignored, as they are for other tools.
+     */
+    public void loadValidators(){
+        for(CmdLineArgumentValidator validator : ServiceLoader.load(CmdLineArgumentValidator.class)){
+            if(isAllDefined(validator.getArguments())){
+                addValidators(validator);
+            }
+        }
+    }
+
+    /**
+     * Add a subcommand, which is selected by the first operand of command line,
+     * e.g. add of "tool -v add -f a.txt". Arguments of this schema are
+     * inherited by the subcommand. If a parent layer adds the subcommand too,
+     * its definer is called first.
+     *
+     * The subcommand schema extends this schema, so this schema is frozen
+     * when a subcommand is selected the first time: define arguments and
+     * rules before parsing.
+     *
+     * @param name subcommand name
+     * @param definer defines arguments and rules of subcommand schema, it is
+     *        called only when the subcommand is selected the first time
+     */
+    public synchronized void addSubcommand(String name, Consumer<CmdLineSchema> definer){
+        checkFrozen();
+
+        if(name.isEmpty() || name.startsWith("-")){
+            throw new IllegalArgumentException("Subcommand name format error: " + name);
+        }
+
+        if(subcommands.containsKey(name)){
+            throw new RuntimeException("Subcommand '" + name + "' has been defined already");
+        }
+
+        subcommands.put(name, definer);
+    }
+
+    /**
+     * Has this schema or a parent layer subcommands?
+     *
+     * @return true if there are subcommands
+     */
+    public boolean hasSubcommands(){
+        if(frozen){
+            return !allSubcommands.isEmpty();
+        }
+
+        synchronized(this){
+            return !subcommands.isEmpty() || (parent != null && parent.hasSubcommands());
+        }
+    }
+
+    /**
+     * Get subcommands of all layers
+     *
+     * @return subcommand names, of parent layers first
+     */
+    public Set<String> getSubcommands(){
+        return Collections.unmodifiableSet(getSubcommandDefiners().keySet());
+    }
+
+    /**
+     * Get subcommand definers of all layers, a subcommand added by several
+     * layers is defined by all of their definers, parent layers first
+     *
+     * @return definers indexed by subcommand name
+     */
+    Map<String, Consumer<CmdLineSchema>> getSubcommandDefiners(){
+        if(frozen){
+            return allSubcommands;
+        }
+
+        synchronized(this){
+            Map<String, Consumer<CmdLineSchema>> definers = parent == null ?
+                    new LinkedHashMap<String, Consumer<CmdLineSchema>>() :
+                    new LinkedHashMap<>(parent.getSubcommandDefiners());
+
+            for(Map.Entry<String, Consumer<CmdLineSchema>> entry : subcommands.entrySet()){
+                Consumer<CmdLineSchema> inherited = definers.get(entry.getKey());
+                definers.put(entry.getKey(), inherited == null ? entry.getValue() :
+                                                                 inherited.andThen(entry.getValue()));
+            }
+
+            return definers;
+        }
+    }
+
+    /**
+     * Suggest subcommands for an unknown one, subcommands are few and not
+     * indexed ahead
+     *
+     * @param name unknown subcommand
+     * @return e.g. ", did you mean add?", or "" if no suggestion
+     */
+    String didYouMeanSubcommand(String name){
+        return CmdLineFuzzyIndex.didYouMean(new CmdLineFuzzyIndex(getSubcommands()).suggest(name));
+    }
+
+    /**
+     * Get the schema of a subcommand of any layer, define it if it is the
+     * first time. This schema is frozen then.
+     *
+     * @param name subcommand name
+     * @return subcommand schema or null if subcommand not defined
+     */
+    CmdLineSchema getSubcommandSchema(String name){
+        CmdLineSchema subcommand = subcommandSchemas.get(name);
+        if(subcommand != null){
+            return subcommand;
+        }
+
+        synchronized(this){
+            subcommand = subcommandSchemas.get(name);
+            if(subcommand == null){
+                Consumer<CmdLineSchema> definer = getSubcommandDefiners().get(name);
+                if(definer == null){
+                    return null;
+                }
+
+                subcommand = extend();
+                definer.accept(subcommand);
+                subcommand.freeze();
+
+                subcommandSchemas.put(name, subcommand);
+            }
+        }
+
+        return subcommand;
+    }
+
+    private boolean isAllDefined(String[] names){
+        for(String name : names){
+            if(getArgument(name) == null){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void checkFrozen(){
+        if(frozen){
+            throw new IllegalStateException("Schema is frozen, it can't be changed");
+        }
+    }
+
+    /**
+     * Get argument by name
+     * @param argumentName argument name, short or long
+     * @return CmdLineArgument define or null if not defined
+     */
+    CmdLineArgument getArgument(String argumentName){
+        if(frozen){
+            return combinedIndex.get(argumentName);
+        }
+
+        CmdLineArgument arg;
+        if(argumentName.startsWith("--")){
+            arg = longNameMap.get(argumentName);
+        }else{
+            arg = shortNameMap.get(argumentName);
+        }
+
+        if(arg == null && parent != null){
+            arg = parent.combinedIndex.get(argumentName);
+        }
+
+        return arg;
+    }
+
+    /**
+     * Get the argument whose long name starts with a prefix, e.g. --verb
+     * for --verbose, if only one does
+     *
+     * @param prefix prefix of long name, starts with --
+     * @return argument or null if no long name starts with the prefix
+     * @throws IllegalArgumentException if more than one long name does
+     */
+    CmdLineArgument getArgumentByPrefix(String prefix){
+        if(!prefix.startsWith("--") || prefix.length() <= 2){
+            return null;
+        }
+
+        String[] names = getSortedLongNames();
+        int from = Arrays.binarySearch(names, prefix);
+        from = from < 0 ? -from - 1 : from;
+
+        int to = from;
+        while(to < names.length && names[to].startsWith(prefix)){
+            to++;
+        }
+
+        if(to - from > 1){
+            List<String> candidates = Arrays.asList(names).subList(from,
+                    Math.min(to, from + CmdLineFuzzyIndex.MAX_SUGGESTIONS));
+            throw new IllegalArgumentException("Argument " + prefix + " is ambiguous, it can be " +
+                    String.join(", ", candidates) + (to - from > candidates.size() ? ", ..." : ""));
+        }
+
+        return to > from ? getArgument(names[from]) : null;
+    }
+
+    private String[] getSortedLongNames(){
+        if(frozen){
+            return sortedLongNames;
+        }
+
+        synchronized(this){
+            String[] names = sortedLongNames;
+            if(names == null){
+                CmdLineArgument[] arguments = getArguments();
+                names = new String[arguments.length];
+                for(int i = 0; i < names.length; i++){
+                    names[i] = arguments[i].getLongName();
+                }
+                Arrays.sort(names);
+                sortedLongNames = names;
+            }
+
+            return names;
+        }
+    }
+
+    /**
+     * Suggest argument names for an unknown one, by a fuzzy index of names
+     * of all layers built once, or long names the unknown one is a prefix of
+     *
+     * @param name unknown argument name
+     * @return e.g. ", did you mean --verbose?", or "" if no suggestion
+     */
+    String didYouMean(String name){
+        List<String> suggestions = getNameIndex().suggest(name);
+        if(suggestions.isEmpty() && name.startsWith("--") && name.length() > 2){
+            String[] names = getSortedLongNames();
+            int from = Arrays.binarySearch(names, name);
+            from = from < 0 ? -from - 1 : from;
+
+            suggestions = new ArrayList<>();
+            for(int i = from; i < names.length && names[i].startsWith(name) &&
+                suggestions.size() < CmdLineFuzzyIndex.MAX_SUGGESTIONS; i++)
+            {
+                suggestions.add(names[i]);
+            }
+        }
+
+        return CmdLineFuzzyIndex.didYouMean(suggestions);
+    }
+
+    private CmdLineFuzzyIndex getNameIndex(){
+        // built at most once per thread racing, without lock
+        CmdLineFuzzyIndex index = nameIndex;
+        if(index == null){
+            List<String> names = new ArrayList<>();
+            for(CmdLineArgument arg : getArguments()){
+                names.add(arg.getShortName());
+                names.add(arg.getLongName());
+            }
+            index = new CmdLineFuzzyIndex(names);
+            nameIndex = index;
+        }
+
+        return index;
+    }
+
+    /**
+     * Get the number of arguments of all layers
+     *
+     * @return number of arguments
+     */
+    public int size(){
+        return (parent == null ? 0 : parent.size()) + shortNameMap.size();
+    }
+
+    /**
+     * Get arguments of all layers, indexed by argument ordinal
+     *
+     * @return arguments in define order
+     */
+    CmdLineArgument[] getArguments(){
+        if(frozen){
+            return allArguments;
+        }
+
+        synchronized(this){
+            CmdLineArgument[] arguments = allArguments;
+            if(arguments == null){
+                List<CmdLineArgument> list = new ArrayList<>(size());
+                if(parent != null){
+                    Collections.addAll(list, parent.getArguments());
+                }
+                list.addAll(shortNameMap.values());
+
+                arguments = list.toArray(new CmdLineArgument[list.size()]);
+                allArguments = arguments;
+            }
+
+            return arguments;
+        }
+    }
+
+    /**
+     * Get rules and validators of all layers, ordered by cost and then by
+     * add order
+     *
+     * @return validators in validation order
+     */
+    CmdLineArgumentValidator[] getValidators(){
+        if(frozen){
+            return allValidators;
+        }
+
+        synchronized(this){
+            return computeValidators();
+        }
+    }
+
+    private CmdLineArgumentValidator[] computeValidators(){
+        CmdLineArgumentValidator[] result = allValidators;
+        if(result == null){
+            List<CmdLineArgumentValidator> list = new ArrayList<>();
+            if(parent != null){
+                Collections.addAll(list, parent.getValidators());
+            }
+            list.addAll(validators);
+
+            // stable sort, keep add order of validators with same cost
+            Collections.sort(list, new Comparator<CmdLineArgumentValidator>(){
+                @Override
+                public int compare(CmdLineArgumentValidator v1, CmdLineArgumentValidator v2){
+                    return v1.getCost().compareTo(v2.getCost());
+                }
+            });
+
+            result = list.toArray(new CmdLineArgumentValidator[list.size()]);
+            allValidators = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get indexes of validators (in validation order) reading each argument,
+     * by the argument names of validators
+     *
+     * @return validator indexes by argument ordinal, the last element is
+     *         validators which read no declared argument
+     */
+    int[][] getValidatorIndex(){
+        if(frozen){
+            return validatorIndex;
+        }
+
+        synchronized(this){
+            return computeValidatorIndex();
+        }
+    }
+
+    private int[][] computeValidatorIndex(){
+        int[][] index = validatorIndex;
+        if(index == null){
+            CmdLineArgumentValidator[] all = getValidators();
+            List<List<Integer>> lists = new ArrayList<>();
+            for(int i = 0; i <= size(); i++){
+                lists.add(new ArrayList<Integer>());
+            }
+
+            for(int i = 0; i < all.length; i++){
+                String[] names = all[i].getArguments();
+                if(names.length == 0){
+                    lists.get(size()).add(i);
+                }
+
+                for(String name : names){
+                    List<Integer> list = lists.get(getArgument(name).getOrdinal());
+                    if(list.isEmpty() || list.get(list.size() - 1) != i){
+                        list.add(i);
+                    }
+                }
+            }
+
+            index = new int[lists.size()][];
+            for(int i = 0; i < index.length; i++){
+                index[i] = new int[lists.get(i).size()];
+                for(int j = 0; j < index[i].length; j++){
+                    index[i][j] = lists.get(i).get(j);
+                }
+            }
+
+            validatorIndex = index;
+        }
+
+        return index;
+    }
+
+    /**
+     * Get the fingerprint of arguments and rules of all layers
+     *
+     * @return fingerprint
+     * @see CmdLineResultCodec#fingerprint(CmdLineSchema)
+     */
+    long getFingerprint(){
+        if(frozen){
+            return fingerprint;
+        }
+
+        synchronized(this){
+            return computeFingerprint();
+        }
+    }
+
+    private long computeFingerprint(){
+        Long value = fingerprint;
+        if(value == null){
+            value = CmdLineResultCodec.computeFingerprint(this);
+            fingerprint = value;
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,163 @@
+package cmdline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Schema of a long running dispatcher, whose plugins register and unregister
+ * options at runtime while other threads are parsing:
+ *
+ *    CmdLineSchemaRegistry registry = new CmdLineSchemaRegistry(common);
+ *    registry.register("audit", schema -&gt; schema.defineArguments("--audit-level,true"));
+ *    ...
+ *    CmdLineParseResult result = registry.parse(args);
+ *
+ * Schemas published are frozen snapshots, never changed. A change builds a
+ * new snapshot from the base schema and the definers of all plugins, off the
+ * parse path, and publishes it by one reference swap. A parse reads the
+ * snapshot once, so it never blocks on changes nor sees a half updated
+ * schema. Each snapshot has a version, recorded by the parse results.
+ *
+ * The parser of a snapshot is built and frozen once when it is published,
+ * and shared by the parse contexts of all threads, which read it without
+ * locking.
+ *
+ * A change which fails, e.g. an argument defined by two plugins, publishes
+ * nothing, the current snapshot is kept.
+ *
+ * Command lines are parsed by parse contexts, as they come from other
+ * parties: -h/--help is a plain no value argument, which doesn't print help
+ * nor exit the dispatcher. Subcommands added by plugins are selected as
+ * those of the base schema.
+ *
+ * @author Wayne Zhang
+ */
+public final class CmdLineSchemaRegistry {
+    private final CmdLineSchema base;
+    // plugin definers by plugin name, in register order, guarded by this
+    private final Map<String, Consumer<CmdLineSchema>> plugins = new LinkedHashMap<>();
+    // parser of the snapshot published last, its schema extends the snapshot
+    private volatile CmdLineArgumentParser current;
+
+    // parse contexts of each thread, recreated when a new snapshot is published
+    private final ThreadLocal<CmdLineParseContext> contexts = new ThreadLocal<>();
+
+    /**
+     * Create a registry with a root schema, which supports -h/--help
+     */
+    public CmdLineSchemaRegistry(){
+        this(new CmdLineSchema());
+    }
+
+    /**
+     * Create a registry of a base schema, e.g. options common to all
+     * plugins. The base schema is frozen then.
+     *
+     * @param base base schema
+     */
+    public CmdLineSchemaRegistry(CmdLineSchema base){
+        this.base = base.freeze();
+        this.current = build(plugins, 1);
+    }
+
+    /**
+     * Register options of a plugin, which replace options registered by it
+     * before. The definer is called for each snapshot built after.
+     *
+     * @param plugin plugin name
+     * @param definer definer of plugin options
+     * @throws IllegalArgumentException if a definition is invalid
+     * @throws RuntimeException if an argument is defined already
+     */
+    public synchronized void register(String plugin, Consumer<CmdLineSchema> definer){
+        Map<String, Consumer<CmdLineSchema>> newPlugins = new LinkedHashMap<>(plugins);
+        newPlugins.put(plugin, definer);
+
+        publish(newPlugins);
+    }
+
+    /**
+     * Unregister options of a plugin
+     *
+     * @param plugin plugin name
+     * @return true if the plugin was registered
+     */
+    public synchronized boolean unregister(String plugin){
+        if(!plugins.containsKey(plugin)){
+            return false;
+        }
+
+        Map<String, Consumer<CmdLineSchema>> newPlugins = new LinkedHashMap<>(plugins);
+        newPlugins.remove(plugin);
+        publish(newPlugins);
+
+        return true;
+    }
+
+    private void publish(Map<String, Consumer<CmdLineSchema>> newPlugins){
+        CmdLineArgumentParser snapshot = build(newPlugins, getVersion() + 1);
+
+        plugins.clear();
+        plugins.putAll(newPlugins);
+        current = snapshot;
+    }
+
+    private CmdLineArgumentParser build(Map<String, Consumer<CmdLineSchema>> definers, long version){
+        CmdLineSchema snapshot = new CmdLineSchema(base, version);
+        for(Consumer<CmdLineSchema> definer : definers.values()){
+            definer.accept(snapshot);
+        }
+
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(snapshot);
+        parser.getSchema().freeze();
+
+        return parser;
+    }
+
+    /**
+     * Get the schema published last
+     *
+     * @return frozen schema
+     */
+    public CmdLineSchema getSchema(){
+        return current.getSchema().getParent();
+    }
+
+    public long getVersion(){
+        return current.getSchema().getVersion();
+    }
+
+    /**
+     * Parse a command line by the schema published last. It can be called
+     * by many threads, each of which reuses its own parse context until a
+     * new schema is published. Help is never printed.
+     *
+     * @param args command line arguments
+     * @return parse result, which records the schema version
+     * @throws IllegalArgumentException if validation failed
+     */
+    public CmdLineParseResult parse(String... args){
+        CmdLineArgumentParser parser = current;
+
+        CmdLineParseContext context = contexts.get();
+        if(context == null || context.getParser() != parser){
+            context = parser.newParseContext();
+            contexts.set(context);
+        }
+
+        try{
+            context.parse(args);
+
+            return context.getParseResult();
+        }finally{
+            // tokens are not kept by the thread
+            context.clear();
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "version " + getVersion() + ", plugins " + plugins.keySet();
+    }
+}
@@ -0,0 +1,334 @@
+package cmdline;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds immutable config objects, records or interface implementations,
+ * from parse results. The binding plan is built once per type and cached,
+ * argument ordinals of the properties are resolved once per schema, by the
+ * schema fingerprint, so a bind only converts values.
+ *
+ * Records are accessed by reflection, so the project still runs on Java 8
+ * where there are no records.
+ *
+ * Interfaces are implemented by a proxy, a call finds the index of the
+ * method, by identity of the proxy's method after the first call, and
+ * returns the value converted once. Default methods aren't config values,
+ * they run their own implementation by a special method handle, e.g. a
+ * derived value of other methods.
+ *
+ * @author Wayne Zhang
+ */
+final class CmdLineTypeBinder {
+    private static final ClassValue<CmdLineTypeBinder> CACHE =
+        new ClassValue<CmdLineTypeBinder>(){
+            @Override
+            protected CmdLineTypeBinder computeValue(Class<?> type){
+                return new CmdLineTypeBinder(type);
+            }
+        };
+
+    // Class.isRecord() and Class.getRecordComponents(), null before Java 16
+    private static final Method IS_RECORD;
+    private static final Method GET_RECORD_COMPONENTS;
+    static{
+        Method isRecord = null, getRecordComponents = null;
+        try{
+            isRecord = Class.class.getMethod("isRecord");
+            getRecordComponents = Class.class.getMethod("getRecordComponents");
+        }catch(NoSuchMethodException e){
+            // no record before Java 16
+        }
+
+        IS_RECORD = isRecord;
+        GET_RECORD_COMPONENTS = getRecordComponents;
+    }
+
+    // MethodHandles.privateLookupIn(), null before Java 9
+    private static final Method PRIVATE_LOOKUP_IN;
+    static{
+        Method privateLookupIn = null;
+        try{
+            privateLookupIn = MethodHandles.class.getMethod("privateLookupIn",
+                    Class.class, MethodHandles.Lookup.class);
+        }catch(NoSuchMethodException e){
+            // Java 8, lookup is created by its private constructor
+        }
+
+        PRIVATE_LOOKUP_IN = privateLookupIn;
+    }
+
+    private final Class<?> type;
+    // property names, e.g. port of port() or verbose of isVerbose()
+    private final String[] names;
+    // alternative names without get/is prefix, null if none
+    private final String[] alternativeNames;
+    private final Class<?>[] types;
+    // canonical constructor of record, (Object[])Object; null for interface
+    private final MethodHandle constructor;
+    // interface config methods by property index, null for record
+    private final Method[] methods;
+    // the proxy's instances of methods by property index, set by first calls
+    private final Method[] proxyMethods;
+    // argument ordinals by property index, per schema fingerprint
+    private final ConcurrentMap<Long, int[]> ordinals = new ConcurrentHashMap<>();
+    // special method handles of interface default methods, (proxy, args...)
+    private final Map<Method, MethodHandle> defaultMethods = new HashMap<>();
+
+    static CmdLineTypeBinder of(Class<?> type){
+        return CACHE.get(type);
+    }
+
+    private CmdLineTypeBinder(Class<?> type){
+        this.type = type;
+
+        List<String> nameList = new ArrayList<>();
+        List<Class<?>> typeList = new ArrayList<>();
+        List<Method> methodList = new ArrayList<>();
+        if(type.isInterface()){
+            for(Method m : type.getMethods()){
+                if(Modifier.isStatic(m.getModifiers())){
+                    continue;
+                }
+
+                if(m.isDefault()){
+                    defaultMethods.put(m, findSpecial(m));
+                    continue;
+                }
+
+                if(m.getParameterTypes().length > 0 ||
+                   !ReflectionHelper.isConvertible(m.getReturnType()))
+                {
+                    throw new IllegalArgumentException("Config method not supported: " + m);
+                }
+
+                methodList.add(m);
+                nameList.add(m.getName());
+                typeList.add(m.getReturnType());
+            }
+
+            constructor = null;
+        } else if(isRecord(type)){
+            try{
+                for(Object component : (Object[])GET_RECORD_COMPONENTS.invoke(type)){
+                    Method getName = component.getClass().getMethod("getName");
+                    Method getType = component.getClass().getMethod("getType");
+                    nameList.add((String)getName.invoke(component));
+                    typeList.add((Class<?>)getType.invoke(component));
+                }
+
+                Constructor<?> c = type.getDeclaredConstructor(
+                        typeList.toArray(new Class<?>[typeList.size()]));
+                c.setAccessible(true);
+                constructor = MethodHandles.lookup().unreflectConstructor(c)
+                        .asSpreader(Object[].class, typeList.size());
+            }catch(ReflectiveOperationException | RuntimeException e){
+                throw new IllegalArgumentException("Record not accessible: " + type.getName(), e);
+            }
+
+            for(Class<?> t : typeList){
+                if(!ReflectionHelper.isConvertible(t)){
+                    throw new IllegalArgumentException("Record component type not supported: " +
+                            t.getName() + " of " + type.getName());
+                }
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    "Config type must be a record or an interface: " + type.getName());
+        }
+
+        methods = type.isInterface() ? methodList.toArray(new Method[methodList.size()]) : null;
+        proxyMethods = type.isInterface() ? new Method[methods.length] : null;
+        names = nameList.toArray(new String[nameList.size()]);
+        types = typeList.toArray(new Class<?>[typeList.size()]);
+        alternativeNames = new String[names.length];
+        for(int i = 0; i < names.length; i++){
+            alternativeNames[i] = stripPrefix(names[i]);
+        }
+    }
+
+    /**
+     * Find the implementation of a default method, invoked on a proxy as
+     * invokespecial of the interface declaring it
+     *
+     * @return method handle of (proxy, args...)
+     */
+    private static MethodHandle findSpecial(Method m){
+        Class<?> type = m.getDeclaringClass();
+        try{
+            MethodHandles.Lookup lookup;
+            if(PRIVATE_LOOKUP_IN != null){
+                lookup = (MethodHandles.Lookup)PRIVATE_LOOKUP_IN.invoke(null, type, MethodHandles.lookup());
+            } else {
+                Constructor<MethodHandles.Lookup> c =
+                        MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
+                c.setAccessible(true);
+                lookup = c.newInstance(type, MethodHandles.Lookup.PRIVATE);
+            }
+
+            return lookup.unreflectSpecial(m, type);
+        }catch(ReflectiveOperationException | RuntimeException e){
+            throw new IllegalArgumentException("Default method not accessible: " + m, e);
+        }
+    }
+
+    private static boolean isRecord(Class<?> type){
+        try{
+            return IS_RECORD != null && (Boolean)IS_RECORD.invoke(type);
+        }catch(ReflectiveOperationException e){
+            return false;
+        }
+    }
+
+    /**
+     * Strip get/is prefix, e.g. isVerbose to verbose
+     */
+    private static String stripPrefix(String name){
+        for(String prefix : new String[]{"get", "is"}){
+            if(name.length() > prefix.length() &&
+               name.startsWith(prefix) &&
+               Character.isUpperCase(name.charAt(prefix.length())))
+            {
+                return Character.toLowerCase(name.charAt(prefix.length())) +
+                       name.substring(prefix.length() + 1);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get argument ordinals of properties in a schema, resolved once per
+     * schema fingerprint
+     */
+    private int[] getOrdinals(CmdLineSchema schema){
+        Long fingerprint = schema.getFingerprint();
+        int[] resolved = ordinals.get(fingerprint);
+        if(resolved != null){
+            return resolved;
+        }
+
+        resolved = new int[names.length];
+        for(int i = 0; i < names.length; i++){
+            CmdLineArgument arg = schema.getArgument("--" + names[i]);
+            if(arg == null && alternativeNames[i] != null){
+                arg = schema.getArgument("--" + alternativeNames[i]);
+            }
+
+            if(arg == null){
+                throw new RuntimeException("Argument '--" + names[i] + "' not defined for " +
+                        type.getName());
+            }
+            resolved[i] = arg.getOrdinal();
+        }
+        ordinals.putIfAbsent(fingerprint, resolved);
+
+        return resolved;
+    }
+
+    /**
+     * Find the property index of an interface method called on a proxy
+     *
+     * @return index or -1 if not a config method
+     */
+    private int indexOf(Method method){
+        for(int i = 0; i < proxyMethods.length; i++){
+            if(proxyMethods[i] == method){
+                return i;
+            }
+        }
+
+        for(int i = 0; i < methods.length; i++){
+            if(methods[i].equals(method)){
+                // the proxy class passes the same instance on later calls
+                proxyMethods[i] = method;
+
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T bind(CmdLineParseResult result){
+        int[] argumentOrdinals = getOrdinals(result.getSchema());
+        final Object[] converted = new Object[names.length];
+        for(int i = 0; i < names.length; i++){
+            String value = result.getValue(argumentOrdinals[i]);
+            converted[i] = value == null ?
+                    defaultValue(types[i]) : ReflectionHelper.convert(value, types[i]);
+        }
+
+        if(constructor != null){
+            try{
+                return (T)constructor.invoke(converted);
+            }catch(RuntimeException | Error e){
+                throw e;
+            }catch(Throwable e){
+                throw new RuntimeException("Create " + type.getName() + " failed", e);
+            }
+        }
+
+        return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+            new InvocationHandler(){
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+                    int index = indexOf(method);
+                    if(index >= 0){
+                        return converted[index];
+                    }
+
+                    MethodHandle handle = defaultMethods.get(method);
+                    if(handle != null){
+                        Object[] arguments = new Object[args == null ? 1 : args.length + 1];
+                        arguments[0] = proxy;
+                        if(args != null){
+                            System.arraycopy(args, 0, arguments, 1, args.length);
+                        }
+
+                        return handle.invokeWithArguments(arguments);
+                    }
+
+                    // methods of Object
+                    switch(method.getName()){
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return type.getSimpleName() + Arrays.toString(converted);
+                    }
+                }
+            }
+        );
+    }
+
+    private static Object defaultValue(Class<?> type){
+        if(!type.isPrimitive()){
+            return null;
+        }
+
+        if(type == boolean.class){
+            return false;
+        } else if(type == char.class){
+            return '\0';
+        }
+
+        // zero of any numeric type
+        return ReflectionHelper.convert("0", type);
+    }
+}
@@ -0,0 +1,130 @@
+package cmdline;
+
+import java.util.regex.Pattern;
+
+/**
+ * Built-in argument validators
+ * 
+ * @author Wayne Zhang
+ */
+public final class CmdLineValidators {
+    private CmdLineValidators(){
+    }
+    
+    /**
+     * Argument value must match a regular expression, e.g. host:port
+     * 
+     *    matches("--server", "[\\w.-]+:\\d{1,5}")
+     * 
+     * @param argument argument name, short or long
+     * @param regex regular expression, compiled once
+     * @return validator built
+     */
+    public static CmdLineArgumentValidator matches(String argument, String regex){
+        return new PatternValidator(argument, Pattern.compile(regex));
+    }
+    
+    /**
+     * Argument value must be a number between min and max (inclusive)
+     * 
+     * @param argument argument name, short or long
+     * @param min minimum value
+     * @param max maximum value
+     * @return validator built
+     */
+    public static CmdLineArgumentValidator inRange(String argument, double min, double max){
+        if(min > max){
+            throw new IllegalArgumentException("Range error: " + min + " > " + max);
+        }
+        
+        return new RangeValidator(argument, min, max);
+    }
+    
+    /**
+     * Validator which validates one argument value when it is supplied
+     */
+    private static abstract class ValueValidator implements CmdLineArgumentValidator {
+        final String argument;
+        
+        ValueValidator(String argument){
+            this.argument = argument;
+        }
+        
+        @Override
+        public String[] getArguments(){
+            return new String[]{argument};
+        }
+        
+        @Override
+        public Cost getCost(){
+            return Cost.CHEAP;
+        }
+        
+        @Override
+        public void validate(CmdLineValues values){
+            String value = values.getArgumentValue(argument);
+            
+            // don't validate when argument is not supplied!
+            if(value != null && !isValid(value)){
+                throw new IllegalArgumentException("Argument " + argument + 
+                        " " + this + " but " + CmdLineParseLimits.of(values).abbreviate(value));
+            }
+        }
+        
+        abstract boolean isValid(String value);
+        
+        @Override
+        public String getFingerprint(){
+            // parameters are in the descriptions
+            return toString();
+        }
+    }
+    
+    private static final class PatternValidator extends ValueValidator {
+        private final Pattern pattern;
+        
+        PatternValidator(String argument, Pattern pattern){
+            super(argument);
+            
+            this.pattern = pattern;
+        }
+        
+        @Override
+        boolean isValid(String value){
+            return pattern.matcher(value).matches();
+        }
+        
+        @Override
+        public String toString(){
+            return "matches " + pattern.pattern();
+        }
+    }
+    
+    private static final class RangeValidator extends ValueValidator {
+        private final double min;
+        private final double max;
+        
+        RangeValidator(String argument, double min, double max){
+            super(argument);
+            
+            this.min = min;
+            this.max = max;
+        }
+        
+        @Override
+        boolean isValid(String value){
+            try{
+                double v = Double.parseDouble(value);
+                
+                return v >= min && v <= max;
+            }catch(NumberFormatException e){
+                return false;
+            }
+        }
+        
+        @Override
+        public String toString(){
+            return "in range [" + min + "," + max + "]";
+        }
+    }
+}
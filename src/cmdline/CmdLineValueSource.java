@@ -0,0 +1,33 @@
+package cmdline;
+
+/**
+ * Source of argument values other than the command line, e.g. environment
+ * variables or a properties file. Arguments not supplied in the command line
+ * are resolved from value sources in order, and then from defaults.
+ * 
+ * @author Wayne Zhang
+ * @see CmdLineValueSources
+ * @see CmdLineArgumentParser#addValueSources(CmdLineValueSource...)
+ */
+public interface CmdLineValueSource {
+    /**
+     * Get the value of an argument
+     * 
+     * @param longName argument long name, e.g. --action
+     * @return argument value, or null if not set by this source. For a no
+     *         value argument, Y/YES/TRUE/1/T means it is supplied and 
+     *         N/NO/FALSE/0/F means not.
+     */
+    String getValue(String longName);
+    
+    /**
+     * Get the values of this source for one parse, called once before 
+     * arguments are resolved. A source which may change, e.g. a file, 
+     * returns its current values.
+     * 
+     * @return values of this source
+     */
+    default CmdLineValueSource snapshot(){
+        return this;
+    }
+}
@@ -0,0 +1,219 @@
+package cmdline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Built-in argument value sources
+ * 
+ * @author Wayne Zhang
+ */
+public final class CmdLineValueSources {
+    // properties files read, indexed by absolute path
+    private static final Map<Path, PropertiesFile> FILES = new ConcurrentHashMap<>();
+    
+    private CmdLineValueSources(){
+    }
+    
+    /**
+     * Environment variables named after argument long names, e.g. ACTION for
+     * --action, INPUT_FILE for --inputFile and DB_USER for --db.user
+     * 
+     * @return value source
+     */
+    public static CmdLineValueSource environment(){
+        return environment(System.getenv(), "");
+    }
+    
+    /**
+     * Environment variables named after argument long names with a prefix, 
+     * e.g. TOOL_ACTION for --action if the prefix is TOOL_
+     * 
+     * @param prefix variable name prefix
+     * @return value source
+     */
+    public static CmdLineValueSource environment(String prefix){
+        return environment(System.getenv(), prefix);
+    }
+    
+    /**
+     * Variables named after argument long names, e.g. a container environment
+     * 
+     * @param variables variables by name
+     * @param prefix variable name prefix
+     * @return value source
+     */
+    public static CmdLineValueSource environment(final Map<String, String> variables, 
+            final String prefix)
+    {
+        final Map<String, String> names = new ConcurrentHashMap<>();
+        
+        return new CmdLineValueSource(){
+            @Override
+            public String getValue(String longName){
+                String name = names.get(longName);
+                if(name == null){
+                    name = prefix + toVariableName(longName);
+                    names.put(longName, name);
+                }
+                
+                return variables.get(name);
+            }
+            
+            @Override
+            public String toString(){
+                return "environment " + prefix;
+            }
+        };
+    }
+    
+    /**
+     * Variable name of argument long name, e.g. INPUT_FILE of --inputFile
+     */
+    static String toVariableName(String longName){
+        StringBuilder buf = new StringBuilder();
+        for(int i = 2; i < longName.length(); i++){
+            char c = longName.charAt(i);
+            if(c == '.' || c == '-'){
+                buf.append('_');
+            }else{
+                if(Character.isUpperCase(c) && i > 2 && 
+                   Character.isLowerCase(longName.charAt(i - 1)))
+                {
+                    buf.append('_');
+                }
+                buf.append(Character.toUpperCase(c));
+            }
+        }
+        
+        return buf.toString();
+    }
+    
+    /**
+     * Values of a map, keys are long names without leading --, e.g. action
+     * 
+     * @param values values by key
+     * @return value source
+     */
+    public static CmdLineValueSource map(Map<String, String> values){
+        return new MapSource(new HashMap<>(values), "map");
+    }
+    
+    /**
+     * Values of a properties file, keys are long names without leading --, 
+     * e.g. action=ADD. The file is read once and read again only if it is 
+     * modified. A file which doesn't exist has no values.
+     * 
+     * @param file properties file
+     * @return value source
+     */
+    public static CmdLineValueSource properties(final Path file){
+        final Path path = file.toAbsolutePath().normalize();
+        
+        return new CmdLineValueSource(){
+            @Override
+            public String getValue(String longName){
+                return snapshot().getValue(longName);
+            }
+            
+            @Override
+            public CmdLineValueSource snapshot(){
+                return read(path);
+            }
+            
+            @Override
+            public String toString(){
+                return "properties " + path;
+            }
+        };
+    }
+    
+    /**
+     * Get values of a properties file, from cache if the file isn't modified
+     */
+    static MapSource read(Path path){
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }catch(NoSuchFileException e){
+            FILES.remove(path);
+            
+            return new MapSource(Collections.<String, String>emptyMap(), path.toString());
+        }catch(IOException e){
+            throw new UncheckedIOException("Read " + path + " failed", e);
+        }
+        
+        long modified = attributes.lastModifiedTime().toMillis();
+        PropertiesFile cached = FILES.get(path);
+        if(cached != null && cached.modified == modified && cached.size == attributes.size()){
+            return cached.values;
+        }
+        
+        Properties properties = new Properties();
+        try(InputStream in = Files.newInputStream(path)){
+            properties.load(in);
+        }catch(IOException e){
+            throw new UncheckedIOException("Read " + path + " failed", e);
+        }
+        
+        Map<String, String> values = new HashMap<>();
+        for(String key : properties.stringPropertyNames()){
+            values.put(key, properties.getProperty(key).trim());
+        }
+        
+        PropertiesFile file = new PropertiesFile(modified, attributes.size(), 
+                new MapSource(values, path.toString()));
+        FILES.put(path, file);
+        
+        return file.values;
+    }
+    
+    private static final class PropertiesFile {
+        final long modified;
+        final long size;
+        final MapSource values;
+        
+        PropertiesFile(long modified, long size, MapSource values){
+            this.modified = modified;
+            this.size = size;
+            this.values = values;
+        }
+    }
+    
+    /**
+     * Values by long name without leading --
+     */
+    static final class MapSource implements CmdLineValueSource {
+        private final Map<String, String> values;
+        private final String name;
+        
+        MapSource(Map<String, String> values, String name){
+            this.values = values;
+            this.name = name;
+        }
+        
+        @Override
+        public String getValue(String longName){
+            return values.get(longName.substring(2));
+        }
+        
+        Map<String, String> getValues(){
+            return Collections.unmodifiableMap(values);
+        }
+        
+        @Override
+        public String toString(){
+            return name;
+        }
+    }
+}
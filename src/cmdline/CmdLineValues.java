@@ -0,0 +1,57 @@
+package cmdline;
+
+/**
+ * Read access to command line argument values, which rules and validators
+ * evaluate against.
+ * 
+ * @author Wayne Zhang
+ */
+public interface CmdLineValues {
+    /**
+     * Get the value of argument supplied in the command line
+     * 
+     * @param name argument short name or long name, e.g -a  or --argument
+     * @return argument value, an empty string if it is a no value argument
+     *         or null if not supplied
+     */
+    String getArgumentValue(String name);
+    
+    /**
+     * Check if an argument is supplied
+     * 
+     * @param name argument short name or long name
+     * @return true if supplied
+     */
+    boolean isArgumentSupplied(String name);
+    
+    /**
+     * Get the value of argument as an enum constant, e.g. 
+     * 
+     *    Action action = values.getEnumValue("-a", Action.class);
+     * 
+     * The constant of an argument backed by the enum class is returned as it
+     * is, other values are matched ignoring case if the constant names 
+     * don't differ only by case.
+     * 
+     * @param <E> enum type
+     * @param name argument short name or long name
+     * @param type enum class
+     * @return enum constant or null if not supplied
+     * @throws IllegalArgumentException if the value is not a constant name
+     */
+    default <E extends Enum<E>> E getEnumValue(String name, Class<E> type){
+        String value = getArgumentValue(name);
+        if(value == null){
+            return null;
+        }
+        
+        Enum<?> constant = CmdLineEnumIndex.of(type).lookup(value, true);
+        if(constant == null){
+            throw new IllegalArgumentException("Argument " + name + " value (" + 
+                    CmdLineParseLimits.of(this).abbreviate(value) + 
+                    ") is not a constant of " + type.getName());
+        }
+        
+        return type.cast(constant);
+    }
+}
@@ -0,0 +1,45 @@
+package cmdline;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Define a command line argument by a field of config class, e.g.
+ * 
+ *    &#64;Option(shortName = "-a", values = {"create", "update"}, mandatory = true)
+ *    private String action;
+ * 
+ *    &#64;Option(shortName = "-v")
+ *    private boolean verbose;
+ * 
+ * Long name is the field name prefixed by -- if not supplied. Arguments of
+ * boolean fields have no value. String, primitive, boxed primitive and enum
+ * fields are supported. Values of an enum field are its constants, which can
+ * be matched ignoring case, e.g.
+ * 
+ *    &#64;Option(shortName = "-a", ignoreCase = true)
+ *    private Action action;
+ * 
+ * @author Wayne Zhang
+ * @see CmdLineArgumentParser#forClass(Class)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Option {
+    String shortName();
+    
+    String longName() default "";
+    
+    // value enumeration, constants of an enum field if empty
+    String[] values() default {};
+    
+    // match constants of an enum field ignoring case
+    boolean ignoreCase() default false;
+    
+    boolean mandatory() default false;
+    
+    // help group, not grouped if empty
+    String group() default "";
+}
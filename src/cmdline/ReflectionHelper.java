@@ -5,8 +5,14 @@
  */
 package cmdline;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Reflection helper class
@@ -17,12 +23,34 @@ public class ReflectionHelper {
     /**
      * Apply a value to the field of an object by reflection.
      * It tries setter first and falls back to field access if method is not defined.
+     * A dotted field name, e.g. db.host, is applied to the nested object.
      * 
      * @param app object 
      * @param fieldName field name
      * @param value field value
      */
     public static void applyValue(Object app, String fieldName, String value){
+        prepareValue(app, fieldName, value).run();
+    }
+    
+    /**
+     * Prepare to apply a value like applyValue(_): the setter or field is 
+     * resolved and the value converted to the field type now, the action 
+     * returned only writes it. Values of several fields are all converted 
+     * before any of them is written this way.
+     * 
+     * @param app object 
+     * @param fieldName field name
+     * @param value field value
+     * @return action which writes the value
+     * @throws IllegalArgumentException if the value can't be converted
+     */
+    static Runnable prepareValue(Object app, String fieldName, String value){
+        if(fieldName.indexOf('.') > 0){
+            // nested field, e.g. db.host
+            return prepareNestedValue(app, fieldName, value, value.isEmpty());
+        }
+        
         Class<?> clazz = app.getClass();
         String methodName = "set" + 
                  Character.toUpperCase(fieldName.charAt(0)) + 
@@ -36,65 +64,463 @@ public class ReflectionHelper {
             }
             
             if(method != null){
+                return invoke(app, method, true);
+            }
+            
+            // Assign value by direct field access if no setter
+            String booleanFieldName = "is" + 
+                Character.toUpperCase(fieldName.charAt(0)) + 
+                fieldName.substring(1);                
+            Field field = getField(clazz, booleanFieldName);
+            if(field == null){
+                field = getField(clazz, fieldName);
+            }
+            
+            if(field == null){
+                throw notDefined(clazz, fieldName);
+            }
+            
+            return set(app, field, true);
+        }
+        
+        // assign value by setter, of String or of a type it is converted to
+        Method method = getMethod(clazz, methodName, String.class);
+        if(method != null){
+            return invoke(app, method, value);
+        }
+        method = getTypedSetter(clazz, methodName);
+        if(method != null){
+            return invoke(app, method, convert(value, method.getParameterTypes()[0]));
+        }
+        
+        // assign value by direct field access if no setter
+        Field field = getField(clazz, fieldName);
+        if(field == null){
+            throw notDefined(clazz, fieldName);
+        }
+        
+        Class<?> type = field.getType();
+        return set(app, field, type.isAssignableFrom(String.class) ? value : convert(value, type));
+    }
+    
+    /**
+     * Clear the field of an object by reflection, e.g. of an argument which
+     * is not supplied any more. A flag is set to false, other fields are set
+     * to null, or zero of primitive types. It tries setter first like 
+     * applyValue(_).
+     * 
+     * @param app object
+     * @param fieldName field name
+     * @param isFlag is the field of a no value argument?
+     */
+    public static void clearValue(Object app, String fieldName, boolean isFlag){
+        prepareClear(app, fieldName, isFlag).run();
+    }
+    
+    /**
+     * Prepare to clear a field like clearValue(_), the action returned only 
+     * writes the field.
+     * 
+     * @param app object
+     * @param fieldName field name
+     * @param isFlag is the field of a no value argument?
+     * @return action which clears the field
+     */
+    static Runnable prepareClear(Object app, String fieldName, boolean isFlag){
+        if(fieldName.indexOf('.') > 0){
+            // nested field, converted to the zero value of its type
+            return prepareNestedValue(app, fieldName, null, isFlag);
+        }
+        
+        Class<?> clazz = app.getClass();
+        String methodName = "set" + 
+                 Character.toUpperCase(fieldName.charAt(0)) + 
+                 fieldName.substring(1);
+        
+        Method method;
+        Object value;
+        if(isFlag){
+            method = getMethod(clazz, methodName, boolean.class);
+            if(method == null){
+                method = getMethod(clazz, methodName, Boolean.class);
+            }
+            value = false;
+        }else{
+            method = getMethod(clazz, methodName, String.class);
+            if(method == null){
+                method = getTypedSetter(clazz, methodName);
+            }
+            value = method == null ? null : zeroValue(method.getParameterTypes()[0]);
+        }
+        
+        if(method != null){
+            return invoke(app, method, value);
+        }
+        
+        Field field = null;
+        if(isFlag){
+            field = getField(clazz, "is" + 
+                    Character.toUpperCase(fieldName.charAt(0)) + 
+                    fieldName.substring(1));
+        }
+        if(field == null){
+            field = getField(clazz, fieldName);
+        }
+        
+        if(field == null){
+            throw notDefined(clazz, fieldName);
+        }
+        
+        return set(app, field, zeroValue(field.getType()));
+    }
+    
+    /**
+     * Get a setter of a type values are converted to, e.g. setPort(int)
+     * 
+     * @return setter or null if not defined
+     */
+    private static Method getTypedSetter(Class<?> clazz, String methodName){
+        for(Method method : clazz.getDeclaredMethods()){
+            Class<?>[] params = method.getParameterTypes();
+            if(method.getName().equals(methodName) && params.length == 1 && 
+               params[0] != String.class && isConvertible(params[0]))
+            {
+                return method;
+            }
+        }
+        
+        return null;
+    }
+    
+    private static Runnable invoke(final Object app, final Method method, final Object value){
+        return new Runnable(){
+            @Override
+            public void run(){
                 try {
-                    method.invoke(app, true);
+                    method.invoke(app, value);
                 } catch (Exception e){
                     throw buildException(method.getName(), e);
                 }
-            } else {
-                // Assign value by direct field access if no setter
-                String booleanFieldName = "is" + 
-                    Character.toUpperCase(fieldName.charAt(0)) + 
-                    fieldName.substring(1);                
-                Field field = getField(clazz, booleanFieldName);
-                if(field == null){
-                    field = getField(clazz, fieldName);
-                }
-                
-                if(field == null){
-                    throw new RuntimeException("Field and method '" + 
-                            fieldName +
-                            "' not defined on class: " + 
-                            clazz.getName()
-                    );
-                }
-                
+            }
+        };
+    }
+    
+    private static Runnable set(final Object app, final Field field, final Object value){
+        return new Runnable(){
+            @Override
+            public void run(){
                 try {
                     field.setAccessible(true);
-                    field.set(app, true);
+                    field.set(app, value);
                 } catch (IllegalArgumentException | IllegalAccessException e) {
                     throw buildException(field.getName(), e);
                 }
             }
-        } else {
-            // assign value by setter
-            Method method = getMethod(clazz, methodName, String.class);
-            if(method != null){
-                try {
-                    method.invoke(app, value);
-                } catch (Exception e){
-                    throw buildException(method.getName(), e);
+        };
+    }
+    
+    private static RuntimeException notDefined(Class<?> clazz, String fieldName){
+        return new RuntimeException("Field and method '" + 
+                fieldName +
+                "' not defined on class: " + 
+                clazz.getName()
+        );
+    }
+    
+    /**
+     * Zero value of a type, the value of a field not initialized
+     * 
+     * @param type field type
+     * @return null, or zero or false of primitive types
+     */
+    static Object zeroValue(Class<?> type){
+        if(!type.isPrimitive()){
+            return null;
+        }else if(type == boolean.class){
+            return false;
+        }else if(type == char.class){
+            return '\u0000';
+        }
+        
+        return convert("0", type);
+    }
+    
+    /**
+     * Accessor chains of nested field paths, cached per class and path, of
+     * value arguments and of flags, whose last fields are resolved apart
+     */
+    private static final ClassValue<ConcurrentMap<String, PathSetter>> PATH_SETTERS =
+            newPathSetters();
+    private static final ClassValue<ConcurrentMap<String, PathSetter>> FLAG_PATH_SETTERS =
+            newPathSetters();
+    
+    private static ClassValue<ConcurrentMap<String, PathSetter>> newPathSetters(){
+        return new ClassValue<ConcurrentMap<String, PathSetter>>(){
+            @Override
+            protected ConcurrentMap<String, PathSetter> computeValue(Class<?> type){
+                return new ConcurrentHashMap<>();
+            }
+        };
+    }
+    
+    /**
+     * Setter of a nested field path, values are converted to valueType 
+     * before the setter is invoked
+     */
+    private static final class PathSetter {
+        // (Object root, Object value)void
+        final MethodHandle setter;
+        final Class<?> valueType;
+        
+        PathSetter(MethodHandle setter, Class<?> valueType){
+            this.setter = setter;
+            this.valueType = valueType;
+        }
+    }
+    
+    private static final MethodType SETTER_TYPE = MethodType.methodType(
+            void.class, Object.class, Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(
+            Object.class, Object.class);
+    private static final MethodHandle GET_OR_CREATE;
+    static{
+        try{
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            GET_OR_CREATE = lookup.findStatic(ReflectionHelper.class, "getOrCreate",
+                MethodType.methodType(Object.class, 
+                    MethodHandle.class, MethodHandle.class, MethodHandle.class, Object.class)
+            );
+        }catch(NoSuchMethodException | IllegalAccessException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    /**
+     * Prepare to apply a value to a nested field, e.g. db.host is applied to 
+     * app.db.host. The value is converted now, intermediate objects are 
+     * created by their no argument constructors if they are null when the 
+     * action returned is run. 
+     * 
+     * The accessor chain of a path is resolved once per class and cached as 
+     * a composed method handle.
+     * 
+     * @param app object
+     * @param path dotted field path
+     * @param value field value, null to clear it
+     * @param isFlag is the field of a no value argument?
+     * @return action which writes the value
+     */
+    private static Runnable prepareNestedValue(final Object app, final String path, 
+            String value, boolean isFlag)
+    {
+        ConcurrentMap<String, PathSetter> setters = 
+                (isFlag ? FLAG_PATH_SETTERS : PATH_SETTERS).get(app.getClass());
+        PathSetter pathSetter = setters.get(path);
+        if(pathSetter == null){
+            pathSetter = buildPathSetter(app.getClass(), path, isFlag);
+            setters.putIfAbsent(path, pathSetter);
+        }
+        
+        final MethodHandle setter = pathSetter.setter;
+        // a flag is set to true and cleared to false, like a top level flag
+        final Object converted = isFlag ? (Object)(value != null) : 
+                                          convert(value, pathSetter.valueType);
+        return new Runnable(){
+            @Override
+            public void run(){
+                try{
+                    setter.invokeExact(app, converted);
+                }catch(RuntimeException | Error e){
+                    throw e;
+                }catch(Throwable e){
+                    throw new RuntimeException("Set argument by apply " + path + " failed", e);
                 }
-            } else {
-                // assign value by direct field access if no setter
-                Field field = getField(clazz, fieldName);
+            }
+        };
+    }
+    
+    /**
+     * Build the setter of a path, a method handle (Object root, Object value)
+     * void which navigates to the owner of the last field of path and sets 
+     * the field.
+     */
+    private static PathSetter buildPathSetter(Class<?> clazz, String path, boolean isFlag){
+        String[] names = path.split("\\.");
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        
+        try{
+            // navigate to the owner of last field, (Object)Object
+            MethodHandle navigator = MethodHandles.identity(Object.class);
+            Class<?> owner = clazz;
+            for(int i = 0; i < names.length - 1; i++){
+                Field field = findField(owner, names[i], path);
+                field.setAccessible(true);
                 
-                if(field == null){
-                    throw new RuntimeException("Field and method '" + 
-                            fieldName +
-                            "' not defined on class: " + 
-                            clazz.getName()
-                    );
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                MethodHandle setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                MethodHandle constructor;
+                try{
+                    Constructor<?> c = field.getType().getDeclaredConstructor();
+                    c.setAccessible(true);
+                    constructor = lookup.unreflectConstructor(c)
+                            .asType(MethodType.methodType(Object.class));
+                }catch(NoSuchMethodException e){
+                    throw new RuntimeException("No default constructor of " + 
+                            field.getType().getName() + " for: " + path);
                 }
                 
-                try {
-                    field.setAccessible(true);
-                    field.set(app, value);
-                } catch (IllegalArgumentException | IllegalAccessException e) {
-                    throw buildException(field.getName(), e);
+                MethodHandle step = MethodHandles.insertArguments(
+                        GET_OR_CREATE, 0, getter, setter, constructor);
+                navigator = MethodHandles.filterReturnValue(navigator, step);
+                owner = field.getType();
+            }
+            
+            PathSetter leaf = buildLeafSetter(lookup, owner, names[names.length - 1], path, 
+                    isFlag);
+            
+            return new PathSetter(MethodHandles.filterArguments(leaf.setter, 0, navigator), 
+                    leaf.valueType);
+        }catch(IllegalAccessException | SecurityException e){
+            throw buildException(path, e);
+        }
+    }
+    
+    /**
+     * Build the setter of the last field of a path, a method handle 
+     * (Object owner, Object value)void which sets the value by setter or by 
+     * field. They are resolved like applyValue(_) resolves them: a flag by 
+     * setX(boolean), setX(Boolean), field isX or x, a value by setX(String), 
+     * a setter of a type it is converted to, e.g. setX(int), or field x.
+     */
+    private static PathSetter buildLeafSetter(MethodHandles.Lookup lookup, 
+            Class<?> owner, String fieldName, String path, boolean isFlag) 
+            throws IllegalAccessException
+    {
+        String methodName = "set" + 
+                 Character.toUpperCase(fieldName.charAt(0)) + 
+                 fieldName.substring(1);
+        
+        Method method;
+        if(isFlag){
+            method = getMethod(owner, methodName, boolean.class);
+            if(method == null){
+                method = getMethod(owner, methodName, Boolean.class);
+            }
+        }else{
+            method = getMethod(owner, methodName, String.class);
+            if(method == null){
+                method = getTypedSetter(owner, methodName);
+            }
+        }
+        
+        if(method != null){
+            method.setAccessible(true);
+            
+            return new PathSetter(lookup.unreflect(method).asType(SETTER_TYPE), 
+                    method.getParameterTypes()[0]);
+        }
+        
+        Field field = null;
+        if(isFlag){
+            field = getField(owner, "is" + 
+                    Character.toUpperCase(fieldName.charAt(0)) + 
+                    fieldName.substring(1));
+        }
+        if(field == null){
+            field = findField(owner, fieldName, path);
+        }
+        field.setAccessible(true);
+        
+        return new PathSetter(lookup.unreflectSetter(field).asType(SETTER_TYPE), 
+                field.getType());
+    }
+    
+    private static Field findField(Class<?> clazz, String fieldName, String path){
+        for(Class<?> c = clazz; c != null; c = c.getSuperclass()){
+            Field field = getField(c, fieldName);
+            if(field != null){
+                return field;
+            }
+        }
+        
+        throw new RuntimeException("Field '" + fieldName + "' of '" + path +
+                "' not defined on class: " + clazz.getName());
+    }
+    
+    /**
+     * Get a nested object, create it if it is null
+     */
+    private static Object getOrCreate(MethodHandle getter, MethodHandle setter, 
+            MethodHandle constructor, Object owner) throws Throwable
+    {
+        Object value = (Object)getter.invokeExact(owner);
+        if(value == null){
+            value = (Object)constructor.invokeExact();
+            setter.invokeExact(owner, value);
+        }
+        
+        return value;
+    }
+    
+    /**
+     * Convert an argument value to a field type. An empty value of a no value
+     * argument is converted to true for boolean type, null is converted to
+     * the zero value of the type.
+     * 
+     * @param value argument value or null if not supplied
+     * @param type field type, String, primitive, boxed primitive or enum
+     * @return value converted
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Object convert(String value, Class<?> type){
+        if(value == null){
+            return zeroValue(type);
+        }else if(type == String.class || type == Object.class){
+            return value;
+        }
+        
+        try{
+            if(type == boolean.class || type == Boolean.class){
+                return value.isEmpty() || Boolean.parseBoolean(value);
+            } else if(type == int.class || type == Integer.class){
+                return Integer.valueOf(value);
+            } else if(type == long.class || type == Long.class){
+                return Long.valueOf(value);
+            } else if(type == double.class || type == Double.class){
+                return Double.valueOf(value);
+            } else if(type == float.class || type == Float.class){
+                return Float.valueOf(value);
+            } else if(type == short.class || type == Short.class){
+                return Short.valueOf(value);
+            } else if(type == byte.class || type == Byte.class){
+                return Byte.valueOf(value);
+            } else if(type == char.class || type == Character.class){
+                if(value.length() != 1){
+                    throw new IllegalArgumentException("Not a character: " + value);
                 }
-            }            
+                return value.charAt(0);
+            } else if(type.isEnum()){
+                return Enum.valueOf((Class<Enum>)type, value);
+            }
+        }catch(IllegalArgumentException e){
+            throw new IllegalArgumentException("Can't convert '" + value + 
+                    "' to " + type.getName(), e);
         }
+        
+        throw new IllegalArgumentException("Unsupported type: " + type.getName());
+    }
+    
+    /**
+     * Check if a type is supported by convert(_)
+     * 
+     * @param type field type
+     * @return true if supported
+     */
+    public static boolean isConvertible(Class<?> type){
+        return type == String.class || type == Object.class || type.isPrimitive() ||
+               type == Boolean.class || type == Integer.class || type == Long.class ||
+               type == Double.class || type == Float.class || type == Short.class ||
+               type == Byte.class || type == Character.class || type.isEnum();
     }
     
     private static RuntimeException buildException(String fieldName, Exception root){
@@ -0,0 +1,33 @@
+package cmdline;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Define an argument rule or rule expression on config class, e.g.
+ * 
+ *    &#64;Rule("-c dependsOn -a=ADD || --force")
+ *    &#64;Rule("-q lessThan 100")
+ *    class Config { ... }
+ * 
+ * @author Wayne Zhang
+ * @see CmdLineRuleExpression
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(Rule.Rules.class)
+public @interface Rule {
+    String value();
+    
+    /**
+     * Container of repeated rules
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface Rules {
+        Rule[] value();
+    }
+}
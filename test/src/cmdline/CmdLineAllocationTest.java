@@ -0,0 +1,297 @@
+package cmdline;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Allocation budget tests of parse hot path, i.e. parse, argument validation
+ * and rule validation. Each scenario parses the same command line many times
+ * and fails if bytes allocated per parse exceed its budget.
+ *
+ * Budgets are measured on HotSpot after JIT warmup, where escape analysis
+ * removes most short-lived objects. Bytes allocated per parse are printed,
+ * and appended to a CSV file if -Dallocation.report=file is set, to track
+ * the trend across builds.
+ *
+ * The heap retained by a compiled schema is measured too, against the
+ * schema it is compiled from.
+ *
+ * @author Wayne Zhang
+ */
+public class CmdLineAllocationTest {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 20000;
+
+    // objects measured, kept reachable until heap is measured
+    private static volatile Object[] retained;
+
+    public static void main(String[] args){
+        TestRunner.fire(CmdLineAllocationTest.class);
+    }
+
+    private static void fail(String msg){
+        throw new AssertionError(msg);
+    }
+
+    /**
+     * Measure bytes allocated per parse, after warmup
+     *
+     * @return bytes per parse or -1 if not supported by the JVM
+     */
+    private static long bytesPerParse(CmdLineArgumentParser parser, String... args){
+        for(int i = 0; i < WARMUP; i++){
+            parser.parse(args);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long start = TestRunner.allocatedBytes(threadId);
+        if(start < 0){
+            return -1;
+        }
+
+        for(int i = 0; i < ITERATIONS; i++){
+            parser.parse(args);
+        }
+
+        return (TestRunner.allocatedBytes(threadId) - start) / ITERATIONS;
+    }
+
+    /**
+     * Measure bytes allocated per parse of a parse context, after warmup
+     *
+     * @return bytes per parse or -1 if not supported by the JVM
+     */
+    private static long bytesPerParse(CmdLineParseContext context, String... args){
+        for(int i = 0; i < WARMUP; i++){
+            context.parse(args);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long start = TestRunner.allocatedBytes(threadId);
+        if(start < 0){
+            return -1;
+        }
+
+        for(int i = 0; i < ITERATIONS; i++){
+            context.parse(args);
+        }
+
+        return (TestRunner.allocatedBytes(threadId) - start) / ITERATIONS;
+    }
+
+    private static void checkBudget(String scenario, long budget,
+            CmdLineArgumentParser parser, String... args)
+    {
+        checkBudget(scenario, budget, bytesPerParse(parser, args));
+    }
+
+    private static void checkBudget(String scenario, long budget,
+            CmdLineParseContext context, String... args)
+    {
+        checkBudget(scenario, budget, bytesPerParse(context, args));
+    }
+
+    private static void checkBudget(String scenario, long budget, long bytes){
+        if(bytes < 0){
+            System.out.println(scenario + ": allocated bytes not supported, skipped");
+            return;
+        }
+
+        System.out.println(scenario + ": " + bytes + " bytes/parse, budget " + budget +
+                (budget == 0 ? "" : " (" + (bytes * 100 / budget) + "%)"));
+        report(scenario, bytes, budget);
+
+        if(bytes > budget){
+            fail(scenario + " allocated " + bytes + " bytes per parse, over budget " + budget);
+        }
+    }
+
+    /**
+     * Measure heap retained by an object, by heap used after full GCs
+     * before and after copies of it are built. Other tests run meanwhile,
+     * copies are many so that their garbage doesn't count.
+     *
+     * @return bytes retained per copy
+     */
+    private static long retainedBytes(int copies, Supplier<Object> builder){
+        Object[] objects = new Object[copies];
+        long before = usedHeap();
+        for(int i = 0; i < copies; i++){
+            objects[i] = builder.get();
+        }
+        retained = objects;
+        long after = usedHeap();
+        retained = null;
+
+        return (after - before) / copies;
+    }
+
+    private static long usedHeap(){
+        for(int i = 0; i < 3; i++){
+            System.gc();
+            try{
+                Thread.sleep(20);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static synchronized void report(String scenario, long bytes, long budget){
+        String file = System.getProperty("allocation.report");
+        if(file == null){
+            return;
+        }
+
+        try(PrintWriter out = new PrintWriter(new FileWriter(file, true))){
+            out.println(System.currentTimeMillis() + "," + scenario + "," + bytes + "," + budget);
+        }catch(IOException e){
+            System.err.println("Write allocation report failed: " + e);
+        }
+    }
+
+    public void testFlagsAndValues(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,create|update|delete",
+                "-v,--verbose,false",
+                "-i,--inputFile,true"
+        );
+
+        checkBudget("flags and values", 128, parser,
+                "-v", "-a", "create", "--inputFile", "a.txt");
+    }
+
+    public void testManyArguments(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        for(int i = 0; i < 200; i++){
+            parser.defineArgument("-o" + i + ",--option" + i + ",true");
+        }
+
+        checkBudget("200 arguments", 128, parser,
+                "-o1", "x", "--option100", "y", "-o199", "z");
+    }
+
+    public void testArgumentRules(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,ADD|REMOVE",
+                "-c,--criteria,true",
+                "-n,--number,true",
+                "-m,--max,true"
+        );
+        parser.addArgumentRules(
+                "-c dependsOn -a=ADD",
+                "-n isInteger",
+                "-n lessThan -m",
+                "-a isIn (ADD,REMOVE)"
+        );
+
+        checkBudget("argument rules", 2500, parser,
+                "-a", "ADD", "-c", "x", "-n", "10", "-m", "20");
+    }
+
+    public void testRuleExpressions(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,ADD|REMOVE",
+                "-x,--exclude,true",
+                "-f,--force,false"
+        );
+        parser.addRuleExpressions("-x dependsOn -a=REMOVE || --force");
+
+        checkBudget("rule expressions", 512, parser,
+                "-a", "REMOVE", "-x", "y");
+    }
+
+    public void testSubcommand(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser("-v,--verbose,false");
+        parser.addSubcommand("add", schema -> schema.defineArguments("-f,--file,true,,true"));
+
+        checkBudget("subcommand", 128, parser,
+                "-v", "add", "-f", "a.txt");
+    }
+    
+    public void testAuditLog() throws IOException{
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,create|update|delete",
+                "-v,--verbose,false",
+                "-n,--number,true"
+        );
+        
+        Path dir = Files.createTempDirectory("audit");
+        try(CmdLineAuditLog auditLog = CmdLineAuditLog.builder(dir).open()){
+            parser.setAuditLog(auditLog);
+            
+            checkBudget("audit log", 256, parser,
+                    "-v", "-a", "create", "-n", "42");
+        }finally{
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                for(Path segment : stream){
+                    Files.delete(segment);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+    
+    public void testParseContext(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,create|update|delete",
+                "-v,--verbose,false",
+                "-i,--inputFile,true"
+        );
+        parser.addSubcommand("add", schema -> schema.defineArguments("-f,--file,true,,true"));
+
+        CmdLineParseContext context = parser.newParseContext();
+        checkBudget("parse context", 0, context,
+                "-v", "-a", "create", "--inputFile", "a.txt");
+        checkBudget("parse context subcommand", 0, context,
+                "-v", "add", "-f", "a.txt");
+    }
+
+    private static CmdLineSchema newLargeSchema(){
+        CmdLineSchema schema = new CmdLineSchema();
+        for(int i = 0; i < 1000; i++){
+            schema.defineArgument("-o" + i + ",--option" + i + ",true," +
+                    (i % 2 == 0 ? "ADD|REMOVE|UPDATE" : "") + ",false");
+        }
+
+        return schema.freeze();
+    }
+
+    public void testCompiledSchemaFootprint(){
+        long schemaBytes = retainedBytes(20, new Supplier<Object>(){
+            @Override
+            public Object get(){
+                return newLargeSchema();
+            }
+        });
+        long compiledBytes = retainedBytes(20, new Supplier<Object>(){
+            @Override
+            public Object get(){
+                return newLargeSchema().compile();
+            }
+        });
+
+        long reportedBytes = newLargeSchema().compile().getFootprint();
+        System.out.println("footprint of 1000 arguments: schema " + schemaBytes +
+                " bytes, compiled " + compiledBytes + " bytes, reported " + reportedBytes + " bytes");
+        report("schema footprint", schemaBytes, 0);
+        report("compiled schema footprint", compiledBytes, 0);
+
+        if(compiledBytes * 2 > schemaBytes){
+            fail("compiled schema " + compiledBytes + " bytes, schema " + schemaBytes + " bytes");
+        }
+
+        // reported by array lengths, close to the measured
+        if(Math.abs(reportedBytes - compiledBytes) * 4 > compiledBytes){
+            fail("compiled schema reported " + reportedBytes + " bytes, measured " + compiledBytes);
+        }
+    }
+}
@@ -1,6 +1,31 @@
 package cmdline;
 
 import cmdline.CmdLineArgument.CmdLineArgumentBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 /**
  * Self implemented (unit/integration) test without dependency of ANY framework.
@@ -19,13 +44,13 @@ public class CmdLineArgumentParserTest{
     }
     
     /**
-     * Method to mock JUnit fail
+     * Method to mock JUnit fail. It throws an Error, so that it isn't caught
+     * by tests which expect exceptions.
      * 
      * @param msg 
      */
     private static void fail(String msg){       
-        new RuntimeException(msg).printStackTrace();
-        System.exit(0);
+        throw new AssertionError(msg);
     }    
     
     public void testValid(){
@@ -502,4 +527,2263 @@ public class CmdLineArgumentParserTest{
         parser.reset();
         parser.parse("-l", "BLOB");
     }    
+    
+    public void testRuleExpression(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-a,--action,true,ADD|UPDATE|REMOVE", 
+                "-c,--criteria,true", "-f,--force,false");
+        final String rule = "-c dependsOn -a=ADD || -c dependsOn -a=UPDATE || --force";
+        parser.addRuleExpressions(rule);
+        
+        try{
+            parser.parse("-a", "REMOVE", "-c", "x");
+            
+            fail(rule);
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("-a", "ADD", "-c", "x");
+        
+        parser.reset();
+        parser.parse("-a", "UPDATE", "-c", "x");
+        
+        parser.reset();
+        parser.parse("-a", "REMOVE", "-c", "x", "--force");
+    }
+    
+    public void testRuleExpressionNotAndParentheses(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-q,--qantitiy,true,", "-m,--maxQuantity,true,",
+                "-l,--lob,true");
+        final String rule = "!(-q && -l isIn (CLOB,BLOB)) && (-q lessThan -m || !-m)";
+        parser.addRuleExpressions(rule);
+        
+        try{
+            parser.parse("-q", "10", "-l", "CLOB");
+            
+            fail(rule);
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("-q", "10", "-m", "5");
+            
+            fail(rule);
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("-q", "10", "-l", "VARCHAR", "-m", "20");
+        
+        parser.reset();
+        parser.parse("-l", "CLOB");
+    }
+    
+    public void testRuleExpressionQuotedSpaces(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-a,--action,true", "-f,--force,false");
+        final String rule = "-a isIn 'x y,z' || --force";
+        parser.addRuleExpressions(rule);
+        
+        parser.parse("-a", "x y");
+        
+        parser.reset();
+        parser.parse("-a", "z");
+        
+        try{
+            parser.reset();
+            parser.parse("-a", "x");
+            
+            fail(rule);
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testRuleExpressionSyntaxError(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-a,--action,true", "-f,--force,false");
+        
+        String[] badRules = {
+            "(-a || --force", 
+            "-a && ", 
+            "-a dependsOn", 
+            "-a || --undefined",
+            "-a isIn (x,y"
+        };
+        for(String rule : badRules){
+            try{
+                parser.addRuleExpressions(rule);
+
+                fail("Rule expression error expected: " + rule);
+            }catch(RuntimeException e) {
+                // exception expected
+                asExpected(e);
+            }
+        }
+    }
+    
+    public void testValidatorMatches(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-s,--server,true");
+        parser.addValidators(CmdLineValidators.matches("-s", "[\\w.-]+:\\d{1,5}"));
+        
+        try{
+            parser.parse("-s", "localhost");
+            
+            fail("-s matches host:port");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("-s", "localhost:8080");
+        
+        // no argument should be OK
+        parser.reset();
+        parser.parse("");
+    }
+    
+    public void testValidatorInRange(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-p,--port,true");
+        parser.addValidators(CmdLineValidators.inRange("--port", 1, 65535));
+        
+        try{
+            parser.parse("-p", "65536");
+            
+            fail("-p in range");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("-p", "443");
+    }
+    
+    public void testValidatorsCheapFirst(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-i,--inputFile,true");
+        
+        final boolean[] ioCalled = {false};
+        parser.addValidators(new CmdLineArgumentValidator(){
+            public String[] getArguments(){
+                return new String[]{"-i"};
+            }
+            
+            public Cost getCost(){
+                return Cost.IO;
+            }
+            
+            public void validate(CmdLineValues values){
+                ioCalled[0] = true;
+            }
+        });
+        // added later but cheaper, so it is run first and fails fast
+        parser.addValidators(CmdLineValidators.matches("-i", "[^*?]+"));
+        
+        try{
+            parser.parse("-i", "*.txt");
+            
+            fail("-i matches [^*?]+");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        if(ioCalled[0]){
+            fail("IO validator should not be called");
+        }
+        
+        parser.reset();
+        parser.parse("-i", "a.txt");
+        
+        if(!ioCalled[0]){
+            fail("IO validator should be called");
+        }
+    }
+    
+    public void testValidatorUndefinedArgument(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        
+        try{
+            parser.addValidators(CmdLineValidators.matches("-x", ".*"));
+            
+            fail("Argument -x is not defined");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        // no validator found by ServiceLoader
+        parser.loadValidators();
+    }
+    
+    public void testArgumentRulesPath() throws IOException{
+        Path dir = Files.createTempDirectory("cmdline");
+        dir.toFile().deleteOnExit();
+        Path file = Files.createTempFile(dir, "input", ".txt");
+        file.toFile().deleteOnExit();
+        
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-i,--inputFile,true", "-d,--scanDir,true",
+                "-o,--outputFile,true");
+        parser.addArgumentRules("-i isFile", "-i isReadable", "-d isDir", 
+                "-o isWritable");
+        
+        try{
+            parser.parse("-i", dir.toString());
+            
+            fail("-i isFile");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("-d", file.toString());
+            
+            fail("-d isDir");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("-i", file.toString(), "-d", dir.toString(), 
+                "-o", dir.resolve("output.txt").toString());
+    }
+    
+    public void testArgumentRulesPathInParallel() throws IOException{
+        Path dir = Files.createTempDirectory("cmdline");
+        dir.toFile().deleteOnExit();
+        StringBuilder paths = new StringBuilder();
+        for(int i = 0; i < 100; i++){
+            if(i > 0){
+                paths.append(File.pathSeparator);
+            }
+            Path file = Files.createTempFile(dir, "input", ".txt");
+            file.toFile().deleteOnExit();
+            paths.append(file);
+        }
+        
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-i,--inputFiles,true");
+        parser.addArgumentRules("-i areFiles");
+        
+        parser.parse("-i", paths.toString());
+        
+        try{
+            parser.reset();
+            parser.parse("-i", paths + File.pathSeparator + dir.resolve("missing.txt"));
+            
+            fail("-i areFiles");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        // a path list is not one path
+        CmdLineArgumentParser single = new CmdLineArgumentParser();
+        single.defineArguments("-i,--inputFile,true");
+        single.addArgumentRules("-i isFile");
+        try{
+            single.parse("-i", paths.toString());
+            
+            fail("-i isFile of a path list");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            parser.setPathCheckTimeout(0);
+            
+            fail("path check timeout 0");
+        }catch(IllegalArgumentException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testArgumentRulesPathSeparatorInName() throws IOException{
+        if(File.pathSeparatorChar != ':'){
+            // ':' is not valid in file names
+            return;
+        }
+        
+        Path dir = Files.createTempDirectory("cmdline");
+        Path file = dir.resolve("log-12:00.txt");
+        Files.createFile(file);
+        try{
+            CmdLineArgumentParser parser = new CmdLineArgumentParser();
+            parser.defineArguments("-l,--log,true");
+            parser.addArgumentRules("-l isFile", "-l isReadable");
+            
+            parser.parse("-l", file.toString());
+        }finally{
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+    
+    public void testPathCheckTimeout() throws Exception{
+        Path dir = Files.createTempDirectory("cmdline");
+        dir.toFile().deleteOnExit();
+        
+        CmdLinePathChecker checker = new CmdLinePathChecker();
+        checker.setTimeout(50);
+        
+        // the first check starts the overall timeout of a parse
+        if(!checker.check(dir.toString(), CmdLinePathChecker.IS_DIR, false)){
+            fail("path check");
+        }
+        Thread.sleep(100);
+        try{
+            checker.check(dir.toString(), CmdLinePathChecker.IS_DIR, false);
+            
+            fail("path check timeout");
+        }catch(IllegalArgumentException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        // a new parse starts a new timeout
+        checker.reset();
+        if(!checker.check(dir.toString(), CmdLinePathChecker.IS_DIR, false)){
+            fail("path check after reset");
+        }
+    }
+    
+    public void testPathCheckAttributesCached() throws Exception{
+        Path dir = Files.createTempDirectory("cmdline");
+        dir.toFile().deleteOnExit();
+        String missing = dir.resolve("missing.txt").toString();
+        
+        // attributes are read as they are checked, a cached attribute doesn't
+        // answer for another one of the same path
+        CmdLinePathChecker checker = new CmdLinePathChecker();
+        if(!checker.check(dir.toString(), CmdLinePathChecker.IS_DIR, false) ||
+           checker.check(dir.toString(), CmdLinePathChecker.IS_FILE, false) ||
+           !checker.check(dir.toString(), CmdLinePathChecker.IS_WRITABLE, false) ||
+           !checker.check(dir.toString(), CmdLinePathChecker.IS_READABLE, false) ||
+           checker.check(missing, CmdLinePathChecker.IS_READABLE, false) ||
+           !checker.check(missing, CmdLinePathChecker.IS_WRITABLE, false))
+        {
+            fail("path attributes");
+        }
+    }
+    
+    public void testSchemaLayers(){
+        CmdLineSchema common = new CmdLineSchema();
+        common.defineArguments("-v,--verbose,false", "-c,--config,true");
+        common.addArgumentRules("-c isReadable");
+        common.freeze();
+        
+        CmdLineArgumentParser tool1 = new CmdLineArgumentParser(common);
+        tool1.defineArguments("-a,--action,true,ADD|REMOVE,true");
+        
+        CmdLineArgumentParser tool2 = new CmdLineArgumentParser(common);
+        tool2.defineArguments("-a,--age,true");
+        tool2.addArgumentRules("-a isInteger", "-a dependsOn -v");
+        
+        tool1.parse("-a", "ADD", "-v");
+        tool2.parse("--age", "12", "--verbose");
+        
+        if(!"ADD".equals(tool1.getArgumentValue("--action")) || 
+           !"12".equals(tool2.getArgumentValue("--age")))
+        {
+            fail("argument value of layered schema");
+        }
+        
+        // values are held by the parsers, not the shared schema
+        tool2.reset();
+        tool2.parse("-a", "13", "-v");
+        if(!"ADD".equals(tool1.getArgumentValue("-a")) || 
+           !tool1.isArgumentSupplied("-v"))
+        {
+            fail("argument value of layered schema");
+        }
+        
+        try{
+            tool1.reset();
+            tool1.parse("-a", "ADD", "-c", "/not/exist/config");
+            
+            fail("-c isReadable of base schema");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testSchemaLayersDuplicated(){
+        CmdLineSchema common = new CmdLineSchema();
+        common.defineArguments("-v,--verbose,false");
+        
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(common);
+        
+        try{
+            parser.defineArgument("-x,--verbose,false");
+            
+            fail("Duplicate argment defination exception expected");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            parser.defineArgument("-h,--host,true");
+            
+            fail("Duplicate argment defination exception expected");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            common.defineArgument("-x,--extra,false");
+            
+            fail("Frozen schema can't be changed");
+        }catch(IllegalStateException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            parser.getArgument("-v").setMandatory(true);
+            
+            fail("Frozen argument can't be changed");
+        }catch(IllegalStateException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testSubcommands(){
+        final int[] defined = {0};
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-v,--verbose,false");
+        parser.addSubcommand("add", schema -> {
+            defined[0]++;
+            schema.defineArguments("-f,--file,true,,true", "-F,--force,false");
+            schema.addArgumentRules("-F dependsOn -v");
+        });
+        parser.addSubcommand("remove", schema -> {
+            defined[0]++;
+            schema.defineArguments("-n,--name,true,,true");
+        });
+        
+        parser.parse("-v", "add", "-f", "a.txt", "-F");
+        if(!"add".equals(parser.getSubcommand()) || 
+           !"a.txt".equals(parser.getArgumentValue("-f")) ||
+           !parser.isArgumentSupplied("--verbose"))
+        {
+            fail("subcommand add");
+        }
+        
+        // only the selected subcommand is defined, and only once
+        parser.reset();
+        parser.parse("add", "-f", "b.txt");
+        if(defined[0] != 1){
+            fail("subcommand should be defined on demand");
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("add", "-f", "a.txt", "-F");
+            
+            fail("-F dependsOn -v");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            // -f is an argument of add
+            parser.reset();
+            parser.parse("remove", "-n", "x", "-f", "a.txt");
+            
+            fail("-f can't be recognised");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("list");
+            
+            fail("list can't be recognised");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("-v");
+        if(parser.getSubcommand() != null){
+            fail("no subcommand supplied");
+        }
+    }
+    
+    public void testInheritedSubcommands(){
+        CmdLineSchema base = new CmdLineSchema();
+        base.defineArguments("-v,--verbose,false");
+        base.addSubcommand("add", schema -> schema.defineArguments("-f,--file,true,,true"));
+        base.addSubcommand("remove", schema -> schema.defineArguments("-i,--id,true,,true"));
+        
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(base);
+        parser.defineArguments("-n,--dryRun,false");
+        // definers of the same subcommand are merged, the base layer first
+        parser.addSubcommand("add", schema -> schema.addArgumentRules("-f isIn a.txt,b.txt"));
+        parser.addSubcommand("list", schema -> schema.defineArguments("-a,--all,false"));
+        
+        if(!parser.getSchema().getSubcommands().equals(
+                new HashSet<>(Arrays.asList("add", "remove", "list"))))
+        {
+            fail("inherited subcommands: " + parser.getSchema().getSubcommands());
+        }
+        
+        parser.parse("-v", "add", "-f", "a.txt", "-n");
+        if(!"add".equals(parser.getSubcommand()) || !"a.txt".equals(parser.getArgumentValue("-f")) ||
+           !parser.isArgumentSupplied("--dryRun"))
+        {
+            fail("inherited subcommand");
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("add", "-f", "c.txt");
+            
+            fail("merged subcommand rule");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        parser.reset();
+        parser.parse("remove", "-i", "7");
+        if(!"7".equals(parser.getArgumentValue("--id"))){
+            fail("inherited subcommand remove");
+        }
+        
+        // the schema of parser is frozen by the first subcommand selected
+        try{
+            parser.defineArgument("-x,--extra,false");
+            
+            fail("schema not frozen by subcommand");
+        }catch(IllegalStateException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        // the context parses by the parser schema too
+        CmdLineParseContext context = parser.newParseContext();
+        context.parse("list", "-a");
+        if(!"list".equals(context.getSubcommand()) || !context.isArgumentSupplied("--all")){
+            fail("context subcommand of parser layer");
+        }
+    }
+    
+    enum Action { ADD, REMOVE }
+    
+    @Rule("-c dependsOn -a=ADD || --force")
+    @Rule("-q lessThan 100")
+    static class AnnotatedConfig {
+        @Option(shortName = "-a", values = {"ADD", "REMOVE"}, mandatory = true)
+        private Action action;
+        @Option(shortName = "-c")
+        private String criteria;
+        @Option(shortName = "-f")
+        private boolean force;
+        @Option(shortName = "-q", longName = "--quantity")
+        private int qty;
+    }
+    
+    @Rule("-r lessThan 10")
+    static class BaseConfig {
+        @Option(shortName = "-r")
+        private int retries;
+    }
+    
+    static class DerivedConfig extends BaseConfig {
+        @Option(shortName = "-t")
+        private long timeout;
+        @Option(shortName = "-s")
+        private Short scale;
+    }
+    
+    public void testAnnotatedFieldTypes(){
+        CmdLineArgumentParser parser = CmdLineArgumentParser.forClass(DerivedConfig.class);
+        parser.parse("-r", "3", "-t", "10000000000", "-s", "2");
+        DerivedConfig config = new DerivedConfig();
+        parser.setArgumentsTo(config);
+        if(((BaseConfig)config).retries != 3 || config.timeout != 10000000000L || config.scale != 2){
+            fail("annotated field types");
+        }
+        
+        String[][] badArgs = {
+            {"-r", "abc"},          // int field
+            {"-t", "1.5"},          // long field
+            {"-s", "40000"},        // Short field out of range
+            {"-r", "12"}            // @Rule of the superclass
+        };
+        for(String[] args : badArgs){
+            try{
+                parser.reset();
+                parser.parse(args);
+                
+                fail("annotated field type not validated: " + Arrays.toString(args));
+            }catch(IllegalArgumentException e){
+                // exception expected at parse, not at binding
+                asExpected(e);
+            }
+        }
+    }
+    
+    public void testAnnotatedSchema(){
+        CmdLineArgumentParser parser = CmdLineArgumentParser.forClass(AnnotatedConfig.class);
+        parser.parse("-a", "ADD", "-c", "x", "--quantity", "10");
+        
+        AnnotatedConfig config = new AnnotatedConfig();
+        parser.setArgumentsTo(config);
+        if(config.action != Action.ADD || !"x".equals(config.criteria) ||
+           config.force || config.qty != 10)
+        {
+            fail("annotated config binding");
+        }
+        
+        // schema is derived once and shared
+        CmdLineArgumentParser parser2 = CmdLineArgumentParser.forClass(AnnotatedConfig.class);
+        if(parser2.getSchema().getParent() != parser.getSchema().getParent()){
+            fail("annotated schema should be cached");
+        }
+        
+        String[][] badArgs = {
+            {"-c", "x"},                    // -a is mandatory
+            {"-a", "REMOVE", "-c", "x"},    // rule expression
+            {"-a", "ADD", "-q", "100"}      // -q lessThan 100
+        };
+        for(String[] args : badArgs){
+            try{
+                parser2.reset();
+                parser2.parse(args);
+
+                fail("annotated rules");
+            }catch(RuntimeException e) {
+                // exception expected
+                asExpected(e);
+            }
+        }
+        
+        parser2.reset();
+        parser2.parse("-a", "REMOVE", "-c", "x", "-f");
+        config = new AnnotatedConfig();
+        parser2.setArgumentsTo(config);
+        if(config.action != Action.REMOVE || !config.force){
+            fail("annotated config binding");
+        }
+    }
+    
+    static class DbConfig {
+        private String host;
+        private int port;
+    }
+    
+    static class PoolConfig {
+        private int maxSize;
+        private boolean fair;
+    }
+    
+    static class ServiceConfig {
+        private DbConfig db = new DbConfig();
+        private PoolConfig pool;
+        private RetryConfig retry;
+        private String name;
+    }
+    
+    static class RetryConfig {
+        private int attempts;
+        private boolean isBackoff;
+        private Boolean jitter;
+        private int setterCalls;
+        
+        public void setAttempts(int attempts){
+            this.attempts = attempts;
+            setterCalls++;
+        }
+        
+        public void setJitter(Boolean jitter){
+            this.jitter = jitter;
+            setterCalls++;
+        }
+    }
+    
+    public void testNestedBinding(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-n,--name,true", "-H,--db.host,true", 
+                "-p,--db.port,true", "-m,--pool.maxSize,true", "-f,--pool.fair,false");
+        parser.addArgumentRules("-p isInteger");
+        
+        parser.parse("-n", "orders", "--db.host", "localhost", "-p", "5432", 
+                "--pool.maxSize", "16", "--pool.fair");
+        
+        for(int i = 0; i < 2; i++){
+            // the second time binds by cached accessor chains
+            ServiceConfig config = new ServiceConfig();
+            parser.setArgumentsTo(config);
+            
+            if(!"orders".equals(config.name) || 
+               !"localhost".equals(config.db.host) || config.db.port != 5432 ||
+               config.pool == null || config.pool.maxSize != 16 || !config.pool.fair)
+            {
+                fail("nested binding");
+            }
+        }
+        
+        try{
+            parser.defineArgument("-u,--db.user,true");
+            parser.reset();
+            parser.parse("-u", "scott");
+            parser.setArgumentsTo(new ServiceConfig());
+            
+            fail("db.user not defined");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testNestedBindingSetters(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-a,--retry.attempts,true", "-b,--retry.backoff,false", 
+                "-j,--retry.jitter,false");
+        
+        // leaf fields are resolved like top level fields: typed setters,
+        // flag setters and isX fields of flags
+        parser.parse("-a", "3", "-b", "-j");
+        ServiceConfig config = new ServiceConfig();
+        parser.setArgumentsTo(config);
+        if(config.retry == null || config.retry.attempts != 3 || !config.retry.isBackoff ||
+           !Boolean.TRUE.equals(config.retry.jitter) || config.retry.setterCalls != 2)
+        {
+            fail("nested setters");
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("-a", "three");
+            parser.setArgumentsTo(new ServiceConfig());
+            
+            fail("retry.attempts not an int");
+        }catch(IllegalArgumentException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    interface ServerConfig {
+        String host();
+        int port();
+        boolean isVerbose();
+        Action action();
+        Integer timeout();
+    }
+    
+    public void testInterfaceBinding(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-H,--host,true", "-p,--port,true", "-v,--verbose,false",
+                "-a,--action,true,ADD|REMOVE", "-t,--timeout,true");
+        
+        parser.parse("-H", "localhost", "-p", "8080", "-v", "-a", "REMOVE");
+        ServerConfig config = parser.bindTo(ServerConfig.class);
+        
+        // config is immutable, it is not changed by next parse
+        parser.reset();
+        parser.parse("-p", "9090");
+        
+        if(!"localhost".equals(config.host()) || config.port() != 8080 ||
+           !config.isVerbose() || config.action() != Action.REMOVE || 
+           config.timeout() != null)
+        {
+            fail("interface binding: " + config);
+        }
+        
+        config = parser.getParseResult().bindTo(ServerConfig.class);
+        if(config.host() != null || config.port() != 9090 || config.isVerbose()){
+            fail("interface binding: " + config);
+        }
+        
+        try{
+            parser.bindTo(AnnotatedConfig.class);
+            
+            fail("Config type must be a record or an interface");
+        }catch(RuntimeException e) {
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    interface Endpoint {
+        String host();
+        int port();
+        
+        default String url(){
+            return "http://" + host() + ":" + port();
+        }
+    }
+    
+    interface ServerEndpoint extends Endpoint {
+        default int port(int offset){
+            return port() + offset;
+        }
+    }
+    
+    public void testInterfaceDefaultMethods(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-H,--host,true", "-p,--port,true");
+        
+        // default methods aren't bound, no --url argument
+        parser.parse("-H", "localhost", "-p", "8080");
+        ServerEndpoint endpoint = parser.bindTo(ServerEndpoint.class);
+        
+        if(!"http://localhost:8080".equals(endpoint.url()) || endpoint.port(1) != 8081){
+            fail("default methods: " + endpoint.url() + ", " + endpoint.port(1));
+        }
+        
+        // ordinals are resolved per schema, another order binds the same way
+        CmdLineArgumentParser reordered = new CmdLineArgumentParser();
+        reordered.defineArguments("-p,--port,true", "-H,--host,true");
+        reordered.parse("-H", "remote", "-p", "9090");
+        Endpoint other = reordered.bindTo(Endpoint.class);
+        endpoint = parser.bindTo(ServerEndpoint.class);
+        if(!"http://remote:9090".equals(other.url()) || !"http://localhost:8080".equals(endpoint.url())){
+            fail("bind by schema: " + other.url() + ", " + endpoint.url());
+        }
+    }
+    
+    public void testRecordBinding() throws Exception{
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(System.getProperty("java.specification.version").startsWith("1.") ||
+           Integer.parseInt(System.getProperty("java.specification.version")) < 16 ||
+           compiler == null)
+        {
+            // no record before Java 16
+            return;
+        }
+        
+        Path dir = Files.createTempDirectory("cmdline");
+        dir.toFile().deleteOnExit();
+        Path source = dir.resolve("PortConfig.java");
+        source.toFile().deleteOnExit();
+        Files.write(source, "public record PortConfig(String host, int port, boolean isVerbose){}".getBytes());
+        dir.resolve("PortConfig.class").toFile().deleteOnExit();
+        if(compiler.run(null, null, null, "-d", dir.toString(), source.toString()) != 0){
+            fail("record not compiled");
+        }
+        
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-H,--host,true", "-p,--port,true", "-v,--verbose,false");
+        parser.parse("-p", "8080", "-v");
+        
+        try(URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()},
+                getClass().getClassLoader()))
+        {
+            Object config = parser.bindTo(loader.loadClass("PortConfig"));
+            if(!"PortConfig[host=null, port=8080, isVerbose=true]".equals(config.toString())){
+                fail("record binding: " + config);
+            }
+        }
+    }
+    
+    public void testAnnotationSchemaUnloading() throws Exception{
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null){
+            return;
+        }
+        
+        Path dir = Files.createTempDirectory("cmdline");
+        dir.toFile().deleteOnExit();
+        Path source = dir.resolve("PluginConfig.java");
+        source.toFile().deleteOnExit();
+        Files.write(source, ("public class PluginConfig { " + 
+                "@cmdline.Option(shortName=\"-p\") private int port; " +
+                "@Override public String toString(){ return \"port=\" + port; } }").getBytes());
+        dir.resolve("PluginConfig.class").toFile().deleteOnExit();
+        if(compiler.run(null, null, null, "-d", dir.toString(), 
+                "-cp", System.getProperty("java.class.path"), source.toString()) != 0)
+        {
+            fail("config class not compiled");
+        }
+        
+        // the cached annotation schema doesn't keep the plugin loader alive
+        WeakReference<ClassLoader> loader = bindPluginConfig(dir);
+        for(int i = 0; i < 100 && loader.get() != null; i++){
+            System.gc();
+            Thread.sleep(10);
+        }
+        if(loader.get() != null){
+            fail("config class loader not unloaded");
+        }
+    }
+    
+    private WeakReference<ClassLoader> bindPluginConfig(Path dir) throws Exception{
+        try(URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()},
+                getClass().getClassLoader()))
+        {
+            Class<?> type = loader.loadClass("PluginConfig");
+            CmdLineArgumentParser parser = CmdLineArgumentParser.forClass(type);
+            parser.parse("-p", "8080");
+            Object config = type.getDeclaredConstructor().newInstance();
+            parser.setArgumentsTo(config);
+            if(!"port=8080".equals(config.toString())){
+                fail("plugin config binding: " + config);
+            }
+            
+            return new WeakReference<ClassLoader>(loader);
+        }
+    }
+    
+    public void testCompiledSchema(){
+        CmdLineSchema schema = new CmdLineSchema();
+        for(int i = 0; i < 1000; i++){
+            schema.defineArgument("-o" + i + ",--option" + i + ",true," +
+                    (i % 2 == 0 ? "ADD|REMOVE|UPDATE" : "") + "," + (i == 7));
+        }
+        schema.addArgumentRules("-o1 dependsOn -o0=ADD");
+        
+        CmdLineCompiledSchema compiled = schema.compile();
+        if(!schema.isFrozen() || compiled.size() != 1001){
+            fail("compiled schema size: " + compiled.size());
+        }
+        
+        int ordinal = compiled.ordinalOf("--option42");
+        if(ordinal != compiled.ordinalOf("-o42") || ordinal != 43 ||
+           !"-o42".equals(compiled.getShortName(ordinal)) ||
+           !"--option42".equals(compiled.getLongName(ordinal)) ||
+           !compiled.hasValue(ordinal) || compiled.isMandatory(ordinal) ||
+           !compiled.isPermitted(ordinal, "REMOVE") || compiled.isPermitted(ordinal, "DROP") ||
+           compiled.getEnumValues(ordinal).length != 3 ||
+           compiled.ordinalOf("--option1000") != -1 || compiled.ordinalOf("-h") != 0 ||
+           !compiled.isMandatory(compiled.ordinalOf("-o7")) ||
+           compiled.isEnumValue(compiled.ordinalOf("-o7")) ||
+           !compiled.isPermitted(compiled.ordinalOf("-o7"), "anything"))
+        {
+            fail("compiled schema lookup");
+        }
+        
+        // parsed on the compact form
+        CmdLineValues values = compiled.parse("-o7", "x", "--option0", "ADD", "-o1", "y", "-o3", "-1");
+        if(!"y".equals(values.getArgumentValue("--option1")) || values.isArgumentSupplied("-o2") ||
+           !"-1".equals(values.getArgumentValue("-o3")))
+        {
+            fail("compiled schema parse: " + values);
+        }
+        
+        String[][] badArgs = {
+            {"--option0", "ADD"},
+            {"-o7", "x", "-o0", "DROP"},
+            {"-o7", "x", "--option0", "REMOVE", "-o1", "y"},
+            {"-o7", "x", "--option1000", "y"},
+            {"-o7", "x", "-o1"}
+        };
+        for(String[] args : badArgs){
+            try{
+                compiled.parse(args);
+                
+                fail("compiled schema parse: " + Arrays.toString(args));
+            }catch(RuntimeException e){
+                // exception expected
+                asExpected(e);
+            }
+        }
+        
+        // inflated schema works as the original one
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(compiled.toSchema());
+        parser.parse("-o7", "x", "--option0", "ADD", "-o1", "y");
+        if(!"y".equals(parser.getArgumentValue("--option1"))){
+            fail("inflated schema parse");
+        }
+        
+        try{
+            parser.parse("-o7", "x", "--option0", "REMOVE", "-o1", "y");
+            
+            fail("rule of compiled schema");
+        }catch(RuntimeException e){
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testCompiledSchemaFootprint(){
+        CmdLineSchema schema = new CmdLineSchema();
+        schema.defineArguments("-a,--action,true,ADD|REMOVE", "-v,--verbose,false", 
+                "-m,--mode,true,ADD|FAST");
+        schema.setGroup("Modes", "-m");
+        CmdLineCompiledSchema compiled = schema.compile();
+        
+        // -h --help -a --action -v --verbose -m --mode
+        long expected = CmdLineCompiledSchema.arrayBytes(37, 2) +     // names
+                CmdLineCompiledSchema.arrayBytes(9, 4) +              // nameOffsets
+                CmdLineCompiledSchema.arrayBytes(4, 1) +              // flags
+                CmdLineCompiledSchema.arrayBytes(5, 4) +              // enumOffsets
+                CmdLineCompiledSchema.arrayBytes(4, 4) +              // enumIds
+                CmdLineCompiledSchema.arrayBytes(16, 4) +             // nameTable
+                CmdLineCompiledSchema.arrayBytes(3, 4) +              // dictionary
+                CmdLineCompiledSchema.stringBytes("ADD") + 
+                CmdLineCompiledSchema.stringBytes("FAST") +
+                CmdLineCompiledSchema.stringBytes("REMOVE") +
+                CmdLineCompiledSchema.arrayBytes(4, 4) +              // groups
+                64;                                                   // object
+        if(compiled.getFootprint() != expected){
+            fail("compiled schema footprint " + compiled.getFootprint() + ", expected " + expected);
+        }
+    }
+    
+    static final class Launcher {
+        static String main(CmdLineArgumentParser parser){
+            return Tool.main(parser);
+        }
+    }
+    
+    static final class Tool {
+        static String main(CmdLineArgumentParser parser){
+            return parser.getMainClass();
+        }
+    }
+    
+    public void testHelpMainClass(){
+        // the tool run by a launcher, the innermost main
+        CmdLineArgumentParser toolParser = new CmdLineArgumentParser();
+        if(!Tool.class.getName().equals(Launcher.main(toolParser)) ||
+           !Tool.class.getName().equals(toolParser.getMainClass()))
+        {
+            fail("main class of tool: " + toolParser.getMainClass());
+        }
+        
+        // resolved per parser
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        if(Tool.class.getName().equals(parser.getMainClass())){
+            fail("main class of another parser: " + parser.getMainClass());
+        }
+    }
+    
+    public void testHelpRenderer(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments(
+                "-a,--action,true,ADD|REMOVE,true",
+                "-v,--verbose,false",
+                "-i,--inputFile,true",
+                "-d,--inputDir,true",
+                "-o,--outputFile,true"
+        );
+        for(int i = 0; i < 20; i++){
+            parser.defineArgument("-x" + i + ",--extra" + i + ",true");
+        }
+        parser.setGroup("Input options", "-i", "--inputDir");
+        parser.addSubcommand("add", schema -> schema.defineArgument("-f,--force,false"));
+        parser.setHelpWidth(40);
+        
+        StringBuilder help = new StringBuilder();
+        parser.help("tool.Main", null, help);
+        System.out.print(help);
+        
+        String[] lines = help.toString().split(System.lineSeparator());
+        for(String line : lines){
+            if(line.length() > 40 || line.endsWith(" ")){
+                fail("help line not wrapped: '" + line + "'");
+            }
+        }
+        if(!lines[0].startsWith("Usage: java tool.Main -h|--help") ||
+           !help.toString().contains("{add} ...") ||
+           !lines[lines.length - 3].equals("Input options:") ||
+           !lines[lines.length - 2].equals("  -i|--inputFile {input file name}") ||
+           !lines[lines.length - 1].equals("  -d|--inputDir {input dir}"))
+        {
+            fail("help format");
+        }
+        
+        help.setLength(0);
+        parser.help("tool.Main", "input", help);
+        if(help.toString().contains("--action") || !help.toString().contains("--inputDir") ||
+           help.toString().contains("{add} ...") == false)
+        {
+            fail("help filter: " + help);
+        }
+        
+        // help fragments are cached
+        CmdLineArgument arg = parser.getSchema().getArgument("-a");
+        if(arg.getHelpInfo() != arg.getHelpInfo()){
+            fail("help fragment not cached");
+        }
+        
+        try{
+            parser.setHelpWidth(5);
+            
+            fail("help width too small");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testArgumentRulesMalformed(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser();
+        parser.defineArguments("-a,--action,true", "-n,--number,true");
+        
+        for(String rule : new String[]{"-a isIn (", "-a isIn '", "-a isIn (a,b]", 
+                "-a dependsOn 5", "-a noSuchRule -n"})
+        {
+            try{
+                parser.addArgumentRules(rule);
+                
+                fail("Malformed rule: " + rule);
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+            }
+        }
+        
+        // negative numbers are values, not arguments
+        parser.addArgumentRules("-n lessThan -1", "-a isIn ()");
+        parser.parse("-n", "-5");
+        if(!"-5".equals(parser.getArgumentValue("-n"))){
+            fail("negative number value");
+        }
+        
+        try{
+            parser.parse("-n", "-.5", "-a", "x");
+            
+            fail("-n lessThan -1");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testParseLimits(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,ADD|REMOVE", "-i,--inputFile,true");
+        parser.addArgumentRules("-i isInteger");
+        parser.setParseLimits(CmdLineParseLimits.builder()
+                .maxTokens(4)
+                .maxTokenBytes(100)
+                .maxTotalBytes(120)
+                .maxErrorLength(80)
+                .build());
+        
+        parser.parse("-a", "ADD", "-i", "12");
+        
+        char[] chars = new char[1000];
+        java.util.Arrays.fill(chars, 'x');
+        String huge = new String(chars);
+        
+        String[][] commandLines = {
+            {"-a", "ADD", "-i", "12", "-a"},                // too many tokens
+            {"-a", "ADD", "-i", huge},                      // token too long
+            {"-a", "ADD", "-i", huge.substring(0, 50) + "\u4E2D"}, // 53 bytes, ok
+            {"-i", huge.substring(0, 90), "-a", huge.substring(0, 90)}, // total too long
+            {huge.substring(0, 99)},                        // not recognised
+        };
+        
+        for(String[] args : commandLines){
+            try{
+                parser.reset();
+                parser.parse(args);
+                
+                fail("parse limits");
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+                if(e.getMessage().length() > 100){
+                    fail("error message not truncated: " + e.getMessage());
+                }
+            }
+        }
+        
+        // values echoed by rules and validators are abbreviated when the 
+        // messages are built, the truncated error is caused by the original
+        parser = new CmdLineArgumentParser("-a,--action,true,ADD|REMOVE", "-n,--number,true",
+                "-s,--server,true");
+        parser.addArgumentRules("-n isInteger");
+        parser.addValidators(CmdLineValidators.matches("-s", "\\w+:\\d+"));
+        parser.setParseLimits(CmdLineParseLimits.builder().maxErrorLength(80).build());
+        
+        String[][] badValues = {{"-a", huge}, {"-n", huge}, {"-s", huge}};
+        for(String[] args : badValues){
+            try{
+                parser.reset();
+                parser.parse(args);
+                
+                fail("parse limits of values");
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+                Throwable built = e.getCause() == null ? e : e.getCause();
+                if(e.getMessage().length() > 100 || built.getMessage().length() > 200){
+                    fail("error message not abbreviated: " + built.getMessage());
+                }
+                if(e.getCause() != null && e.getStackTrace().length == 0){
+                    fail("truncated error without stack trace");
+                }
+            }
+        }
+        
+        try{
+            CmdLineParseLimits.builder().maxTokens(0);
+            
+            fail("maxTokens must be positive");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    public void testIncrementalUpdate(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,ADD|REMOVE,true", "-c,--criteria,true", 
+                "-n,--number,true", "-v,--verbose,false");
+        parser.addArgumentRules("-c dependsOn -a=ADD", "-n isInteger");
+        
+        // counts validations of a validator reading -v
+        final int[] verboseChecks = new int[1];
+        parser.addValidators(new CmdLineArgumentValidator(){
+            @Override
+            public String[] getArguments(){
+                return new String[]{"-v"};
+            }
+            
+            @Override
+            public Cost getCost(){
+                return Cost.CHEAP;
+            }
+            
+            @Override
+            public void validate(CmdLineValues values){
+                verboseChecks[0]++;
+            }
+        });
+        
+        parser.parse("-a", "ADD", "-c", "x");
+        CmdLineParseResult session = parser.getParseResult();
+        
+        CmdLineParseResult updated = session.update(new CmdLineDelta()
+                .set("-n", "12").set("--verbose"));
+        if(!"12".equals(updated.getArgumentValue("--number")) || 
+           !updated.isArgumentSupplied("-v") ||
+           session.isArgumentSupplied("-n") || verboseChecks[0] != 2)
+        {
+            fail("incremental update: " + updated);
+        }
+        
+        // rules reading changed arguments only are validated
+        updated = updated.update(new CmdLineDelta().set("-n", "7"));
+        if(verboseChecks[0] != 2){
+            fail("validator not reading changed arguments validated");
+        }
+        
+        CmdLineDelta[] invalidDeltas = {
+            new CmdLineDelta().set("-a", "REMOVE"),     // -c depends on -a=ADD
+            new CmdLineDelta().set("-n", "seven"),      // -n isInteger
+            new CmdLineDelta().unset("--action"),       // mandatory
+            new CmdLineDelta().set("-a", "DROP"),       // not in enumeration
+            new CmdLineDelta().set("-n"),               // no value
+        };
+        for(CmdLineDelta delta : invalidDeltas){
+            try{
+                updated.update(delta);
+                
+                fail("invalid delta: " + delta);
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+            }
+        }
+        
+        updated = updated.update(new CmdLineDelta().unset("-c").set("-a", "REMOVE"));
+        if(!"REMOVE".equals(updated.getArgumentValue("-a")) || updated.isArgumentSupplied("-c")){
+            fail("incremental update: " + updated);
+        }
+    }
+    
+    public void testValueSources() throws IOException{
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,ADD|REMOVE,true", "-i,--inputFile,true", 
+                "-n,--number,true", "-v,--verbose,false", "-l,--log-level,true");
+        
+        Map<String, String> env = new HashMap<>();
+        env.put("TOOL_ACTION", "ADD");
+        env.put("TOOL_VERBOSE", "yes");
+        env.put("TOOL_LOG_LEVEL", "debug");
+        
+        Path file = Files.createTempFile("cmdline", ".properties");
+        try{
+            Files.write(file, "inputFile = a.txt\nnumber=1\n".getBytes("UTF-8"));
+            
+            final int[] calls = new int[1];
+            parser.addValueSources(CmdLineValueSources.environment(env, "TOOL_"), 
+                    CmdLineValueSources.properties(file));
+            parser.setDefault("-n", "0");
+            parser.setDefault("--log-level", () -> {
+                calls[0]++;
+                return "info";
+            });
+            
+            // command line first, then sources in order, then defaults
+            parser.parse("-i", "b.txt");
+            if(!"ADD".equals(parser.getArgumentValue("-a")) || !parser.isArgumentSupplied("-v") ||
+               !"b.txt".equals(parser.getArgumentValue("-i")) || 
+               !"1".equals(parser.getArgumentValue("-n")) ||
+               !"debug".equals(parser.getArgumentValue("-l")) || calls[0] != 0)
+            {
+                fail("value sources: " + parser.getParseResult());
+            }
+            
+            // command line values are kept until reset, resolved values are
+            // resolved again by next parse
+            env.remove("TOOL_LOG_LEVEL");
+            env.put("TOOL_VERBOSE", "false");
+            parser.parse("-a", "REMOVE");
+            if(!"REMOVE".equals(parser.getArgumentValue("-a")) || parser.isArgumentSupplied("-v") ||
+               !"b.txt".equals(parser.getArgumentValue("-i")) || 
+               !"info".equals(parser.getArgumentValue("-l")) || calls[0] != 1)
+            {
+                fail("value sources: " + parser.getParseResult());
+            }
+            
+            // file changed, cached content is reloaded
+            Files.write(file, "inputFile=c.txt\n".getBytes("UTF-8"));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(
+                    Files.getLastModifiedTime(file).toMillis() + 2000));
+            parser.reset();
+            parser.parse();
+            if(!"c.txt".equals(parser.getArgumentValue("-i")) || 
+               !"0".equals(parser.getArgumentValue("-n")))
+            {
+                fail("properties file not reloaded: " + parser.getParseResult());
+            }
+        }finally{
+            Files.delete(file);
+        }
+        
+        // values from sources are validated the same way
+        String[][] invalidValues = {
+            {"TOOL_ACTION", "DROP"},            // not in enumeration
+            {"TOOL_VERBOSE", "maybe"},          // not a boolean
+        };
+        for(String[] invalid : invalidValues){
+            Map<String, String> values = new HashMap<>(env);
+            values.put(invalid[0], invalid[1]);
+            CmdLineArgumentParser p = new CmdLineArgumentParser(
+                    "-a,--action,true,ADD|REMOVE,true", "-v,--verbose,false");
+            p.addValueSources(CmdLineValueSources.environment(values, "TOOL_"));
+            try{
+                p.parse();
+                
+                fail("invalid value: " + invalid[1]);
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+            }
+        }
+        
+        try{
+            parser.setDefault("--undefined", "x");
+            
+            fail("default of undefined argument");
+        }catch(RuntimeException e){
+            // exception expected
+        }
+    }
+    
+    public void testDefaultsWatcher() throws Exception{
+        CmdLineArgumentParser parser = CmdLineArgumentParser.forClass(AnnotatedConfig.class);
+        parser.parse("-a", "ADD", "-c", "x");
+        
+        Path dir = Files.createTempDirectory("cmdline");
+        Path file = dir.resolve("defaults.properties");
+        Files.write(file, "quantity=10\naction=REMOVE\n".getBytes("UTF-8"));
+        
+        AnnotatedConfig config = new AnnotatedConfig();
+        parser.setArgumentsTo(config);
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        try(CmdLineDefaultsWatcher watcher = parser.watchDefaults(file, config)){
+            watcher.onReload(events::add).onError(events::add);
+            
+            // values of the file apply to arguments not in command line
+            if(config.qty != 10 || config.action != Action.ADD || 
+               !"10".equals(watcher.getParseResult().getArgumentValue("-q")))
+            {
+                fail("defaults not applied: " + watcher.getParseResult());
+            }
+            
+            Files.write(file, "quantity=20\nforce=true\n".getBytes("UTF-8"));
+            Object event = events.poll(10, TimeUnit.SECONDS);
+            if(!(event instanceof CmdLineParseResult) || config.qty != 20 || !config.force ||
+               !"20".equals(watcher.getParseResult().getArgumentValue("--quantity")))
+            {
+                fail("defaults not reloaded: " + event);
+            }
+            
+            // invalid edits are rejected, -q lessThan 100
+            Files.write(file, "quantity=200\n".getBytes("UTF-8"));
+            event = events.poll(10, TimeUnit.SECONDS);
+            if(!(event instanceof IllegalArgumentException) || config.qty != 20 ||
+               !"20".equals(watcher.getParseResult().getArgumentValue("-q")))
+            {
+                fail("invalid defaults not rejected: " + event);
+            }
+            asExpected((Exception)event);
+            
+            // values removed fall back to values at start, or are unset
+            Files.write(file, "force=false\n".getBytes("UTF-8"));
+            events.poll(10, TimeUnit.SECONDS);
+            CmdLineParseResult result = watcher.getParseResult();
+            if(result.isArgumentSupplied("-q") || result.isArgumentSupplied("-f") || 
+               !"ADD".equals(result.getArgumentValue("-a")))
+            {
+                fail("defaults removed: " + result);
+            }
+            if(config.qty != 0 || config.force || config.action != Action.ADD){
+                fail("defaults removed not unset in config");
+            }
+        }finally{
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+    
+    static class TunableApp {
+        private boolean verbose;
+        private String level;
+        private int retries;
+        
+        public void setLevel(String level){
+            this.level = level;
+        }
+    }
+    
+    public void testDefaultsWatcherUnset() throws Exception{
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-v,--verbose,false",
+                "-l,--level,true"
+        );
+        parser.parse();
+        
+        Path dir = Files.createTempDirectory("cmdline");
+        Path file = dir.resolve("defaults.properties");
+        Files.write(file, "verbose=true\nlevel=3\n".getBytes("UTF-8"));
+        
+        TunableApp app = new TunableApp();
+        try(CmdLineDefaultsWatcher watcher = parser.watchDefaults(file, app)){
+            if(!app.verbose || !"3".equals(app.level)){
+                fail("defaults not applied");
+            }
+            
+            // a flag turned off and a value removed are unset in the app too
+            Files.write(file, "verbose=false\n".getBytes("UTF-8"));
+            if(!watcher.reload()){
+                fail("defaults not reloaded");
+            }
+            CmdLineParseResult result = watcher.getParseResult();
+            if(app.verbose || app.level != null || 
+               result.isArgumentSupplied("-v") || result.isArgumentSupplied("-l"))
+            {
+                fail("defaults unset: verbose=" + app.verbose + " level=" + app.level + 
+                        ", " + result);
+            }
+            
+            // rejected silently without an error listener, values applied are kept
+            Files.write(file, "verbose=maybe\nlevel=4\n".getBytes("UTF-8"));
+            if(watcher.reload() || app.verbose || app.level != null){
+                fail("invalid defaults not rejected");
+            }
+        }finally{
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+    
+    public void testDefaultsWatcherAllOrNothing() throws Exception{
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-l,--level,true",
+                "-r,--retries,true"
+        );
+        parser.parse();
+        
+        Path dir = Files.createTempDirectory("cmdline");
+        Path file = dir.resolve("defaults.properties");
+        Files.write(file, "level=3\nretries=2\n".getBytes("UTF-8"));
+        
+        TunableApp app = new TunableApp();
+        try(CmdLineDefaultsWatcher watcher = parser.watchDefaults(file, app)){
+            if(!"3".equals(app.level) || app.retries != 2){
+                fail("defaults not applied: level=" + app.level + " retries=" + app.retries);
+            }
+            
+            // retries can't be converted, level set before it is not applied either
+            Files.write(file, "level=4\nretries=many\n".getBytes("UTF-8"));
+            if(watcher.reload() || !"3".equals(app.level) || app.retries != 2){
+                fail("defaults half applied: level=" + app.level + " retries=" + app.retries);
+            }
+            if(!"3".equals(watcher.getParseResult().getArgumentValue("--level"))){
+                fail("parse result updated: " + watcher.getParseResult());
+            }
+        }finally{
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+    
+    public void testSchemaRegistryPlugins(){
+        CmdLineSchemaRegistry registry = new CmdLineSchemaRegistry();
+        registry.register("runner", schema -> 
+                schema.addSubcommand("run", sub -> sub.defineArguments("-j,--job,true,,true")));
+        
+        CmdLineParseResult result = registry.parse("run", "-j", "nightly");
+        if(!"run".equals(result.getSubcommand()) || !"nightly".equals(result.getArgumentValue("--job")) ||
+           result.getSchemaVersion() != 2)
+        {
+            fail("plugin subcommand: " + result);
+        }
+        
+        try{
+            registry.parse("run");
+            
+            fail("plugin subcommand rule");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        // help of a request doesn't exit the dispatcher
+        result = registry.parse("-h");
+        if(!result.isArgumentSupplied("--help")){
+            fail("help of registry: " + result);
+        }
+        
+        // values don't persist across parses
+        result = registry.parse();
+        if(result.isArgumentSupplied("-h") || result.getSubcommand() != null){
+            fail("registry parse not cleared: " + result);
+        }
+    }
+    
+    public void testSchemaRegistryLockFree() throws Exception{
+        final CmdLineSchemaRegistry registry = new CmdLineSchemaRegistry();
+        registry.register("audit", schema -> {
+            schema.defineArguments("-l,--audit-level,true");
+            schema.addArgumentRules("-l isInteger");
+        });
+        
+        final AtomicReference<CmdLineParseResult> parsed = new AtomicReference<>();
+        Thread parser = new Thread(() -> parsed.set(registry.parse("-l", "3")));
+        
+        // a parse doesn't lock the snapshot nor its parent
+        CmdLineSchema snapshot = registry.getSchema();
+        synchronized(snapshot){
+            synchronized(snapshot.getParent()){
+                parser.start();
+                parser.join(5000);
+            }
+        }
+        
+        if(parsed.get() == null || !"3".equals(parsed.get().getArgumentValue("-l"))){
+            parser.join();
+            fail("registry parse blocked by schema lock");
+        }
+    }
+    
+    public void testSchemaRegistry() throws Exception{
+        CmdLineSchema common = new CmdLineSchema();
+        common.defineArguments("-v,--verbose,false");
+        final CmdLineSchemaRegistry registry = new CmdLineSchemaRegistry(common);
+        
+        CmdLineParseResult result = registry.parse("-v");
+        if(result.getSchemaVersion() != 1 || !result.isArgumentSupplied("-v")){
+            fail("registry parse: " + result);
+        }
+        
+        registry.register("audit", schema -> schema.defineArguments("-l,--audit-level,true"));
+        result = registry.parse("-l", "3");
+        if(result.getSchemaVersion() != 2 || !"3".equals(result.getArgumentValue("--audit-level"))){
+            fail("plugin options: " + result);
+        }
+        
+        // a failed change publishes nothing
+        try{
+            registry.register("broken", schema -> schema.defineArguments("-l,--level,true"));
+            
+            fail("duplicated plugin option");
+        }catch(RuntimeException e){
+            // exception expected
+            asExpected(e);
+        }
+        if(registry.getVersion() != 2){
+            fail("failed change published");
+        }
+        
+        registry.unregister("audit");
+        try{
+            registry.parse("-l", "3");
+            
+            fail("unregistered plugin option");
+        }catch(IllegalArgumentException e){
+            // exception expected
+        }
+        
+        // parses never see a half updated schema, options of the plugin 
+        // are defined in even versions only
+        final AtomicBoolean isDone = new AtomicBoolean();
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; i++){
+            threads[i] = new Thread(() -> {
+                long lastVersion = 0;
+                while(!isDone.get()){
+                    try{
+                        CmdLineParseResult r = registry.parse("-v", "-l", "3", "-t", "x");
+                        if(r.getSchemaVersion() % 2 != 0 || !"x".equals(r.getArgumentValue("-t"))){
+                            error.compareAndSet(null, "inconsistent result: " + r);
+                        }
+                        lastVersion = checkVersion(r, lastVersion, error);
+                    }catch(IllegalArgumentException e){
+                        // plugin unregistered
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        
+        for(int i = 0; i < 200; i++){
+            registry.register("audit", schema -> {
+                schema.defineArguments("-l,--audit-level,true");
+                schema.defineArguments("-t,--audit-target,true");
+            });
+            registry.unregister("audit");
+        }
+        isDone.set(true);
+        for(Thread t : threads){
+            t.join();
+        }
+        
+        if(error.get() != null){
+            fail(error.get());
+        }
+        if(registry.getVersion() != 403){
+            fail("registry version: " + registry.getVersion());
+        }
+    }
+    
+    private static long checkVersion(CmdLineParseResult result, long lastVersion, 
+            AtomicReference<String> error)
+    {
+        if(result.getSchemaVersion() < lastVersion){
+            error.compareAndSet(null, "schema version went back: " + result.getSchemaVersion());
+        }
+        
+        return result.getSchemaVersion();
+    }
+    
+    private static CmdLineArgumentParser newJobParser(){
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-a,--action,true,ADD|REMOVE,true", "-n,--number,true", 
+                "-c,--criteria,true", "-v,--verbose,false");
+        parser.addArgumentRules("-n isInteger", "-c dependsOn -a=ADD");
+        parser.addSubcommand("run", schema -> schema.defineArguments("-t,--threads,true"));
+        
+        return parser;
+    }
+    
+    public void testResultCodecFingerprint(){
+        CmdLineArgumentParser supervisor = new CmdLineArgumentParser("-n,--number,true");
+        supervisor.addValidators(CmdLineValidators.inRange("-n", 1, 1000));
+        supervisor.parse("-n", "500");
+        byte[] bytes = CmdLineResultCodec.encode(supervisor.getParseResult());
+        
+        // validator parameters are fingerprinted
+        CmdLineArgumentParser worker = new CmdLineArgumentParser("-n,--number,true");
+        worker.addValidators(CmdLineValidators.inRange("-n", 1, 10));
+        if(CmdLineResultCodec.fingerprint(worker.getSchema()) == 
+           CmdLineResultCodec.fingerprint(supervisor.getSchema()))
+        {
+            fail("validator parameters not fingerprinted");
+        }
+        try{
+            CmdLineResultCodec.decode(ByteBuffer.wrap(bytes), worker.getSchema());
+            
+            fail("result of another range decoded");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        // enum types are fingerprinted
+        CmdLineSchema exact = new CmdLineSchema();
+        exact.defineArgument(CmdLineArgument.builder()
+                .shortName("-a").longName("--action").hasValue(true).enumType(Action.class).build());
+        CmdLineSchema ignoreCase = new CmdLineSchema();
+        ignoreCase.defineArgument(CmdLineArgument.builder()
+                .shortName("-a").longName("--action").hasValue(true).enumType(Action.class)
+                .ignoreCase(true).build());
+        if(CmdLineResultCodec.fingerprint(exact) == CmdLineResultCodec.fingerprint(ignoreCase)){
+            fail("ignoreCase not fingerprinted");
+        }
+        
+        // results of validators without fingerprints are validated again
+        CmdLineArgumentParser lambdaSupervisor = new CmdLineArgumentParser("-n,--number,true");
+        lambdaSupervisor.addValidators(newLimitValidator(1000));
+        lambdaSupervisor.parse("-n", "500");
+        bytes = CmdLineResultCodec.encode(lambdaSupervisor.getParseResult());
+        
+        CmdLineArgumentParser lambdaWorker = new CmdLineArgumentParser("-n,--number,true");
+        lambdaWorker.addValidators(newLimitValidator(10));
+        try{
+            CmdLineResultCodec.decode(ByteBuffer.wrap(bytes), lambdaWorker.getSchema());
+            
+            fail("result of validator without fingerprint not validated");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    private static CmdLineArgumentValidator newLimitValidator(final int limit){
+        return new CmdLineArgumentValidator(){
+            @Override
+            public String[] getArguments(){
+                return new String[]{"-n"};
+            }
+            
+            @Override
+            public Cost getCost(){
+                return Cost.CHEAP;
+            }
+            
+            @Override
+            public void validate(CmdLineValues values){
+                String value = values.getArgumentValue("-n");
+                if(value != null && Integer.parseInt(value) > limit){
+                    throw new IllegalArgumentException("-n over " + limit + ": " + value);
+                }
+            }
+        };
+    }
+    
+    public void testResultCodec() throws IOException{
+        CmdLineArgumentParser supervisor = newJobParser();
+        supervisor.parse("-a", "ADD", "-n", "-42", "-c", "中文 😀", "-v", 
+                "run", "-t", "007");
+        CmdLineParseResult result = supervisor.getParseResult();
+        
+        byte[] bytes = CmdLineResultCodec.encode(result);
+        if(bytes.length != CmdLineResultCodec.encodedSize(result)){
+            fail("encoded size: " + bytes.length);
+        }
+        
+        // worker decodes by its own parser of the same definitions
+        CmdLineArgumentParser worker = newJobParser();
+        ByteArrayOutputStream pipe = new ByteArrayOutputStream();
+        CmdLineResultCodec.write(result, pipe);
+        worker.load(CmdLineResultCodec.read(new ByteArrayInputStream(pipe.toByteArray()), 
+                worker.getSchema()));
+        if(!result.toString().equals(worker.getParseResult().toString()) || 
+           !"run".equals(worker.getSubcommand()) || !"007".equals(worker.getArgumentValue("-t")) ||
+           !"-42".equals(worker.getArgumentValue("--number")))
+        {
+            fail("decoded: " + worker.getParseResult() + " vs " + result);
+        }
+        
+        // direct buffer, from its position
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+        buffer.position(3);
+        CmdLineResultCodec.encode(result, buffer);
+        buffer.position(3);
+        if(!result.toString().equals(CmdLineResultCodec.decode(buffer, worker.getSchema()).toString())){
+            fail("decoded from direct buffer");
+        }
+        
+        // several results in a buffer, each decoded by its length
+        buffer = ByteBuffer.allocate(2 * bytes.length);
+        buffer.put(bytes).put(bytes).flip();
+        CmdLineResultCodec.decode(buffer, worker.getSchema());
+        if(buffer.position() != bytes.length || 
+           !result.toString().equals(CmdLineResultCodec.decode(buffer, worker.getSchema()).toString()) ||
+           buffer.hasRemaining())
+        {
+            fail("decoded by length: " + buffer);
+        }
+        
+        CmdLineArgumentParser other = newJobParser();
+        other.addArgumentRules("-n lessThan 100");
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 2);
+        // bytes of values missing, or trailing, within the encoded length
+        byte[] shortened = Arrays.copyOf(truncated, truncated.length);
+        ByteBuffer.wrap(shortened).putInt(5, truncated.length - 9);
+        byte[] trailing = Arrays.copyOf(bytes, bytes.length + 2);
+        ByteBuffer.wrap(trailing).putInt(5, trailing.length - 9);
+        Object[][] invalids = {
+            {bytes, other.getSchema()},                     // another fingerprint
+            {truncated, worker.getSchema()},                // truncated
+            {shortened, worker.getSchema()},                // length of truncated
+            {trailing, worker.getSchema()},                 // trailing bytes
+            {new byte[]{1, 2, 3, 4, 5}, worker.getSchema()} // not a parse result
+        };
+        for(Object[] invalid : invalids){
+            try{
+                CmdLineResultCodec.decode(ByteBuffer.wrap((byte[])invalid[0]), 
+                        (CmdLineSchema)invalid[1]);
+                
+                fail("invalid encoding decoded");
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+            }
+        }
+        
+        if(!CmdLineResultCodec.isCanonicalInteger("-9223372036854775808") ||
+           CmdLineResultCodec.isCanonicalInteger("9223372036854775808") ||
+           CmdLineResultCodec.isCanonicalInteger("-0") || 
+           CmdLineResultCodec.isCanonicalInteger("+1") ||
+           CmdLineResultCodec.isCanonicalInteger(""))
+        {
+            fail("canonical integers");
+        }
+    }
+    
+    public void testArgvBuilder(){
+        CmdLineArgumentParser parent = newJobParser();
+        parent.parse("-v", "-a", "ADD", "-c", "it's here", "run", "-t", "4");
+        
+        CmdLineArgvBuilder builder = new CmdLineArgvBuilder(parent.getParseResult())
+                .command("java", "-jar", "job.jar")
+                .set("-n", "-1")
+                .unset("--verbose");
+        String[] argv = builder.build();
+        String[] expected = {"java", "-jar", "job.jar", "--action", "ADD", "--number", "-1", 
+            "--criteria", "it's here", "run", "--threads", "4"};
+        if(!Arrays.equals(argv, expected)){
+            fail("argv: " + Arrays.toString(argv));
+        }
+        
+        // the child parses the same values
+        CmdLineArgumentParser child = newJobParser();
+        child.parse(Arrays.copyOfRange(argv, 3, argv.length));
+        if(!child.getParseResult().toString().equals(builder.validate().toString())){
+            fail("child parse: " + child.getParseResult());
+        }
+        
+        if(!"java -jar job.jar --action ADD --number -1 --criteria 'it'\\''s here' run --threads 4"
+                .equals(builder.toCommandLine()) || !"''".equals(CmdLineArgvBuilder.quote("")))
+        {
+            fail("command line quoted: " + builder.toCommandLine());
+        }
+        
+        List<String> reused = new ArrayList<>();
+        builder.clear().useShortNames(true).command().appendTo(reused);
+        if(!reused.equals(Arrays.asList("-a", "ADD", "-c", "it's here", "-v", "run", "-t", "4"))){
+            fail("argv by short names: " + reused);
+        }
+        
+        String[][] invalidOverrides = {
+            {"-a", "REMOVE"},       // -c depends on -a=ADD
+            {"-n", "one"},          // -n isInteger
+            {"-c", "-x"},           // taken as an argument
+        };
+        for(String[] override : invalidOverrides){
+            try{
+                builder.clear().set(override[0], override[1]).build();
+                
+                fail("invalid override: " + Arrays.toString(override));
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+            }
+        }
+    }
+    
+    public void testAuditLog() throws IOException{
+        Path dir = Files.createTempDirectory("audit");
+        try{
+            CmdLineArgumentParser parser = newJobParser();
+            try(CmdLineAuditLog auditLog = CmdLineAuditLog.builder(dir)
+                    .segmentSize(1024).syncEvery(10).open())
+            {
+                parser.setAuditLog(auditLog);
+                for(int i = 0; i < 100; i++){
+                    parser.reset();
+                    parser.parse("-a", "ADD", "-n", String.valueOf(i), "-c", "第" + i);
+                }
+                
+                // invalid command lines are not audited
+                try{
+                    parser.parse("-a", "REMOVE", "-n", "x");
+                    
+                    fail("invalid command line");
+                }catch(IllegalArgumentException e){
+                    // exception expected
+                }
+            }
+            
+            // another log of the directory starts a new segment
+            try(CmdLineAuditLog auditLog = CmdLineAuditLog.builder(dir).open()){
+                parser.setAuditLog(auditLog);
+                parser.reset();
+                parser.parse("-a", "REMOVE", "run", "-t", "8");
+            }
+            
+            int segments = 0;
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                for(Path segment : stream){
+                    segments++;
+                }
+            }
+            if(segments < 3){
+                fail("audit log segments not rolled: " + segments);
+            }
+            
+            int i = 0;
+            long lastTimestamp = 0;
+            for(CmdLineAuditLog.Entry entry : CmdLineAuditLog.read(dir)){
+                CmdLineParseResult result = entry.decode(parser.getSchema());
+                String expected = i < 100 ? "--action ADD --number " + i + " --criteria 第" + i : 
+                        "run --action REMOVE --threads 8";
+                if(!expected.equals(result.toString()) || entry.getTimestamp() < lastTimestamp ||
+                   entry.getFingerprint() != CmdLineResultCodec.fingerprint(result.getSchema()))
+                {
+                    fail("audit entry " + i + ": " + result);
+                }
+                
+                lastTimestamp = entry.getTimestamp();
+                i++;
+            }
+            if(i != 101){
+                fail("audit entries: " + i);
+            }
+        }finally{
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                for(Path segment : stream){
+                    Files.delete(segment);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+    
+    static class EnumConfig {
+        @Option(shortName = "-a", ignoreCase = true, mandatory = true)
+        private Action action;
+    }
+    
+    public void testEnumOptions(){
+        CmdLineSchema schema = new CmdLineSchema();
+        schema.defineArgument(CmdLineArgument.builder()
+                .shortName("-a").longName("--action")
+                .hasValue(true)
+                .enumType(Action.class)
+                .ignoreCase(true)
+                .build());
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(schema);
+        parser.parse("-a", "add");
+        
+        // the constant name itself, not the string of argv
+        if(parser.getArgumentValue("-a") != Action.ADD.name() ||
+           parser.getEnumValue("--action", Action.class) != Action.ADD)
+        {
+            fail("enum option value: " + parser.getArgumentValue("-a"));
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("-a", "DROP");
+            
+            fail("enum option value not a constant");
+        }catch(RuntimeException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        // exact match only without ignoreCase
+        CmdLineArgumentParser exact = CmdLineArgumentParser.forClass(AnnotatedConfig.class);
+        try{
+            exact.parse("-a", "remove", "-f");
+            
+            fail("enum option case");
+        }catch(RuntimeException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        try{
+            CmdLineArgument.builder().shortName("-x").hasValue(true).ignoreCase(true).build();
+            
+            fail("ignoreCase without enum type");
+        }catch(IllegalArgumentException e){
+            // exception expected
+            asExpected(e);
+        }
+        
+        CmdLineArgumentParser annotated = CmdLineArgumentParser.forClass(EnumConfig.class);
+        annotated.parse("-a", "Remove");
+        EnumConfig config = new EnumConfig();
+        annotated.setArgumentsTo(config);
+        if(config.action != Action.REMOVE){
+            fail("enum option binding");
+        }
+        
+        // enum class and case are kept by compiled schemas
+        CmdLineCompiledSchema compiled = schema.compile();
+        int ordinal = compiled.ordinalOf("-a");
+        if(compiled.getEnumType(ordinal) != Action.class || !compiled.isIgnoreCase(ordinal) ||
+           !compiled.isPermitted(ordinal, "remove") || compiled.isPermitted(ordinal, "DROP"))
+        {
+            fail("compiled enum option");
+        }
+        
+        CmdLineArgumentParser inflated = new CmdLineArgumentParser(compiled.toSchema());
+        inflated.parse("--action", "rEmOvE");
+        if(inflated.getArgumentValue("-a") != Action.REMOVE.name()){
+            fail("inflated enum option");
+        }
+    }
+    
+    // "AO" and "B0" have the same String hash code
+    enum Grade { AO, B0 }
+    
+    public void testEnumHashCollision(){
+        if("AO".hashCode() != "B0".hashCode()){
+            fail("names don't collide");
+        }
+        
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(new CmdLineSchema());
+        parser.getSchema().defineArgument(CmdLineArgument.builder()
+                .shortName("-g").longName("--grade").hasValue(true)
+                .enumType(Grade.class)
+                .ignoreCase(true)
+                .build());
+        
+        parser.parse("-g", "ao");
+        if(parser.getArgumentValue("-g") != Grade.AO.name()){
+            fail("colliding enum value: " + parser.getArgumentValue("-g"));
+        }
+        
+        parser.reset();
+        parser.parse("-g", "B0");
+        if(parser.getEnumValue("-g", Grade.class) != Grade.B0){
+            fail("colliding enum value: " + parser.getArgumentValue("-g"));
+        }
+        
+        try{
+            parser.reset();
+            parser.parse("-g", "C0");
+            
+            fail("enum value not a constant");
+        }catch(RuntimeException e){
+            // exception expected
+            asExpected(e);
+        }
+    }
+    
+    // an enum of hundreds of constants, hashed without scan
+    enum Station {
+        S0, S1, S2, S3, S4, S5, S6, S7, S8, S9, S10, S11, S12, S13, S14, S15, S16, S17, S18, S19,
+        S20, S21, S22, S23, S24, S25, S26, S27, S28, S29, S30, S31, S32, S33, S34, S35, S36, S37, S38, S39,
+        S40, S41, S42, S43, S44, S45, S46, S47, S48, S49, S50, S51, S52, S53, S54, S55, S56, S57, S58, S59,
+        S60, S61, S62, S63, S64, S65, S66, S67, S68, S69, S70, S71, S72, S73, S74, S75, S76, S77, S78, S79,
+        S80, S81, S82, S83, S84, S85, S86, S87, S88, S89, S90, S91, S92, S93, S94, S95, S96, S97, S98, S99,
+        S100, S101, S102, S103, S104, S105, S106, S107, S108, S109, S110, S111, S112, S113, S114, S115, S116, S117, S118, S119,
+        S120, S121, S122, S123, S124, S125, S126, S127, S128, S129, S130, S131, S132, S133, S134, S135, S136, S137, S138, S139,
+        S140, S141, S142, S143, S144, S145, S146, S147, S148, S149, S150, S151, S152, S153, S154, S155, S156, S157, S158, S159,
+        S160, S161, S162, S163, S164, S165, S166, S167, S168, S169, S170, S171, S172, S173, S174, S175, S176, S177, S178, S179,
+        S180, S181, S182, S183, S184, S185, S186, S187, S188, S189, S190, S191, S192, S193, S194, S195, S196, S197, S198, S199,
+        S200, S201, S202, S203, S204, S205, S206, S207, S208, S209, S210, S211, S212, S213, S214, S215, S216, S217, S218, S219,
+        S220, S221, S222, S223, S224, S225, S226, S227, S228, S229, S230, S231, S232, S233, S234, S235, S236, S237, S238, S239,
+        S240, S241, S242, S243, S244, S245, S246, S247, S248, S249, S250, S251, S252, S253, S254, S255, S256, S257, S258, S259,
+        S260, S261, S262, S263, S264, S265, S266, S267, S268, S269, S270, S271, S272, S273, S274, S275, S276, S277, S278, S279,
+        S280, S281, S282, S283, S284, S285, S286, S287, S288, S289, S290, S291, S292, S293, S294, S295, S296, S297, S298, S299,
+        S300, S301, S302, S303, S304, S305, S306, S307, S308, S309, S310, S311, S312, S313, S314, S315, S316, S317, S318, S319,
+        S320, S321, S322, S323, S324, S325, S326, S327, S328, S329, S330, S331, S332, S333, S334, S335, S336, S337, S338, S339,
+        S340, S341, S342, S343, S344, S345, S346, S347, S348, S349, S350, S351, S352, S353, S354, S355, S356, S357, S358, S359,
+        S360, S361, S362, S363, S364, S365, S366, S367, S368, S369, S370, S371, S372, S373, S374, S375, S376, S377, S378, S379,
+        S380, S381, S382, S383, S384, S385, S386, S387, S388, S389, S390, S391, S392, S393, S394, S395, S396, S397, S398, S399
+    }
+    
+    public void testEnumIndexLarge(){
+        CmdLineEnumIndex index = CmdLineEnumIndex.of(Station.class);
+        if(!index.toString().contains("table")){
+            fail("large enum not hashed: " + index);
+        }
+        
+        for(Station station : Station.values()){
+            if(index.lookup(station.name(), false) != station ||
+               index.lookup(station.name().toLowerCase(), true) != station ||
+               index.lookup(station.name().toLowerCase(), false) != null)
+            {
+                fail("large enum lookup: " + station);
+            }
+        }
+        
+        if(index.lookup("S400", true) != null || index.lookup("", true) != null){
+            fail("large enum lookup of no constant");
+        }
+    }
+    
+    public void testParseContext(){
+        CmdLineArgumentParser parser = newJobParser();
+        CmdLineParseContext context = parser.newParseContext();
+        
+        String[] args = {"-v", "-a", "ADD", "-c", "x", "-n", "-5", "run", "-t", "4"};
+        context.parse(args);
+        if(!"ADD".equals(context.getArgumentValue("--action")) || 
+           !"".equals(context.getArgumentValue("-v")) ||
+           !"-5".equals(context.getArgumentValue("-n")) ||
+           !"run".equals(context.getSubcommand()) ||
+           !"4".equals(context.getArgumentValue("--threads")))
+        {
+            fail("parse context values: " + context.getParseResult());
+        }
+        
+        // values don't persist across parses
+        context.parse("-a", "REMOVE");
+        if(context.isArgumentSupplied("-v") || context.getSubcommand() != null ||
+           !"REMOVE".equals(context.getArgumentValue("-a")))
+        {
+            fail("parse context cleared");
+        }
+        
+        CmdLineParseResult result = context.getParseResult();
+        context.clear();
+        if(!"REMOVE".equals(result.getArgumentValue("-a")) || context.isArgumentSupplied("-a")){
+            fail("parse context result");
+        }
+        
+        String[][] badArgs = {
+            {"-a", "ADD", "-n", "x"},       // -n isInteger
+            {"-a", "REMOVE", "-c", "x"},    // -c dependsOn -a=ADD
+            {"-c", "x"},                    // -a is mandatory
+            {"-a", "ADD", "-x"}             // undefined
+        };
+        for(String[] bad : badArgs){
+            try{
+                context.parse(bad);
+                
+                fail("parse context validation: " + Arrays.toString(bad));
+            }catch(IllegalArgumentException e){
+                // exception expected
+                asExpected(e);
+            }
+            
+            // a failed parse leaves no values
+            if(context.isArgumentSupplied("-a")){
+                fail("parse context failed parse");
+            }
+        }
+        
+        // -h is a plain no value argument
+        context.parse("-h", "-a", "ADD");
+        if(!context.isArgumentSupplied("--help")){
+            fail("parse context help");
+        }
+        
+        // contexts of one parser are independent
+        CmdLineParseContext other = parser.newParseContext();
+        other.parse("-a", "REMOVE");
+        if(!"ADD".equals(context.getArgumentValue("-a"))){
+            fail("parse context independent");
+        }
+    }
+    
+    private static String errorOf(CmdLineArgumentParser parser, String... args){
+        try{
+            parser.reset();
+            parser.parse(args);
+        }catch(IllegalArgumentException e){
+            asExpected(e);
+            
+            return e.getMessage();
+        }
+        
+        fail("parse error expected: " + Arrays.toString(args));
+        
+        return null;
+    }
+    
+    public void testSuggestions(){
+        CmdLineArgumentParser parser = newJobParser();
+        parser.addArgumentRules("-c isIn (oldest,newest)");
+        
+        String[][] cases = {
+            {"--verbose?",  "-a", "ADD", "--verbos"},
+            {"--action?",   "--actoin", "ADD"},
+            {"-a?",         "-A", "ADD"},
+            {"--criteria?", "-a", "ADD", "--crit", "x"},        // prefix
+            {"ADD?",        "-a", "ADDD"},                      // enum value
+            {"newest?",     "-a", "ADD", "-c", "newset"},       // isIn value
+            {"run?",        "-a", "ADD", "runn"}                // subcommand
+        };
+        for(String[] c : cases){
+            String message = errorOf(parser, Arrays.copyOfRange(c, 1, c.length));
+            if(!message.endsWith("did you mean " + c[0])){
+                fail("suggestion " + c[0] + ": " + message);
+            }
+        }
+        
+        // nothing close
+        if(errorOf(parser, "-a", "ADD", "--zzzzzzzz").contains("did you mean")){
+            fail("suggestion of nothing close");
+        }
+        
+        // unambiguous prefixes of long names, if enabled
+        parser.setPrefixMatching(true);
+        parser.reset();
+        parser.parse("--act", "ADD", "--verb", "--crit", "oldest");
+        if(!parser.isArgumentSupplied("-v") || !"oldest".equals(parser.getArgumentValue("-c"))){
+            fail("prefix matching");
+        }
+        
+        CmdLineArgumentParser versions = new CmdLineArgumentParser(
+                "-v,--verbose,false", "-V,--version,false");
+        versions.setPrefixMatching(true);
+        String message = errorOf(versions, "--ver");
+        if(!message.contains("ambiguous") || !message.contains("--verbose, --version")){
+            fail("ambiguous prefix: " + message);
+        }
+        
+        // suggestions of a large schema are indexed once, queries are fast
+        String[] words = {"input", "output", "file", "dir", "max", "min", "thread", "pool", 
+                          "size", "timeout", "retry", "log", "level", "format", "user"};
+        CmdLineSchema schema = new CmdLineSchema();
+        for(int i = 0; i < 6000; i++){
+            schema.defineArgument("-o" + i + ",--" + words[i % 15] + "-" + words[i / 15 % 15] + 
+                    "-" + words[i / 225 % 15] + "-" + (i / 3375) + ",true");
+        }
+        CmdLineArgumentParser large = new CmdLineArgumentParser(schema);
+        
+        message = errorOf(large, "--outptu-file-max-1");
+        if(!message.endsWith("did you mean --output-file-max-1?")){
+            fail("suggestion of large schema: " + message);
+        }
+        
+        long start = System.nanoTime();
+        for(int i = 0; i < 100; i++){
+            errorOf(large, "--input-dri-user-0");
+        }
+        long micros = (System.nanoTime() - start) / 100 / 1000;
+        System.out.println("suggestion of 6000 arguments: " + micros + "us");
+        if(micros > 5000){
+            fail("suggestion of large schema too slow: " + micros + "us");
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,359 @@
+package cmdline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Seeded fuzz test of schemas, rules and command lines. Random schemas,
+ * rules, rule expressions and command lines, including adversarial lengths,
+ * unicode, negative numbers and empty tokens, are generated to check that
+ *
+ *    definitions throw IllegalArgumentException or RuntimeException only
+ *    parse throws IllegalArgumentException only
+ *    repeated parses of a command line give the same result
+ *    short names and long names give the same result
+ *
+ * Parse throughput across the generated corpus is reported. The seed is
+ * printed and can be set to reproduce a failure, e.g.
+ *
+ *    java -Dfuzz.seed=42 -Dfuzz.schemas=5000 cmdline.CmdLineFuzzTest
+ *
+ * @author Wayne Zhang
+ */
+public class CmdLineFuzzTest {
+    private static final long SEED = Long.getLong("fuzz.seed", 20261019L);
+    private static final int SCHEMAS = Integer.getInteger("fuzz.schemas", 1000);
+    private static final int COMMAND_LINES = 20;
+
+    private static final String[] RULES = {
+        "dependsOn", "conflictsWith", "isInteger", "isNumber", "lessThan",
+        "greatThan", "isMandatory", "isIn", "isFile", "isDir", "isReadable",
+        "isWritable", "areFiles", "areDirs", "areReadable", "areWritable", "noSuchRule"
+    };
+
+    private static final String[] UNICODE = {
+        "\u00E9t\u00E9", "\u4E2D\u6587", "\u0645\u0631\u062D\u0628\u0627",
+        "\uD83D\uDE00", "\u0000", "\t", " ", "\u200B"
+    };
+
+    private static final String[] IS_IN_LISTS = {
+        "(a,b,c)", "[a|b]", "{a}", "'a,b'", "\"a\"", "a,b", "()", "(", "'",
+        "(a,b]", "\"", "[]", "{,}", "(-1,-2)"
+    };
+
+    public static void main(String[] args){
+        TestRunner.fire(CmdLineFuzzTest.class);
+    }
+
+    private static void fail(String msg){
+        throw new AssertionError(msg);
+    }
+
+    /**
+     * Schema generated, arguments are kept to build command lines
+     */
+    private static final class FuzzSchema {
+        final List<String> shortNames = new ArrayList<>();
+        final List<String> longNames = new ArrayList<>();
+        final List<Boolean> hasValues = new ArrayList<>();
+        final List<String> definitions = new ArrayList<>();
+        final CmdLineArgumentParser parser = new CmdLineArgumentParser();
+    }
+
+    public void testFuzzParse(){
+        System.out.println("Fuzz seed: " + SEED);
+        Random random = new Random(SEED);
+
+        long parses = 0, failures = 0, nanos = 0;
+        for(int i = 0; i < SCHEMAS; i++){
+            FuzzSchema schema = newSchema(random);
+
+            for(int j = 0; j < COMMAND_LINES; j++){
+                List<Integer> arguments = new ArrayList<>();
+                String[] mixed = newCommandLine(random, schema, arguments);
+                String[] shortOnly = rename(mixed, arguments, schema.shortNames);
+                String[] longOnly = rename(mixed, arguments, schema.longNames);
+
+                long start = System.nanoTime();
+                Object r1 = parse(schema, mixed);
+                Object r2 = parse(schema, mixed);
+                Object r3 = parse(schema, shortOnly);
+                Object r4 = parse(schema, longOnly);
+                nanos += System.nanoTime() - start;
+                parses += 4;
+                if(r1 instanceof Class){
+                    failures++;
+                }
+
+                if(!r1.equals(r2)){
+                    fail("Repeated parse differs: " + describe(schema, mixed) + r1 + " vs " + r2);
+                }
+
+                if(!r1.equals(r3) || !r1.equals(r4)){
+                    fail("Short and long names differ: " + describe(schema, mixed) +
+                         r1 + " vs " + r3 + " vs " + r4);
+                }
+            }
+        }
+
+        System.out.println(String.format("Fuzz: %d parses (%d%% failed) in %.1fms, %.0f parses/s",
+                parses, failures * 400 / Math.max(1, parses), nanos / 1e6, parses * 1e9 / Math.max(1, nanos)));
+    }
+
+    /**
+     * Parse a command line
+     *
+     * @return values of all arguments by long name, or the exception class
+     *         if parse failed
+     */
+    private static Object parse(FuzzSchema schema, String[] args){
+        CmdLineArgumentParser parser = schema.parser;
+        parser.reset();
+
+        try{
+            parser.parse(args);
+        }catch(IllegalArgumentException e){
+            if(e instanceof NumberFormatException){
+                throw unexpected(schema, args, e);
+            }
+
+            return IllegalArgumentException.class;
+        }catch(RuntimeException e){
+            throw unexpected(schema, args, e);
+        }
+
+        List<String> values = new ArrayList<>();
+        for(int i = 0; i < schema.shortNames.size(); i++){
+            String value = parser.getArgumentValue(schema.longNames.get(i));
+            if(!String.valueOf(value).equals(String.valueOf(
+                    parser.getArgumentValue(schema.shortNames.get(i)))))
+            {
+                fail("Short and long name values differ: " + describe(schema, args));
+            }
+
+            values.add(value);
+        }
+
+        return values;
+    }
+
+    private static AssertionError unexpected(FuzzSchema schema, String[] args, RuntimeException e){
+        AssertionError error = new AssertionError("Unexpected exception: " + describe(schema, args));
+        error.initCause(e);
+
+        return error;
+    }
+
+    private static String describe(FuzzSchema schema, String[] args){
+        return "seed " + SEED + ", schema " + schema.definitions +
+               ", command line " + Arrays.toString(args) + " ";
+    }
+
+    private static FuzzSchema newSchema(Random random){
+        FuzzSchema schema = new FuzzSchema();
+        Set<String> names = new HashSet<>(Arrays.asList("-h", "--help"));
+
+        int size = 1 + random.nextInt(12);
+        for(int i = 0; i < size; i++){
+            String shortName = "-" + newName(random, 1 + random.nextInt(3));
+            String longName = "--" + newName(random, 1 + random.nextInt(12));
+            if(!names.add(shortName) || !names.add(longName)){
+                continue;
+            }
+
+            boolean hasValue = random.nextInt(4) > 0;
+            String enumValues = random.nextInt(4) == 0 ? "a|b|-1|" + UNICODE[random.nextInt(3)] : "";
+            String definition = shortName + "," + longName + "," + hasValue + "," + enumValues +
+                    "," + (random.nextInt(20) == 0);
+
+            if(!define(schema, definition)){
+                continue;
+            }
+            schema.shortNames.add(shortName);
+            schema.longNames.add(longName);
+            schema.hasValues.add(hasValue);
+        }
+
+        int rules = random.nextInt(4);
+        for(int i = 0; i < rules; i++){
+            String rule = newRule(random, schema);
+            if(random.nextInt(3) == 0){
+                rule = newRule(random, schema) + (random.nextBoolean() ? " && " : " || ") +
+                       (random.nextBoolean() ? "!" : "") + "(" + rule + ")";
+                if(random.nextInt(5) == 0){
+                    rule += random.nextBoolean() ? ")" : " &&";
+                }
+
+                define(schema, "expression: " + rule);
+            }else{
+                define(schema, "rule: " + rule);
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     * Define an argument, a rule or a rule expression, only
+     * IllegalArgumentException and RuntimeException are expected
+     *
+     * @return true if defined
+     */
+    private static boolean define(FuzzSchema schema, String definition){
+        schema.definitions.add(definition);
+
+        try{
+            if(definition.startsWith("rule: ")){
+                schema.parser.addArgumentRules(definition.substring(6));
+            }else if(definition.startsWith("expression: ")){
+                schema.parser.addRuleExpressions(definition.substring(12));
+            }else{
+                schema.parser.defineArgument(definition);
+            }
+
+            return true;
+        }catch(IllegalArgumentException e){
+            // definition error expected
+            return false;
+        }catch(RuntimeException e){
+            if(e.getClass() != RuntimeException.class){
+                AssertionError error = new AssertionError("Unexpected exception: seed " + SEED +
+                        ", definitions " + schema.definitions);
+                error.initCause(e);
+
+                throw error;
+            }
+
+            return false;
+        }
+    }
+
+    private static String newRule(Random random, FuzzSchema schema){
+        String arg1 = pickName(random, schema);
+        String rule = RULES[random.nextInt(RULES.length)];
+
+        String arg2;
+        switch(random.nextInt(5)){
+            case 0:
+                return arg1 + " " + rule;
+            case 1:
+                arg2 = pickName(random, schema);
+                break;
+            case 2:
+                arg2 = pickName(random, schema) + (random.nextBoolean() ? "=a" : random.nextBoolean() ? ">-1" : "<1e3");
+                break;
+            case 3:
+                arg2 = IS_IN_LISTS[random.nextInt(IS_IN_LISTS.length)];
+                break;
+            default:
+                arg2 = newValue(random);
+        }
+
+        return arg1 + " " + rule + " " + arg2;
+    }
+
+    private static String pickName(Random random, FuzzSchema schema){
+        if(schema.shortNames.isEmpty() || random.nextInt(10) == 0){
+            return "-" + newName(random, 1);
+        }
+
+        int i = random.nextInt(schema.shortNames.size());
+
+        return random.nextBoolean() ? schema.shortNames.get(i) : schema.longNames.get(i);
+    }
+
+    private static String newName(Random random, int length){
+        StringBuilder buf = new StringBuilder();
+        for(int i = 0; i < length; i++){
+            if(random.nextInt(10) == 0){
+                buf.append(UNICODE[random.nextInt(3)].charAt(0));
+            }else{
+                buf.append((char)('a' + random.nextInt(26)));
+            }
+        }
+
+        return buf.toString();
+    }
+
+    private static String newValue(Random random){
+        switch(random.nextInt(9)){
+            case 0:
+                return "";
+            case 1:
+                return String.valueOf(random.nextInt(2000) - 1000);
+            case 2:
+                return String.valueOf(random.nextDouble() * -100);
+            case 3:
+                return UNICODE[random.nextInt(UNICODE.length)];
+            case 4:
+                // adversarial length
+                char[] chars = new char[1 + random.nextInt(20000)];
+                Arrays.fill(chars, random.nextBoolean() ? 'x' : '-');
+                return new String(chars);
+            case 5:
+                return random.nextBoolean() ? "-" : "--";
+            case 6:
+                return random.nextBoolean() ? "a" : "b";
+            case 7:
+                return "-" + newName(random, 1 + random.nextInt(3));
+            default:
+                return newName(random, 1 + random.nextInt(8));
+        }
+    }
+
+    /**
+     * Build a command line, mostly of defined arguments and their values
+     *
+     * @param arguments index of argument of each token, -1 if not an argument
+     */
+    private static String[] newCommandLine(Random random, FuzzSchema schema, List<Integer> arguments){
+        List<String> tokens = new ArrayList<>();
+
+        int length = random.nextInt(8);
+        for(int i = 0; i < length; i++){
+            if(!schema.shortNames.isEmpty() && random.nextInt(8) > 0){
+                int arg = random.nextInt(schema.shortNames.size());
+                tokens.add(random.nextBoolean() ? schema.shortNames.get(arg) : schema.longNames.get(arg));
+                arguments.add(arg);
+
+                if(schema.hasValues.get(arg) && random.nextInt(8) > 0){
+                    // mostly simple values, which may pass rules
+                    tokens.add(random.nextInt(3) > 0 ? String.valueOf(random.nextInt(10)) : newValue(random));
+                    arguments.add(-1);
+                }
+            }else{
+                tokens.add(newValue(random));
+                arguments.add(-1);
+            }
+        }
+
+        // help exits, it is never fuzzed
+        for(int i = 0; i < tokens.size(); i++){
+            if(tokens.get(i).equals("-h") || tokens.get(i).equals("--help")){
+                tokens.set(i, "");
+            }
+        }
+
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Rename argument tokens to their short or long names. Values which are
+     * names of other arguments are kept, as the result doesn't depend on them.
+     */
+    private static String[] rename(String[] args, List<Integer> arguments, List<String> names){
+        String[] renamed = args.clone();
+        for(int i = 0; i < renamed.length; i++){
+            int arg = arguments.get(i);
+            if(arg >= 0){
+                renamed[i] = names.get(arg);
+            }
+        }
+
+        return renamed;
+    }
+}
@@ -0,0 +1,389 @@
+package cmdline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Cold start benchmark of short-lived tools. Each run forks a fresh JVM,
+ * which parses, validates and binds a representative command line once,
+ * and reports:
+ *
+ *    time to main      JVM launch to main(_) of the scenario
+ *    time to config    JVM launch to the config validated and bound
+ *    classes           classes loaded, cmdline classes, classes from the
+ *                      CDS archives
+ *
+ * Baseline runs, with the default CDS archive of the JDK only, are compared
+ * with runs of an AppCDS archive of the scenario classes, built locally
+ * from a class list of one run (JDK 11 or later), so that startup
+ * regressions show up in either mode, e.g.
+ *
+ *    java -cp build/classes:build/test/classes cmdline.CmdLineStartupBenchmark --runs 20
+ *
+ * Launch time is taken by System.nanoTime() of the harness before the fork,
+ * which shares the monotonic clock with the forked JVM on one host. Medians
+ * are printed, and appended to a CSV file if --report is set, to track the
+ * trend across builds.
+ *
+ * @author Wayne Zhang
+ */
+public class CmdLineStartupBenchmark {
+    private static final String SCENARIO = Scenario.class.getName();
+
+    private final int runs;
+    private final int warmupRuns;
+    private final String appCds;
+    private final String report;
+    private final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    private final boolean isJava8 = System.getProperty("java.specification.version").startsWith("1.");
+
+    // work directory of jars, class list and archive
+    private Path workDir;
+    private String classPath;
+
+    CmdLineStartupBenchmark(int runs, int warmupRuns, String appCds, String report){
+        this.runs = runs;
+        this.warmupRuns = warmupRuns;
+        this.appCds = appCds;
+        this.report = report;
+    }
+
+    public static void main(String[] args) throws Exception{
+        CmdLineArgumentParser parser = new CmdLineArgumentParser(
+                "-r,--runs,true",
+                "-w,--warmupRuns,true",
+                "-c,--appCds,true,on|off|both",
+                "-o,--report,true"
+        );
+        parser.addArgumentRules(
+                "-r isInteger",
+                "-r greatThan 0",
+                "-w isInteger"
+        );
+        parser.parse(args);
+
+        new CmdLineStartupBenchmark(
+                Integer.parseInt(parser.getArgumentValue("-r", "10")),
+                Integer.parseInt(parser.getArgumentValue("-w", "2")),
+                parser.getArgumentValue("-c", "both"),
+                parser.getArgumentValue("-o")
+        ).run();
+    }
+
+    void run() throws IOException, InterruptedException{
+        workDir = Files.createTempDirectory("startup");
+        try{
+            // CDS archives classes of jars only, both modes run the same jars
+            classPath = toJars(System.getProperty("java.class.path"));
+
+            if(!"on".equals(appCds)){
+                report("baseline", measure(Collections.<String>emptyList()));
+            }
+
+            if(!"off".equals(appCds)){
+                if(isJava8 || Integer.parseInt(System.getProperty("java.specification.version")) < 11){
+                    System.out.println("appcds: AppCDS needs JDK 11 or later, skipped");
+                }else{
+                    report("appcds", measure(Arrays.asList(
+                            "-Xshare:auto", "-XX:SharedArchiveFile=" + buildArchive())));
+                }
+            }
+        }finally{
+            delete(workDir);
+        }
+    }
+
+    /**
+     * Jar directories of a class path
+     *
+     * @return class path of jars
+     */
+    private String toJars(String path) throws IOException{
+        List<String> jars = new ArrayList<>();
+        for(String element : path.split(File.pathSeparator)){
+            Path dir = Paths.get(element);
+            if(!Files.isDirectory(dir)){
+                jars.add(element);
+                continue;
+            }
+
+            Path jar = workDir.resolve("classes" + jars.size() + ".jar");
+            try(JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))){
+                addEntries(out, dir);
+            }
+            jars.add(jar.toString());
+        }
+
+        return String.join(File.pathSeparator, jars);
+    }
+
+    private static void addEntries(final JarOutputStream out, final Path dir) throws IOException{
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException{
+                String name = dir.relativize(file).toString().replace(File.separatorChar, '/');
+                out.putNextEntry(new JarEntry(name));
+                Files.copy(file, out);
+                out.closeEntry();
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Build an AppCDS archive of the classes loaded by one run
+     *
+     * @return archive file
+     */
+    private String buildArchive() throws IOException, InterruptedException{
+        Path classList = workDir.resolve("classes.lst");
+        Path archive = workDir.resolve("startup.jsa");
+
+        fork(Arrays.asList("-Xshare:off", "-XX:DumpLoadedClassList=" + classList),
+                Collections.singletonList(SCENARIO));
+        fork(Arrays.asList("-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                "-XX:SharedArchiveFile=" + archive), Collections.<String>emptyList());
+
+        return archive.toString();
+    }
+
+    /**
+     * Measure runs of the scenario by JVM options
+     *
+     * @return samples of runs, warmup runs excluded
+     */
+    private List<Sample> measure(List<String> options) throws IOException, InterruptedException{
+        List<String> jvmOptions = new ArrayList<>(options);
+        jvmOptions.add(isJava8 ? "-verbose:class" : "-Xlog:class+load=info:stdout");
+
+        List<Sample> samples = new ArrayList<>();
+        for(int i = 0; i < warmupRuns + runs; i++){
+            long launch = System.nanoTime();
+            List<String> lines = fork(jvmOptions, Collections.singletonList(SCENARIO));
+            long exit = System.nanoTime();
+
+            if(i >= warmupRuns){
+                samples.add(Sample.of(lines, launch, exit));
+            }
+        }
+
+        return samples;
+    }
+
+    /**
+     * Fork a JVM of the class path
+     *
+     * @return lines of output, stdout and stderr
+     */
+    private List<String> fork(List<String> options, List<String> mainAndArgs)
+            throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(options);
+        command.add("-cp");
+        command.add(classPath);
+        command.addAll(mainAndArgs);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<>();
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while((line = in.readLine()) != null){
+                lines.add(line);
+            }
+        }
+
+        int code = process.waitFor();
+        if(code != 0){
+            throw new IllegalStateException("Exit code " + code + ": " + String.join(" ", command) +
+                    System.lineSeparator() + String.join(System.lineSeparator(), lines));
+        }
+
+        return lines;
+    }
+
+    private void report(String mode, List<Sample> samples) throws IOException{
+        long toMain = median(samples, 0);
+        long toConfig = median(samples, 1);
+        long toExit = median(samples, 2);
+        long classes = median(samples, 3);
+        long cmdlineClasses = median(samples, 4);
+        long sharedClasses = median(samples, 5);
+
+        System.out.printf("%s: time to main %.1fms, time to config %.1fms, exit %.1fms, " +
+                "classes %d (cmdline %d, shared %d), median of %d runs%n",
+                mode, toMain / 1e6, toConfig / 1e6, toExit / 1e6,
+                classes, cmdlineClasses, sharedClasses, samples.size());
+
+        if(report != null){
+            try(PrintWriter out = new PrintWriter(new FileWriter(report, true))){
+                out.println(System.currentTimeMillis() + "," + mode + "," + toMain + "," +
+                        toConfig + "," + toExit + "," + classes + "," + cmdlineClasses + "," +
+                        sharedClasses);
+            }
+        }
+    }
+
+    private static long median(List<Sample> samples, int metric){
+        long[] values = new long[samples.size()];
+        for(int i = 0; i < values.length; i++){
+            values[i] = samples.get(i).metrics[metric];
+        }
+        Arrays.sort(values);
+
+        return values[values.length / 2];
+    }
+
+    private static void delete(Path dir) throws IOException{
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+            for(Path file : stream){
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Metrics of a run: nanos to main, to config, to exit, classes loaded,
+     * cmdline classes loaded and classes loaded from the CDS archive
+     */
+    static final class Sample {
+        private final long[] metrics = new long[6];
+
+        static Sample of(List<String> lines, long launch, long exit){
+            Sample sample = new Sample();
+            boolean isReported = false;
+            for(String line : lines){
+                if(line.startsWith("startup ")){
+                    String[] nanos = line.split(" ");
+                    sample.metrics[0] = Long.parseLong(nanos[1]) - launch;
+                    sample.metrics[1] = Long.parseLong(nanos[2]) - launch;
+                    isReported = true;
+                }else if(line.startsWith("[Loaded ") || line.contains("[class,load]")){
+                    sample.metrics[3]++;
+                    if(line.contains(" cmdline.")){
+                        sample.metrics[4]++;
+                    }
+                    if(line.contains("shared objects file")){
+                        sample.metrics[5]++;
+                    }
+                }
+            }
+            sample.metrics[2] = exit - launch;
+
+            if(!isReported){
+                throw new IllegalStateException("Scenario didn't report: " + lines);
+            }
+
+            return sample;
+        }
+    }
+
+    /**
+     * Representative tool startup: define arguments and rules, parse,
+     * validate and bind to an app by setters, and to an annotated config
+     */
+    public static final class Scenario {
+        private String file;
+        private String scanDir;
+        private String action;
+        private String line;
+        private String criteria;
+        private boolean verbose;
+
+        public void setFile(String file){
+            this.file = file;
+        }
+
+        public void setScanDir(String scanDir){
+            this.scanDir = scanDir;
+        }
+
+        public void setAction(String action){
+            this.action = action;
+        }
+
+        public void setLine(String line){
+            this.line = line;
+        }
+
+        public void setCriteria(String criteria){
+            this.criteria = criteria;
+        }
+
+        public void setVerbose(String verbose){
+            this.verbose = verbose != null;
+        }
+
+        @Rule("-n lessThan 1000")
+        static final class Config {
+            @Option(shortName = "-n", longName = "--number")
+            private int number;
+            @Option(shortName = "-m", values = {"FAST", "SAFE"})
+            private String mode;
+        }
+
+        public static void main(String[] args){
+            long main = System.nanoTime();
+
+            CmdLineArgumentParser parser = new CmdLineArgumentParser();
+            parser.defineArguments(
+                "-f,--file,true,,true",
+                "-d,--scanDir,true,,true",
+                "-b,--backupDir,true",
+                "-a,--action,true,ADD|REMOVE,true",
+                "-l,--line,true,,true",
+                "-x,--excludePath,true",
+                "-w,--where,true,BEGIN|END,false",
+                "-c,--criteria,true",
+                "-v,--verbose,false"
+            );
+            parser.addArgumentRules(
+                "-c dependsOn -a=ADD",
+                "-w dependsOn -a=ADD",
+                "-x conflictsWith -c",
+                "-l isInteger",
+                "-l greatThan 0"
+            );
+            parser.addRuleExpressions("-x dependsOn -a=REMOVE || --verbose");
+            parser.parse("-f", "a.txt", "-d", ".", "-a", "ADD", "-l", "10", "-c", "x", "-v");
+
+            Scenario app = new Scenario();
+            parser.setArgumentsTo(app);
+
+            CmdLineArgumentParser configParser = CmdLineArgumentParser.forClass(Config.class);
+            configParser.parse("-n", "42", "-m", "FAST");
+            Config config = new Config();
+            configParser.setArgumentsTo(config);
+
+            long validated = System.nanoTime();
+            if(!"ADD".equals(app.action) || config.number != 42){
+                throw new IllegalStateException("Scenario config not bound");
+            }
+
+            System.out.println("startup " + main + " " + validated);
+        }
+    }
+}
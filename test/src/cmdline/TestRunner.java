@@ -7,100 +7,293 @@ package cmdline;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Tool to run a unit test based on Java reflection.
- * 
+ *
  * Create it to avoid unit test library dependency.
- * 
+ *
+ * Each test method runs on a new instance of the test class, and tests run
+ * in parallel on a pool of test.threads threads (number of processors by
+ * default). A test fails if it doesn't finish in test.timeout milliseconds
+ * (60 seconds by default). Wall time, CPU time and bytes allocated are
+ * reported for each test, e.g.
+ *
+ *    java -Dtest.threads=1 -Dtest.timeout=5000 cmdline.CmdLineArgumentParserTest
+ *
  * @author Wayne Zhang
  */
 public class TestRunner {
     public static boolean isVerbose = true;
-    
+
+    private static final int THREADS = Integer.getInteger("test.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final long TIMEOUT_MILLIS = Long.getLong("test.timeout", 60000);
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
     private static final class TestResult {
-        private boolean isPassed;
-        private String exceptionStack;
-        
-        TestResult(boolean isPassed, String exceptionStack){
-            this.isPassed = isPassed;
-            this.exceptionStack = exceptionStack;
+        private final String method;
+        private volatile boolean isPassed;
+        private volatile String exceptionStack;
+        // System.nanoTime when test started, 0 if not started yet
+        private volatile long startNanos;
+        private volatile long wallNanos;
+        // -1 if not supported by the JVM
+        private volatile long cpuNanos = -1;
+        private volatile long allocatedBytes = -1;
+        // result is final once timed out
+        private volatile boolean isTimedOut;
+
+        TestResult(String method){
+            this.method = method;
         }
     }
-    
+
+    /**
+     * Run tests of a test class and exit with code 1 if any test failed
+     *
+     * @param testClass test class
+     */
     public static void fire(Class<?> testClass){
-        final Map<String, TestResult> testResults = new HashMap<>();
-        
+        if(!run(testClass)){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run tests of a test class
+     *
+     * @param testClass test class
+     * @return true if all tests passed
+     */
+    public static boolean run(final Class<?> testClass){
+        List<Method> methods = new ArrayList<>();
+        for(Method m : testClass.getDeclaredMethods()){
+            // ignoe non test methods
+            if(m.getName().startsWith("test") && m.getParameterTypes().length == 0){
+                // make non-public method callable
+                m.setAccessible(true);
+                methods.add(m);
+            }
+        }
+
+        // report in name order
+        methods.sort(new Comparator<Method>(){
+            @Override
+            public int compare(Method m1, Method m2){
+                return m1.getName().compareTo(m2.getName());
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, THREADS),
+            new ThreadFactory(){
+                @Override
+                public Thread newThread(Runnable r){
+                    // daemon, so that tests timed out don't block exit
+                    Thread t = new Thread(r, "TestRunner");
+                    t.setDaemon(true);
+
+                    return t;
+                }
+            }
+        );
+
         // run test cases
+        List<TestResult> testResults = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        long startNanos = System.nanoTime();
         try{
-            Method[] methods = testClass.getDeclaredMethods();
-            Object test = testClass.newInstance();
-            for(Method m : methods){
-                String method = m.getName();
-                
-                // ignoe non test methods
-                if(!method.startsWith("test")){
-                    continue;
-                }
-                
-                boolean result = true;
-                String exceptionStack = null;
-                try{
-                    // make non-public method callable
-                    m.setAccessible(true);
-                    
-                    m.invoke(test);
-                }catch(Exception e){
-                    if(isVerbose){
-                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                        try(PrintStream ps = new PrintStream(bos)){
-                            e.printStackTrace(ps);
-                        }
-                        exceptionStack = bos.toString();
+            for(final Method m : methods){
+                final TestResult result = new TestResult(m.getName());
+                testResults.add(result);
+                futures.add(executor.submit(new Runnable(){
+                    @Override
+                    public void run(){
+                        runTest(testClass, m, result);
                     }
-                    
-                    result = false;
-                }
+                }));
+            }
 
-                testResults.put(method, new TestResult(result, exceptionStack));
+            for(int i = 0; i < futures.size(); i++){
+                await(futures.get(i), testResults.get(i));
             }
-        }catch(Exception e){
-            e.printStackTrace();
-            System.exit(0);
+        }finally{
+            executor.shutdownNow();
         }
-        
+        long wallNanos = System.nanoTime() - startNanos;
+
         // Print test result
         boolean testPassed = true;
-        for(TestResult result : testResults.values()){
-            if(result == null || !result.isPassed){
+        for(TestResult result : testResults){
+            if(!result.isPassed){
                 testPassed = false;
                 break;
             }
         }
-        
+
         StringBuilder buf = new StringBuilder();
         buf.append("\n================= ")
            .append(testClass.getName())
            .append(testPassed ? " Passed" : " Failed")
-           .append(" =================\n");               
-        
-        for(String method : testResults.keySet()){
-            TestResult result = testResults.get(method);
-            boolean isPassed = result != null && result.isPassed;
-            buf.append(method)
+           .append(" =================\n");
+
+        for(TestResult result : testResults){
+            buf.append(result.method)
                .append(": ")
-               .append(isPassed ? "V" : "X")
-               .append("\n");
-            
-            if(isVerbose && !isPassed){
+               .append(result.isPassed ? "V" : "X")
+               .append(" (wall ").append(millis(result.wallNanos))
+               .append(", cpu ").append(result.cpuNanos < 0 ? "n/a" : millis(result.cpuNanos))
+               .append(", alloc ").append(result.allocatedBytes < 0 ?
+                       "n/a" : kilobytes(result.allocatedBytes))
+               .append(")\n");
+
+            if(isVerbose && !result.isPassed){
                 buf.append(result.exceptionStack);
             }
         }
-        
+
+        buf.append(testResults.size()).append(" tests on ")
+           .append(Math.max(1, THREADS)).append(" threads in ")
+           .append(millis(wallNanos)).append('\n');
+
         System.out.flush();
         System.out.println(buf.toString());
-    }    
+
+        return testPassed;
+    }
+
+    private static void runTest(Class<?> testClass, Method m, TestResult result){
+        long threadId = Thread.currentThread().getId();
+        long cpuStart = cpuTime();
+        long allocatedStart = allocatedBytes(threadId);
+        result.startNanos = System.nanoTime();
+
+        boolean isPassed = true;
+        String exceptionStack = null;
+        try{
+            // new instance for each test, so that no state is shared
+            Object test = testClass.getDeclaredConstructor().newInstance();
+
+            m.invoke(test);
+        }catch(InvocationTargetException e){
+            isPassed = false;
+            exceptionStack = stackTrace(e.getCause());
+        }catch(Exception | Error e){
+            isPassed = false;
+            exceptionStack = stackTrace(e);
+        }
+
+        if(result.isTimedOut){
+            return;
+        }
+
+        result.wallNanos = System.nanoTime() - result.startNanos;
+        if(cpuStart >= 0){
+            result.cpuNanos = cpuTime() - cpuStart;
+        }
+        if(allocatedStart >= 0){
+            result.allocatedBytes = allocatedBytes(threadId) - allocatedStart;
+        }
+        result.exceptionStack = exceptionStack;
+        result.isPassed = isPassed;
+    }
+
+    /**
+     * Wait for a test to finish, the timeout starts when the test started
+     */
+    private static void await(Future<?> future, TestResult result){
+        while(true){
+            long started = result.startNanos;
+            long waitNanos = started == 0 ? TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS) :
+                    started + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS) - System.nanoTime();
+            try{
+                future.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+
+                return;
+            }catch(TimeoutException e){
+                if(result.startNanos != 0 &&
+                   System.nanoTime() - result.startNanos >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS))
+                {
+                    result.isTimedOut = true;
+                    future.cancel(true);
+
+                    result.wallNanos = System.nanoTime() - result.startNanos;
+                    result.exceptionStack = "Timed out after " + TIMEOUT_MILLIS + "ms\n";
+                    result.isPassed = false;
+
+                    return;
+                }
+            }catch(ExecutionException | CancellationException e){
+                result.exceptionStack = stackTrace(e);
+                result.isPassed = false;
+
+                return;
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+
+                throw new RuntimeException("Test interrupted: " + result.method, e);
+            }
+        }
+    }
+
+    private static long cpuTime(){
+        try{
+            return THREAD_BEAN.isCurrentThreadCpuTimeSupported() ?
+                    THREAD_BEAN.getCurrentThreadCpuTime() : -1;
+        }catch(UnsupportedOperationException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Get bytes allocated by a thread, by the HotSpot extension of ThreadMXBean
+     *
+     * @return bytes allocated or -1 if not supported
+     */
+    static long allocatedBytes(long threadId){
+        if(THREAD_BEAN instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)THREAD_BEAN;
+            try{
+                return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled() ?
+                        bean.getThreadAllocatedBytes(threadId) : -1;
+            }catch(UnsupportedOperationException e){
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static String stackTrace(Throwable e){
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(PrintStream ps = new PrintStream(bos)){
+            e.printStackTrace(ps);
+        }
+
+        return bos.toString();
+    }
+
+    private static String millis(long nanos){
+        return String.format("%.1fms", nanos / 1e6);
+    }
+
+    private static String kilobytes(long bytes){
+        return String.format("%.1fKB", bytes / 1024.0);
+    }
 }